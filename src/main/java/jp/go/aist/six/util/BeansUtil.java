@@ -412,6 +412,98 @@ public class BeansUtil
 
 
 
+    /**
+     * Tests if the properties of the object are equal to those of the other object.
+     * The properties compared are those that copyPropertiesExcept()
+     * would copy from the source to the destination,
+     * i.e. gettable in the source and settable in the destination.
+     * The values are compared by the equals method;
+     * arrays are compared by their elements.
+     *
+     * @param   dst
+     *  the destination object.
+     * @param   src
+     *  the source object.
+     * @param   properties
+     *  the names of the properties that should not be compared.
+     * @return
+     *  true if all the properties are equal.
+     */
+    public static boolean equalsPropertiesExcept(
+                    final Object dst,
+                    final Object src,
+                    final String[] properties
+                    )
+    {
+        if (dst == null) {
+            throw new IllegalArgumentException( "no destination object specified" );
+        }
+
+        if (src == null) {
+            throw new IllegalArgumentException( "no source object specified" );
+        }
+
+        Collection<String>  excepts = null;
+        if (properties != null  &&  properties.length > 0) {
+            excepts = Arrays.asList( properties );
+        }
+
+        Map<String, PropertyAccessor>  srcAccessors = _getAccessors( src.getClass() );
+        Map<String, PropertyAccessor>  dstAccessors = _getAccessors( dst.getClass() );
+        for (Map.Entry<String, PropertyAccessor>  entry : srcAccessors.entrySet()) {
+            String  name = entry.getKey();
+            if (excepts != null  &&  excepts.contains( name )) {
+                continue;
+            }
+
+            PropertyAccessor  srcAccessor = entry.getValue();
+            PropertyAccessor  dstAccessor = dstAccessors.get( name );
+            if (dstAccessor == null
+                            ||  !srcAccessor.isGettable()
+                            ||  !dstAccessor.isSettable()) {
+                continue;
+            }
+
+            if (!dstAccessor.isGettable()) {
+                // The destination value is unknown.
+                return false;
+            }
+
+            Object  srcValue = srcAccessor.getProperty( src );
+            Object  dstValue = dstAccessor.getProperty( dst );
+            if (! _equals( srcValue, dstValue )) {
+                if (_LOG_.isTraceEnabled()) {
+                    _LOG_.trace( "property differs: " + name );
+                }
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+
+
+    private static boolean _equals(
+                    final Object a,
+                    final Object b
+                    )
+    {
+        if (a == b) {
+            return true;
+        } else if (a == null  ||  b == null) {
+            return false;
+        } else if (a instanceof Object[]  &&  b instanceof Object[]) {
+            return Arrays.deepEquals( (Object[])a, (Object[])b );
+        } else if (a.getClass().isArray()  &&  b.getClass().isArray()) {
+            return Arrays.deepEquals( new Object[] { a }, new Object[] { b } );
+        }
+
+        return a.equals( b );
+    }
+
+
+
     /**
      */
     private static final PropertyAccessor _findAccessor(
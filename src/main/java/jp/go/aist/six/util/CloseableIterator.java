@@ -0,0 +1,84 @@
+/**
+ * SIX UTIL - https://staff.aist.go.jp/nakamura-akihito/six/util/
+ * Copyright (C) 2008
+ *   National Institute of Advanced Industrial Science and Technology (AIST)
+ *   Registration Number: H20PRO-863
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.go.aist.six.util;
+
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+
+
+
+/**
+ * An iterator over an underlying cursor, e.g. a database query result,
+ * which holds resources until it is closed.
+ * The elements are fetched on demand, so a large result can be
+ * traversed in bounded memory.
+ *
+ * <p>The iterator should be closed after use,
+ * typically in a try-with-resources statement.
+ * Closing an iterator that is already closed has no effect.
+ * </p>
+ *
+ * @author  Akihito Nakamura, AIST
+ * @version $Id$
+ */
+public interface CloseableIterator<E>
+    extends Iterator<E>, AutoCloseable
+{
+
+    /**
+     * Releases the underlying resources.
+     */
+    @Override
+    public void close();
+
+
+
+    /**
+     * Returns a sequential stream over the elements of the specified iterator.
+     * Closing the stream closes the iterator.
+     *
+     * @param   iterator
+     *  the iterator.
+     * @return
+     *  the stream.
+     */
+    public static <E> Stream<E> stream(
+                    final CloseableIterator<E> iterator
+                    )
+    {
+        Stream<E>  stream = StreamSupport.stream(
+                        Spliterators.spliteratorUnknownSize(
+                                        iterator, Spliterator.ORDERED ),
+                        false );
+
+        return stream.onClose( new Runnable()
+        {
+            public void run()
+            {
+                iterator.close();
+            }
+        });
+    }
+
+}
+//
@@ -92,6 +92,31 @@ public class NestedRuntimeException
 
 
 
+    /**
+     * Constructs a NestedRuntimeException with the specified
+     * detail message and cause, and with or without the stack trace.
+     * An exception without the stack trace is cheap to create,
+     * and is suitable for an expected condition on a hot path,
+     * e.g. a miss of a lookup.
+     *
+     * @param   message
+     *  the detail message.
+     * @param   cause
+     *  the cause.
+     * @param   writableStackTrace
+     *  false to skip filling in the stack trace.
+     */
+    protected NestedRuntimeException(
+                    final String message,
+                    final Throwable cause,
+                    final boolean writableStackTrace
+                    )
+    {
+        super( message, cause, true, writableStackTrace );
+    }
+
+
+
     /**
      * Retrieve the most specific cause of this exception, that is,
      * either the innermost cause (root cause) or this exception itself.
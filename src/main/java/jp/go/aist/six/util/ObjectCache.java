@@ -0,0 +1,423 @@
+/**
+ * SIX UTIL - https://staff.aist.go.jp/nakamura-akihito/six/util/
+ * Copyright (C) 2008
+ *   National Institute of Advanced Industrial Science and Technology (AIST)
+ *   Registration Number: H20PRO-863
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.go.aist.six.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+
+
+/**
+ * A bounded, thread-safe object cache.
+ * When the number of the entries exceeds the maximum size,
+ * the least recently used entry is evicted.
+ * An entry older than the time-to-live is treated as absent.
+ *
+ * <p>Each removal of a key increments its invalidation version.
+ * A value read from the data store may be put conditionally,
+ * with the version obtained before the read, by put(K, V, long),
+ * so that a value read before a concurrent update is not cached
+ * after the update has removed the key.
+ * The versions of the recently removed keys are kept up to the maximum size;
+ * a key whose version is forgotten has the highest version forgotten,
+ * which only rejects some conditional puts.
+ * </p>
+ *
+ * @author  Akihito Nakamura, AIST
+ * @version $Id$
+ */
+public class ObjectCache<K, V>
+{
+
+    public static final int  DEFAULT_MAX_SIZE = 1000;
+
+
+    /**
+     * The default time-to-live in milliseconds.
+     * Zero means that the entries never expire.
+     */
+    public static final long  DEFAULT_TIME_TO_LIVE = 0L;
+
+
+
+    private int  _maxSize = DEFAULT_MAX_SIZE;
+
+    private long  _timeToLive = DEFAULT_TIME_TO_LIVE;
+
+
+    private final Map<K, Entry<V>>  _entries;
+
+
+    /**
+     * Key - invalidation version of the recently removed keys.
+     */
+    private final Map<K, Long>  _invalidations;
+
+    private long  _version = 0L;
+
+    /**
+     * The highest version forgotten by _invalidations.
+     */
+    private long  _versionFloor = 0L;
+
+
+    private long  _hitCount = 0L;
+    private long  _missCount = 0L;
+    private long  _evictionCount = 0L;
+    private long  _expirationCount = 0L;
+
+
+
+    /**
+     * Constructor.
+     */
+    public ObjectCache()
+    {
+        _entries = new LinkedHashMap<K, Entry<V>>( 16, 0.75f, true )
+        {
+            private static final long  serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(
+                            final Map.Entry<K, Entry<V>> eldest
+                            )
+            {
+                if (size() > _maxSize) {
+                    _evictionCount++;
+                    return true;
+                }
+
+                return false;
+            }
+        };
+
+        _invalidations = new LinkedHashMap<K, Long>( 16, 0.75f, false )
+        {
+            private static final long  serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(
+                            final Map.Entry<K, Long> eldest
+                            )
+            {
+                if (size() > _maxSize) {
+                    _versionFloor = Math.max( _versionFloor, eldest.getValue() );
+                    return true;
+                }
+
+                return false;
+            }
+        };
+    }
+
+
+    /**
+     * Constructor.
+     *
+     * @param   maxSize
+     *  the maximum number of the entries.
+     * @param   timeToLive
+     *  the time-to-live of the entries in milliseconds,
+     *  or zero if the entries never expire.
+     */
+    public ObjectCache(
+                    final int maxSize,
+                    final long timeToLive
+                    )
+    {
+        this();
+        setMaxSize( maxSize );
+        setTimeToLive( timeToLive );
+    }
+
+
+
+    /**
+     */
+    public synchronized void setMaxSize(
+                    final int maxSize
+                    )
+    {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException( "invalid max size: " + maxSize );
+        }
+
+        _maxSize = maxSize;
+    }
+
+
+    public synchronized int getMaxSize()
+    {
+        return _maxSize;
+    }
+
+
+
+    /**
+     */
+    public synchronized void setTimeToLive(
+                    final long timeToLive
+                    )
+    {
+        if (timeToLive < 0L) {
+            throw new IllegalArgumentException( "invalid time-to-live: " + timeToLive );
+        }
+
+        _timeToLive = timeToLive;
+    }
+
+
+    public synchronized long getTimeToLive()
+    {
+        return _timeToLive;
+    }
+
+
+
+    /**
+     * Returns the value cached for the specified key,
+     * or null if no such entry exists or the entry has expired.
+     */
+    public synchronized V get(
+                    final K key
+                    )
+    {
+        if (key == null) {
+            return null;
+        }
+
+        Entry<V>  entry = _entries.get( key );
+        if (entry == null) {
+            _missCount++;
+            return null;
+        }
+
+        if (_isExpired( entry )) {
+            _entries.remove( key );
+            _expirationCount++;
+            _missCount++;
+            return null;
+        }
+
+        _hitCount++;
+        return entry.value;
+    }
+
+
+
+    /**
+     */
+    public synchronized void put(
+                    final K key,
+                    final V value
+                    )
+    {
+        if (key == null  ||  value == null) {
+            return;
+        }
+
+        _entries.put( key, new Entry<V>( value, System.currentTimeMillis() ) );
+    }
+
+
+
+    /**
+     * Puts the value only if the key has not been removed
+     * since the specified invalidation version was obtained.
+     *
+     * @param   key
+     *  the key.
+     * @param   value
+     *  the value.
+     * @param   version
+     *  the invalidation version obtained by getVersion(K)
+     *  before the value was read.
+     * @return
+     *  true if the value is put.
+     */
+    public synchronized boolean put(
+                    final K key,
+                    final V value,
+                    final long version
+                    )
+    {
+        if (key == null  ||  value == null  ||  getVersion( key ) != version) {
+            return false;
+        }
+
+        _entries.put( key, new Entry<V>( value, System.currentTimeMillis() ) );
+        return true;
+    }
+
+
+
+    /**
+     * Returns the invalidation version of the specified key,
+     * which changes whenever the key is removed.
+     */
+    public synchronized long getVersion(
+                    final K key
+                    )
+    {
+        Long  version = _invalidations.get( key );
+        return (version == null ? _versionFloor : version.longValue());
+    }
+
+
+
+    /**
+     * Removes the entry, and increments the invalidation version of the key.
+     */
+    public synchronized void remove(
+                    final K key
+                    )
+    {
+        if (key == null) {
+            return;
+        }
+
+        _entries.remove( key );
+        _invalidations.remove( key );
+        _invalidations.put( key, Long.valueOf( ++_version ) );
+    }
+
+
+
+    /**
+     * Removes all the entries, and increments the invalidation version
+     * of all the keys.
+     */
+    public synchronized void clear()
+    {
+        _entries.clear();
+        _invalidations.clear();
+        _versionFloor = ++_version;
+    }
+
+
+
+    /**
+     */
+    public synchronized int size()
+    {
+        return _entries.size();
+    }
+
+
+
+    private boolean _isExpired(
+                    final Entry<V> entry
+                    )
+    {
+        return (_timeToLive > 0L
+                        &&  (System.currentTimeMillis() - entry.timestamp) > _timeToLive);
+    }
+
+
+
+    // statistics //////////////////////////////////////////////////
+
+    public synchronized long getHitCount()
+    {
+        return _hitCount;
+    }
+
+
+    public synchronized long getMissCount()
+    {
+        return _missCount;
+    }
+
+
+    public synchronized long getEvictionCount()
+    {
+        return _evictionCount;
+    }
+
+
+    public synchronized long getExpirationCount()
+    {
+        return _expirationCount;
+    }
+
+
+    /**
+     * Returns the ratio of the hits to the total lookups,
+     * or 0.0 if no lookup has been performed.
+     */
+    public synchronized double getHitRatio()
+    {
+        long  total = _hitCount + _missCount;
+        return (total == 0L ? 0.0 : ((double)_hitCount / total));
+    }
+
+
+    public synchronized void resetStatistics()
+    {
+        _hitCount = 0L;
+        _missCount = 0L;
+        _evictionCount = 0L;
+        _expirationCount = 0L;
+    }
+
+
+
+    //**************************************************************
+    //  java.lang.Object
+    //**************************************************************
+
+    @Override
+    public synchronized String toString()
+    {
+        return "ObjectCache[size=" + _entries.size()
+                        + ", maxSize=" + _maxSize
+                        + ", timeToLive=" + _timeToLive
+                        + ", hits=" + _hitCount
+                        + ", misses=" + _missCount
+                        + ", evictions=" + _evictionCount
+                        + ", expirations=" + _expirationCount
+                        + ", hitRatio=" + getHitRatio()
+                        + "]";
+    }
+
+
+
+    /**
+     * A cache entry.
+     */
+    private static class Entry<V>
+    {
+        final V  value;
+        final long  timestamp;
+
+
+        Entry(
+                        final V value,
+                        final long timestamp
+                        )
+        {
+            this.value = value;
+            this.timestamp = timestamp;
+        }
+    }
+    // Entry
+
+}
+//
@@ -18,6 +18,9 @@
  */
 package jp.go.aist.six.util.core.persist.castor;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 import jp.go.aist.six.util.persist.Association;
 
 
@@ -51,5 +54,47 @@ public class AssociationDao<K, T extends Association<K,?,?,?,?>>
         super( type, helper );
     }
 
+
+
+    /**
+     * Finds the associations whose antecendent is one of the specified objects,
+     * and groups them by the antecendent ID.
+     * The associations are fetched in IN LIST queries of up to IN_LIST_MAX_SIZE IDs,
+     * so the associations of a whole result page are resolved at once
+     * and can be attached to the antecendent objects in memory.
+     *
+     * @param   ids
+     *  the persistent IDs of the antecendent objects.
+     * @return
+     *  the associations keyed by the antecendent ID,
+     *  in the order of the specified IDs.
+     */
+    public <L> Map<L, List<T>> findByAntecendent(
+                    final Collection<? extends L> ids
+                    )
+    {
+        return _findGroupedByPropertyIn( "antecendentPersistentID", ids );
+    }
+
+
+
+    /**
+     * Finds the associations whose dependent is one of the specified objects,
+     * and groups them by the dependent ID.
+     *
+     * @param   ids
+     *  the persistent IDs of the dependent objects.
+     * @return
+     *  the associations keyed by the dependent ID,
+     *  in the order of the specified IDs.
+     * @see #findByAntecendent(Collection)
+     */
+    public <M> Map<M, List<T>> findByDependent(
+                    final Collection<? extends M> ids
+                    )
+    {
+        return _findGroupedByPropertyIn( "dependentPersistentID", ids );
+    }
+
 }
 // AssociationDao
@@ -18,6 +18,9 @@
  */
 package jp.go.aist.six.util.core.persist.castor;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 import jp.go.aist.six.util.persist.AssociationEntry;
 
 
@@ -53,6 +56,48 @@ public class AssociationEntryDao<K, T extends AssociationEntry<K,?,?>>
 
 
 
+    /**
+     * Finds the entries whose antecendent is one of the specified objects,
+     * and groups them by the antecendent ID.
+     * The entries are fetched in IN LIST queries of up to IN_LIST_MAX_SIZE IDs,
+     * so the entries of a whole result page are resolved at once
+     * and can be attached to the antecendent objects in memory.
+     *
+     * @param   ids
+     *  the persistent IDs of the antecendent objects.
+     * @return
+     *  the entries keyed by the antecendent ID,
+     *  in the order of the specified IDs.
+     */
+    public <L> Map<L, List<T>> findByAntecendent(
+                    final Collection<? extends L> ids
+                    )
+    {
+        return _findGroupedByPropertyIn( "antecendentPersistentID", ids );
+    }
+
+
+
+    /**
+     * Finds the entries whose dependent is one of the specified objects,
+     * and groups them by the dependent ID.
+     *
+     * @param   ids
+     *  the persistent IDs of the dependent objects.
+     * @return
+     *  the entries keyed by the dependent ID,
+     *  in the order of the specified IDs.
+     * @see #findByAntecendent(Collection)
+     */
+    public <M> Map<M, List<T>> findByDependent(
+                    final Collection<? extends M> ids
+                    )
+    {
+        return _findGroupedByPropertyIn( "dependentPersistentID", ids );
+    }
+
+
+
     //**************************************************************
     //  Dao, CastorDao
     //**************************************************************
@@ -70,5 +115,17 @@ public class AssociationEntryDao<K, T extends AssociationEntry<K,?,?>>
         // nothing to copy
     }
 
+
+
+    @Override
+    protected boolean _daoIsModified(
+                    final T object,
+                    final T p_object
+                    )
+    {
+        // nothing to copy
+        return false;
+    }
+
 }
 // AssociationEntryDao
@@ -64,6 +64,17 @@ public class AssociationEntryHelper<T extends AssociationEntry<?,?,?>>
 
 
 
+    @Override
+    public String[] getUniqueProperties()
+    {
+        return (new String[] {
+                        "antecendentPersistentID",
+                        "dependentPersistentID"
+        });
+    }
+
+
+
     @Override
     public String getUniqueFilter()
     {
@@ -18,24 +18,51 @@
  */
 package jp.go.aist.six.util.core.persist.castor;
 
+import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
 import jp.go.aist.six.util.BeansUtil;
+import jp.go.aist.six.util.CloseableIterator;
+import jp.go.aist.six.util.ObjectCache;
+import jp.go.aist.six.util.persist.AssociationEntry;
 import jp.go.aist.six.util.persist.Dao;
+import jp.go.aist.six.util.persist.FetchPlan;
+import jp.go.aist.six.util.persist.IdentityAllocator;
+import jp.go.aist.six.util.persist.LazyList;
 import jp.go.aist.six.util.persist.Persistable;
 import jp.go.aist.six.util.persist.PersistenceException;
 import jp.go.aist.six.util.search.Binding;
+import jp.go.aist.six.util.search.InBinding;
 import jp.go.aist.six.util.search.Limit;
 import jp.go.aist.six.util.search.Order;
+import jp.go.aist.six.util.search.RelationalBinding;
 import jp.go.aist.six.util.search.SearchCriteria;
 import org.exolab.castor.jdo.DuplicateIdentityException;
 import org.exolab.castor.jdo.ObjectNotFoundException;
+import org.exolab.castor.jdo.QueryResults;
 import org.exolab.castor.jdo.TimeStampable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.dao.DataAccessException;
+import org.springframework.transaction.TransactionException;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 
 
@@ -56,6 +83,23 @@ public class CastorDao<K, T extends Persistable<K>>
 //    private static Log  _LOG = LogFactory.getLog( CastorDao.class );
 
 
+    /**
+     * The maximum number of the values in an IN LIST predicate.
+     * A longer value list is split into multiple queries.
+     */
+    protected static final int  IN_LIST_MAX_SIZE = 500;
+
+
+
+    /**
+     * The fetch plan of the current load or find operation.
+     * It is bound to the thread and shared by all the Daos,
+     * so it also applies to the related objects loaded by other Daos.
+     */
+    private static final ThreadLocal<FetchPlan>  _FETCH_PLAN_ =
+        new ThreadLocal<FetchPlan>();
+
+
     private Class<? extends T>  _objectType;
 
     private String  _objectTypeName;
@@ -68,6 +112,71 @@ public class CastorDao<K, T extends Persistable<K>>
     private String  _daoProfile;
 
 
+    /**
+     * The second-level cache of the persistent objects, keyed by
+     * the persistent ID. If null, caching is disabled.
+     */
+    private ObjectCache<K, T>  _objectCache;
+
+
+    /**
+     * The index of the persistent IDs keyed by the unique value.
+     * It is available only in the bulk import mode.
+     */
+    private volatile UniqueIndex<K>  _uniqueIndex;
+
+
+    /**
+     * If true, the sync operation skips the objects
+     * whose properties are not changed.
+     */
+    private boolean  _dirtyCheckingEnabled = false;
+
+
+    /**
+     * The sync statistics.
+     */
+    private final AtomicLong  _syncCreatedCount = new AtomicLong();
+    private final AtomicLong  _syncUpdatedCount = new AtomicLong();
+    private final AtomicLong  _syncSkippedCount = new AtomicLong();
+
+
+
+    /**
+     * The allocator of the persistent IDs of the new objects.
+     * If null, the ID is generated by the data store on create.
+     */
+    private IdentityAllocator<? extends K>  _identityAllocator;
+
+
+    /**
+     * The transaction in which a lazy relation is fetched.
+     * If null, it is fetched in the transaction active at that time.
+     */
+    private TransactionTemplate  _lazyLoadTemplate;
+
+
+    /**
+     * The listeners notified of the executed queries.
+     */
+    private final List<QueryListener>  _queryListeners =
+        new CopyOnWriteArrayList<QueryListener>();
+
+
+    /**
+     * The relations fetched on load, declared by _declareRelation.
+     */
+    private final List<RelationDeclaration<?, ?>>  _relations =
+        new CopyOnWriteArrayList<RelationDeclaration<?, ?>>();
+
+
+    /**
+     * The associations removed with the objects, declared by _declareAssociation.
+     */
+    private final List<AssociationDeclaration<?, ?>>  _associations =
+        new CopyOnWriteArrayList<AssociationDeclaration<?, ?>>();
+
+
 
     /**
      * Constructor.
@@ -173,6 +282,381 @@ public class CastorDao<K, T extends Persistable<K>>
 
 
 
+    /**
+     * Sets the second-level cache of the persistent objects.
+     * The cache is used only in read-only transactions,
+     * and populated after the transaction is committed.
+     * The objects written in a transaction are evicted
+     * when it completes.
+     *
+     * <p>The cached objects are shared among the callers of load()
+     * and loadAll() in the read-only transactions, i.e. they are read-only;
+     * a caller must not modify them.
+     * A caller that modifies the object should load it
+     * in a read-write transaction, in which the cache is not used
+     * and the object is not shared.
+     * </p>
+     *
+     * @param   cache
+     *  the cache, or null to disable caching.
+     */
+    public void setObjectCache(
+                    final ObjectCache<K, T> cache
+                    )
+    {
+        _objectCache = cache;
+        if(_LOG_.isDebugEnabled()) {
+            _LOG_.debug( "object cache=" + cache + ", "
+                            + (_daoProfile == null ? getClass().getName() : _daoProfile)
+            );
+        }
+    }
+
+
+    public ObjectCache<K, T> getObjectCache()
+    {
+        return _objectCache;
+    }
+
+
+
+    /**
+     * Removes the object of the specified identity from the cache,
+     * and again when the current transaction completes.
+     * Each removal changes the invalidation version of the identity,
+     * so an object loaded by a concurrent read before the commit
+     * is not put in the cache after this eviction;
+     * see _loadCached(K).
+     */
+    protected void _cacheEvict(
+                    final K id
+                    )
+    {
+        ObjectCache<K, T>  cache = _objectCache;
+        if (cache == null  ||  id == null) {
+            return;
+        }
+
+        cache.remove( id );
+        CacheSynchronization<K, T>  sync = _cacheSynchronization( cache );
+        if (sync != null) {
+            sync.evict( id );
+        }
+    }
+
+
+
+    /**
+     * Returns the synchronization of the cache with the current transaction,
+     * or null if no transaction synchronization is active.
+     */
+    private static <K, T> CacheSynchronization<K, T> _cacheSynchronization(
+                    final ObjectCache<K, T> cache
+                    )
+    {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return null;
+        }
+
+        @SuppressWarnings( "unchecked" )
+        CacheSynchronization<K, T>  sync =
+            (CacheSynchronization<K, T>)TransactionSynchronizationManager.getResource( cache );
+        if (sync == null) {
+            sync = new CacheSynchronization<K, T>( cache );
+            TransactionSynchronizationManager.bindResource( cache, sync );
+            TransactionSynchronizationManager.registerSynchronization( sync );
+        }
+
+        return sync;
+    }
+
+
+
+    /**
+     * Enables or disables the dirty checking in the sync operation.
+     * If enabled, the properties of the object are compared with
+     * those of the persistent object before _daoBeforeSync is called,
+     * and the object is skipped if nothing is changed.
+     * The comparison is performed by the template method _daoIsModified.
+     */
+    public void setDirtyCheckingEnabled(
+                    final boolean enabled
+                    )
+    {
+        _dirtyCheckingEnabled = enabled;
+    }
+
+
+    public boolean isDirtyCheckingEnabled()
+    {
+        return _dirtyCheckingEnabled;
+    }
+
+
+
+    /**
+     * Returns the number of the objects created by the sync operations.
+     */
+    public long getSyncCreatedCount()
+    {
+        return _syncCreatedCount.get();
+    }
+
+
+    /**
+     * Returns the number of the objects updated by the sync operations.
+     */
+    public long getSyncUpdatedCount()
+    {
+        return _syncUpdatedCount.get();
+    }
+
+
+    /**
+     * Returns the number of the objects skipped by the sync operations
+     * because they are not modified.
+     */
+    public long getSyncSkippedCount()
+    {
+        return _syncSkippedCount.get();
+    }
+
+
+
+    /**
+     * Sets the allocator of the persistent IDs.
+     * A new object that has no persistent ID is assigned one by the allocator
+     * before it is created, e.g. from a block of IDs reserved in advance,
+     * so the creation does not need a key generation round-trip per object.
+     * The Castor mapping of the type should not define a key generator then.
+     *
+     * @param   allocator
+     *  the allocator, or null to let the data store generate the IDs.
+     */
+    public void setIdentityAllocator(
+                    final IdentityAllocator<? extends K> allocator
+                    )
+    {
+        _identityAllocator = allocator;
+    }
+
+
+    public IdentityAllocator<? extends K> getIdentityAllocator()
+    {
+        return _identityAllocator;
+    }
+
+
+
+    /**
+     * Sets the transaction template used to fetch the lazy relations,
+     * which are typically accessed after the load transaction has completed.
+     * A read-only template with PROPAGATION_REQUIRED joins the active
+     * transaction if any.
+     */
+    public void setLazyLoadTemplate(
+                    final TransactionTemplate template
+                    )
+    {
+        _lazyLoadTemplate = template;
+    }
+
+
+
+    /**
+     * Adds a listener notified of the OQL queries executed by this Dao,
+     * e.g. QueryStatistics or SlowQueryLog.
+     */
+    public void addQueryListener(
+                    final QueryListener listener
+                    )
+    {
+        if (listener == null) {
+            throw new IllegalArgumentException( "null listener" );
+        }
+
+        _queryListeners.add( listener );
+    }
+
+
+    public void removeQueryListener(
+                    final QueryListener listener
+                    )
+    {
+        _queryListeners.remove( listener );
+    }
+
+
+
+    /**
+     * Notifies the listeners of the executed query,
+     * or of the failed query if the error is not null.
+     * An exception thrown by a listener does not affect the query.
+     */
+    private void _fireQueryCompleted(
+                    final String oql,
+                    final Object[] params,
+                    final int rowCount,
+                    final Throwable error,
+                    final long elapsedNanos
+                    )
+    {
+        for (QueryListener  listener : _queryListeners) {
+            try {
+                if (error == null) {
+                    listener.queryExecuted( _objectType, oql, params, rowCount, elapsedNanos );
+                } else {
+                    listener.queryFailed( _objectType, oql, params, error, elapsedNanos );
+                }
+            } catch (RuntimeException ex) {
+                if (_LOG_.isWarnEnabled()) {
+                    _LOG_.warn( "query listener error: " + ex );
+                }
+            }
+        }
+    }
+
+
+
+    /**
+     * Enters the bulk import mode.
+     * The pairs of the unique value and the persistent ID of all the objects
+     * are loaded in one query, and the uniqueness checks during the import
+     * are performed against this in-memory index instead of the data store.
+     * The index is updated as the objects are created or removed,
+     * when the transaction is committed.
+     *
+     * <p>The index assumes that this Dao is the only writer of the type
+     * during the import.
+     * If the type has no unique property or the helper does not declare
+     * the unique properties, this method has no effect.
+     * </p>
+     */
+    public void beginBulkImport()
+    {
+        if (! _helper.hasUnique()) {
+            return;
+        }
+
+        String[]  properties = _helper.getUniqueProperties();
+        if (properties == null  ||  properties.length == 0) {
+            if(_LOG_.isDebugEnabled()) {
+                _LOG_.debug( "no unique properties declared: " + _daoProfile );
+            }
+            return;
+        }
+
+        StringBuilder  oql = new StringBuilder( "SELECT o.persistentID" );
+        for (String  property : properties) {
+            oql.append( ", o." ).append( property );
+        }
+        oql.append( " FROM " ).append( _objectTypeName ).append( " o" );
+
+        List<Object>  rows = _jdoExecuteQuery( oql.toString(), null );
+        UniqueIndex<K>  index = _buildUniqueIndex( rows );
+
+        _uniqueIndex = index;
+        if(_LOG_.isInfoEnabled()) {
+            _LOG_.info( "bulk import begin: unique index size=" + index.size()
+                            + ", " + _daoProfile );
+        }
+    }
+
+
+
+    /**
+     * Leaves the bulk import mode and discards the unique-key index.
+     */
+    public void endBulkImport()
+    {
+        if (_uniqueIndex == null) {
+            return;
+        }
+
+        if(_LOG_.isInfoEnabled()) {
+            _LOG_.info( "bulk import end: unique index size=" + _uniqueIndex.size()
+                            + ", " + _daoProfile );
+        }
+        _uniqueIndex = null;
+    }
+
+
+
+    /**
+     * Builds the unique-key index from the rows of the persistent ID
+     * and the unique values.
+     */
+    static <K> UniqueIndex<K> _buildUniqueIndex(
+                    final List<Object> rows
+                    )
+    {
+        UniqueIndex<K>  index = new UniqueIndex<K>( rows.size() );
+        for (Object  row : rows) {
+            Object[]  values = (Object[])row;
+            @SuppressWarnings( "unchecked" )
+            K  id = (K)values[0];
+            index.load( _uniqueKey( Arrays.copyOfRange( values, 1, values.length ) ), id );
+        }
+
+        return index;
+    }
+
+
+
+    /**
+     * Returns the key of the unique-key index for the specified unique value.
+     * The key is always a List of the elements,
+     * whether the unique value is a single value or an array,
+     * so that a single value from the OQL row matches
+     * a unary array from the helper, and vice versa.
+     */
+    static List<Object> _uniqueKey(
+                    final Object unique
+                    )
+    {
+        Object[]  values = (unique instanceof Object[]
+                        ? (Object[])unique : new Object[] { unique });
+        List<Object>  key = new ArrayList<Object>( values.length );
+        for (Object  value : values) {
+            key.add( _uniqueKeyElement( value ) );
+        }
+
+        return key;
+    }
+
+
+
+    /**
+     * Normalizes the type of an element of the unique key.
+     * The OQL projection may return a value of the type different from
+     * that of the property, e.g. Integer for a long property
+     * or Timestamp for a Date property, which is not equal to the value
+     * returned by the helper.
+     * The integral numbers are converted to Long,
+     * the floating point numbers to Double,
+     * the decimals are stripped of the trailing zeros,
+     * and the dates are converted to the milliseconds.
+     */
+    private static Object _uniqueKeyElement(
+                    final Object value
+                    )
+    {
+        if (value instanceof Byte  ||  value instanceof Short
+                        ||  value instanceof Integer  ||  value instanceof Long) {
+            return Long.valueOf( Number.class.cast( value ).longValue() );
+        } else if (value instanceof Float  ||  value instanceof Double) {
+            return Double.valueOf( Number.class.cast( value ).doubleValue() );
+        } else if (value instanceof BigDecimal) {
+            return BigDecimal.class.cast( value ).stripTrailingZeros();
+        } else if (value instanceof Date) {
+            return Long.valueOf( Date.class.cast( value ).getTime() );
+        }
+
+        return value;
+    }
+
+
+
     /**
      * Converts the type of specified object to array.
      * If the type of the object is array, it is simply casted.
@@ -332,11 +816,25 @@ public class CastorDao<K, T extends Persistable<K>>
                     final Object[] params
                     )
     {
+        final boolean  timed = !_queryListeners.isEmpty();
+        final long  ts_start = (timed ? System.nanoTime() : 0L);
+
         List<Object>  results = null;
+        Throwable  error = null;
         try {
             results = getExtendedCastorTemplate().findByQuery( oql, params );
         } catch (DataAccessException ex) {
-            throw new PersistenceException( ex.getMostSpecificCause() );
+            error = ex.getMostSpecificCause();
+            throw new PersistenceException( error );
+        } catch (RuntimeException ex) {
+            error = ex;
+            throw ex;
+        } finally {
+            if (timed) {
+                _fireQueryCompleted( oql, params,
+                                (results == null ? 0 : results.size()), error,
+                                System.nanoTime() - ts_start );
+            }
         }
 
         return results;
@@ -345,29 +843,98 @@ public class CastorDao<K, T extends Persistable<K>>
 
 
     /**
+     * Executes the specified OQL query, and applies the limit to the results.
+     * The OQL LIMIT clause stays disabled,
+     * so the fetch is bounded by the cursor instead:
+     * at most offset + count results are read, and the cursor is closed.
      */
-    private void _jdoCreate(
-                    final Object object
+    private List<Object> _jdoExecuteQuery(
+                    final String oql,
+                    final Object[] params,
+                    final Limit limit
                     )
     {
+        long  maxResults = (limit != null  &&  limit.getCount() >= 0
+                        ? (long)limit.getOffset() + limit.getCount() : -1L);
+        if (maxResults < 0L  ||  maxResults > Integer.MAX_VALUE) {
+            List<Object>  results = _jdoExecuteQuery( oql, params );
+            return (results == null  ||  limit == null ? results : limit.apply( results ));
+        }
+
+        List<Object>  results = new ArrayList<Object>();
+        QueryResults  cursor = _jdoOpenQuery( oql, params );
         try {
-            getCastorTemplate().create( object );
-        } catch (DataAccessException ex) {
-            Throwable  cause = ex.getMostSpecificCause();
-            if (DuplicateIdentityException.class.isInstance( cause )) {
-                throw new PersistenceException( cause );
-                //TODO:
-                //throw new DuplicateObjectException( cause );
-            } else {
-                throw new PersistenceException( cause );
+            while (results.size() < maxResults  &&  cursor.hasMore()) {
+                results.add( cursor.next() );
             }
+        } catch (org.exolab.castor.jdo.PersistenceException ex) {
+            throw new PersistenceException( ex );
+        } finally {
+            cursor.close();
         }
+
+        return limit.apply( results );
     }
 
 
 
-    private void _jdoUpdate(
-                    final T object
+    /**
+     * Executes the specified OQL query and returns the open results.
+     */
+    private QueryResults _jdoOpenQuery(
+                    final String oql,
+                    final Object[] params
+                    )
+    {
+        final boolean  timed = !_queryListeners.isEmpty();
+        final long  ts_start = (timed ? System.nanoTime() : 0L);
+
+        QueryResults  results = null;
+        Throwable  error = null;
+        try {
+            results = getExtendedCastorTemplate().openQuery( oql, params );
+        } catch (DataAccessException ex) {
+            error = ex.getMostSpecificCause();
+            throw new PersistenceException( error );
+        } catch (RuntimeException ex) {
+            error = ex;
+            throw ex;
+        } finally {
+            if (timed) {
+                _fireQueryCompleted( oql, params, -1, error,
+                                System.nanoTime() - ts_start );
+            }
+        }
+
+        return results;
+    }
+
+
+
+    /**
+     */
+    private void _jdoCreate(
+                    final Object object
+                    )
+    {
+        try {
+            getCastorTemplate().create( object );
+        } catch (DataAccessException ex) {
+            Throwable  cause = ex.getMostSpecificCause();
+            if (DuplicateIdentityException.class.isInstance( cause )) {
+                throw new PersistenceException( cause );
+                //TODO:
+                //throw new DuplicateObjectException( cause );
+            } else {
+                throw new PersistenceException( cause );
+            }
+        }
+    }
+
+
+
+    private void _jdoUpdate(
+                    final T object
                     )
     {
         try {
@@ -445,15 +1012,17 @@ public class CastorDao<K, T extends Persistable<K>>
         String  oqlStatement = oql.getStatement();
         Object[]  params = oql.getParameterValues();
 
-        List<Object>  pObjs = _jdoExecuteQuery( oqlStatement, params );
+        List<Object>  pObjs = _jdoExecuteQuery( oqlStatement, params,
+                        (criteria == null ? null : criteria.getLimit()) );
+
         if (pObjs != null  &&  pObjs.size() > 0) {
+            List<T>  objs = new ArrayList<T>( pObjs.size() );
             for (Object  pObj : pObjs) {
                 if (_objectType.isInstance( pObj )) {
-                    @SuppressWarnings( "unchecked" )
-                    T  obj = (T)pObj;
-                    _daoAfterLoad( obj );
+                    objs.add( _objectType.cast( pObj ) );
                 }
             }
+            _afterLoadPage( objs );
         }
 
         return pObjs;
@@ -461,6 +1030,169 @@ public class CastorDao<K, T extends Persistable<K>>
 
 
 
+    /**
+     * Executes the projections of the criteria in the data store.
+     * The result of a single projection is a scalar value,
+     * and it is wrapped in a row of length one.
+     * With a limit, the rows are read from the cursor
+     * only up to offset + count.
+     */
+    private List<Object[]> _searchRows(
+                    final SearchCriteria criteria
+                    )
+    {
+        OQL  oql = new OQL( _objectType, "o", criteria );
+        String  oqlStatement = oql.getStatement();
+        Object[]  params = oql.getParameterValues();
+        if(_LOG_.isDebugEnabled()) {
+            _LOG_.debug( "OQL statement: " + oqlStatement );
+            _LOG_.debug( "OQL params: " + Arrays.toString( params ) );
+        }
+
+        List<Object>  values = _jdoExecuteQuery( oqlStatement, params, criteria.getLimit() );
+
+        List<Object[]>  rows = new ArrayList<Object[]>( values == null ? 0 : values.size() );
+        if (values != null) {
+            for (Object  value : values) {
+                if (value instanceof Object[]) {
+                    rows.add( (Object[])value );
+                } else {
+                    rows.add( new Object[] { value } );
+                }
+            }
+        }
+
+        return rows;
+    }
+
+
+
+    /**
+     * Support method:
+     * Finds the objects whose property value is contained in the specified values.
+     * The values are split into chunks of IN_LIST_MAX_SIZE,
+     * and an IN LIST query is executed for each chunk.
+     */
+    protected List<T> _findByPropertyIn(
+                    final String property,
+                    final Collection<?> values
+                    )
+    {
+        return _findByPropertyIn( property, values, null );
+    }
+
+
+    /**
+     * Support method:
+     * The objects of each chunk are sorted by the specified ordering.
+     */
+    protected List<T> _findByPropertyIn(
+                    final String property,
+                    final Collection<?> values,
+                    final List<? extends Order> ordering
+                    )
+    {
+        List<T>  objs = new ArrayList<T>();
+        if (values == null  ||  values.size() == 0) {
+            return objs;
+        }
+
+        List<Object>  valueList = new ArrayList<Object>( values );
+        final int  size = valueList.size();
+        for (int  from = 0; from < size; from += IN_LIST_MAX_SIZE) {
+            List<Object>  chunk = valueList.subList( from, Math.min( size, from + IN_LIST_MAX_SIZE ) );
+            SearchCriteria  criteria = new SearchCriteria();
+            criteria.setBinding( new InBinding( property, chunk ) );
+            criteria.setOrders( ordering );
+
+            List<Object>  pObjs = _search( criteria );
+            for (Object  pObj : pObjs) {
+                objs.add( _objectType.cast( pObj ) );
+            }
+        }
+
+        return objs;
+    }
+
+
+
+    /**
+     * Support method:
+     * Finds the objects whose property value is contained in the specified values,
+     * and groups them by that value.
+     * The result map has all the specified values as its keys in the given order,
+     * and a value matching no object is mapped to an empty list.
+     * This fetches the related objects of a whole result page in a few IN LIST queries
+     * instead of one query per object.
+     */
+    protected <V> Map<V, List<T>> _findGroupedByPropertyIn(
+                    final String property,
+                    final Collection<? extends V> values
+                    )
+    {
+        return _findGroupedByPropertyIn( property, values, null );
+    }
+
+
+    /**
+     * Support method:
+     * The objects of each group are sorted by the specified ordering.
+     */
+    protected <V> Map<V, List<T>> _findGroupedByPropertyIn(
+                    final String property,
+                    final Collection<? extends V> values,
+                    final List<? extends Order> ordering
+                    )
+    {
+        Map<V, List<T>>  groups = new LinkedHashMap<V, List<T>>();
+        if (values == null) {
+            return groups;
+        }
+
+        for (V  value : values) {
+            if (value != null  &&  !groups.containsKey( value )) {
+                groups.put( value, new ArrayList<T>() );
+            }
+        }
+
+        for (T  obj : _findByPropertyIn( property, groups.keySet(), ordering )) {
+            List<T>  group = groups.get( BeansUtil.getProperty( obj, property ) );
+            if (group != null) {
+                group.add( obj );
+            }
+        }
+
+        return groups;
+    }
+
+
+
+    /**
+     */
+    private CloseableIterator<T> _iterate(
+                    final Binding filter,
+                    final List<? extends Order> ordering
+                    )
+    {
+        SearchCriteria  criteria = new SearchCriteria();
+        criteria.setBinding( filter );
+        criteria.setOrders( ordering );
+
+        OQL  oql = new OQL( _objectType, "o", criteria );
+        String  oqlStatement = oql.getStatement();
+        Object[]  params = oql.getParameterValues();
+        if(_LOG_.isDebugEnabled()) {
+            _LOG_.debug( "OQL statement: " + oqlStatement );
+            _LOG_.debug( "OQL params: " + Arrays.toString( params ) );
+        }
+
+        QueryResults  results = _jdoOpenQuery( oqlStatement, params );
+
+        return new QueryResultsIterator( results );
+    }
+
+
+
     /**
      */
     private List<T> _find(
@@ -525,10 +1257,21 @@ public class CastorDao<K, T extends Persistable<K>>
         String  oqlOrdering = null;
         Object[]  params = null;
 
-        if (filter != null  ||  ordering != null) {
+        boolean  seek = (limit != null  &&  limit.getAfter() != null);
+        if (filter != null  ||  ordering != null  ||  seek) {
             SearchCriteria  criteria = new SearchCriteria();
             criteria.setBinding( filter );
-            criteria.setOrders( ordering );
+            if (seek) {
+                //keyset pagination: the range predicate on the ordering key
+                // replaces skipping the preceding objects.
+                // The persistent ID is the default ordering key.
+                criteria.setOrders( (ordering == null  ||  ordering.size() == 0)
+                                ? Arrays.asList( new Order( "persistentID" ) )
+                                : ordering );
+                criteria.setLimit( limit );
+            } else {
+                criteria.setOrders( ordering );
+            }
 
             OQL  oql = new OQL( _objectType, "o", criteria );
             oqlFilter = oql.getWhereClause();
@@ -536,12 +1279,10 @@ public class CastorDao<K, T extends Persistable<K>>
             params = oql.getParameterValues();
         }
 
-        List<K>  ids = _findIdentity( oqlFilter, params, oqlOrdering );
-        if (ids != null) {
-            if (limit != null) {
-                ids = limit.apply( ids );
-            }
-        }
+        //In the keyset pagination, no preceding objects are skipped.
+        String  oql = _identityStatement( oqlFilter, params, oqlOrdering );
+        @SuppressWarnings( "unchecked" )
+        List<K>  ids = (List<K>)_jdoExecuteQuery( oql, params, limit );
 
         return ids;
     }
@@ -599,6 +1340,24 @@ public class CastorDao<K, T extends Persistable<K>>
                     final Object[] params,
                     final String ordering
                     )
+    {
+        String  oql = _identityStatement( filter, params, ordering );
+
+        @SuppressWarnings( "unchecked" )
+        List<K>  ids = (List<K>)_jdoExecuteQuery( oql, params );
+
+        return ids;
+    }
+
+
+
+    /**
+     */
+    private String _identityStatement(
+                    final String filter,
+                    final Object[] params,
+                    final String ordering
+                    )
     {
         StringBuilder  oqlTemp = new StringBuilder();
         oqlTemp.append( _helper.getIdentitySelector() ).append( " " );
@@ -617,10 +1376,7 @@ public class CastorDao<K, T extends Persistable<K>>
             _LOG_.debug( "OQL params: " + Arrays.toString( params ) );
         }
 
-        @SuppressWarnings( "unchecked" )
-        List<K>  ids = (List<K>)_jdoExecuteQuery( oql, params );
-
-        return ids;
+        return oql;
     }
 
 
@@ -643,134 +1399,433 @@ public class CastorDao<K, T extends Persistable<K>>
 
 
     /**
+     * Fetches the declared relations of the loaded object,
+     * and then calls _daoAfterLoad.
      */
-    private T _load(
-                    final K id
+    private void _afterLoad(
+                    final T p_object
                     )
     {
-        if (id == null) {
-            return null;
-        }
-
-        T  obj = _jdoLoad( id );
-        if (obj != null) {
-            _daoAfterLoad( obj );
+        for (RelationDeclaration<?, ?>  relation : _relations) {
+            relation.fetch( this, p_object );
         }
 
-        return obj;
+        _daoAfterLoad( p_object );
     }
 
 
 
     /**
+     * Fetches the declared relations of the loaded objects, e.g. a result page,
+     * and then calls _daoAfterLoad for each object.
+     * The eager relations are fetched for all the objects at once,
+     * in an IN LIST query per chunk of IN_LIST_MAX_SIZE objects,
+     * instead of one query per object.
      */
-    private final List<T> _loadAll(
-                    final List<? extends K> ids
+    private void _afterLoadPage(
+                    final List<T> p_objects
                     )
     {
-        List<T>  objs = new ArrayList<T>();
-        for (K  id : ids) {
-            T  obj = _load( id );
-            objs.add( obj );
+        if (p_objects.size() == 0) {
+            return;
         }
 
-        return objs;
-    }
-
-
-
+        for (RelationDeclaration<?, ?>  relation : _relations) {
+            relation.fetchPage( this, p_objects );
+        }
 
-//    /**
-//     * Support method:
-//     */
-//    protected <L, S extends Persistable<L>>
-//    S _load(
-//                    final Class<S> type,
-//                    final S object
-//                    )
-//    {
-//        CastorDao<L, S>  dao = getForwardingDao( type );
-//        S  p_object = dao._loadCorrespondentOf( object );
-//
-//        return p_object;
-//    }
+        for (T  p_object : p_objects) {
+            _daoAfterLoad( p_object );
+        }
+    }
 
 
 
     /**
      */
-    private T _loadByUnique(
-                    final T object
+    private T _load(
+                    final K id
                     )
     {
-        if (! _helper.hasUnique()) {
+        if (id == null) {
             return null;
         }
 
-        String  filter = _helper.getUniqueFilter();
-        Object[]  params = _asArray( _helper.getUnique( object ) );
-        List<K>  ids = _findIdentity( filter, params, null );
-
-        T  obj = null;
-        if (ids != null  &&  ids.size() > 0) {
-            if (ids.size() > 1) {
-                final String  message = "uniqueness integrity violation";
-                PersistenceException  ex = new PersistenceException( message );
-                if (_LOG_.isErrorEnabled()) {
-                    _LOG_.error( message );
-                }
-                throw ex;
-            }
-
-            K  id = ids.iterator().next();
-            obj = _load( id );
+        T  obj = _jdoLoad( id );
+        if (obj != null) {
+            _afterLoad( obj );
         }
 
         return obj;
     }
-//    {
-//        if (! _helper.hasUnique()) {
-//            return null;
-//        }
-//
-//        String  filter = _helper.getUniqueFilter();
-//        Object[]  params = _asArray( _helper.getUnique( object ) );
-//        if (_LOG.isDebugEnabled()) {
-//            _LOG.debug( "filter: " + filter );
-//            _LOG.debug( "params: " + Arrays.toString( params ) );
-//        }
-//
-////        Collection<T>  p_objects = _find( filter, params, null, null );
-//        Collection<T>  p_objects = _jdoFind( filter, params, null );
-//        if (p_objects.size() > 1) {
-//            PersistenceException  ex =
-//                new PersistenceException( "uniqueness integrity violation" );
-//            if (_LOG.isErrorEnabled()) {
-//                _LOG.error( ex );
-//            }
-//
-//            throw ex;
-//        }
-//
-//        return ((p_objects.size() == 0) ? null : p_objects.iterator().next());
-//    }
 
 
 
     /**
+     * Loads the object of the specified identity,
+     * looking up the cache first in a read-only transaction.
+     *
+     * @see #_loadAll(List)
      */
-    private T _loadCorrespondent(
-                    final T object
+    private T _loadCached(
+                    final K id
                     )
     {
-        if (_LOG_.isTraceEnabled()) {
-            _LOG_.trace( "object: " + object );
-        }
+        return _loadAll( Collections.singletonList( id ) ).get( 0 );
+    }
 
-        T  p_object = _load( object.getPersistentID() );
-        if (p_object == null) {
-            p_object = _loadByUnique( object );
-        }
+
+
+    /**
+     * Returns the fetch plan of the current operation.
+     * The _daoAfterLoad implementation consults this to determine
+     * whether to fetch each relation eagerly.
+     *
+     * @return
+     *  the fetch plan; FetchPlan.ALL if not specified.
+     */
+    protected FetchPlan _getFetchPlan()
+    {
+        FetchPlan  plan = _FETCH_PLAN_.get();
+        return (plan == null ? FetchPlan.ALL : plan);
+    }
+
+
+
+    /**
+     * Binds the specified plan to the current thread
+     * and returns the previous one to restore.
+     */
+    private static FetchPlan _beginFetchPlan(
+                    final FetchPlan plan
+                    )
+    {
+        FetchPlan  previous = _FETCH_PLAN_.get();
+        _FETCH_PLAN_.set( plan == null ? FetchPlan.ALL : plan );
+
+        return previous;
+    }
+
+
+    private static void _endFetchPlan(
+                    final FetchPlan previous
+                    )
+    {
+        if (previous == null) {
+            _FETCH_PLAN_.remove();
+        } else {
+            _FETCH_PLAN_.set( previous );
+        }
+    }
+
+
+
+    /**
+     * Support method:
+     * Declares a relation of the objects of this Dao,
+     * e.g. the Dependent objects, which is not mapped in Castor
+     * but selected by the foreign key, i.e. the persistent ID of the object.
+     * On every load, the related objects are set to the property
+     * by _fetchRelation, i.e. eagerly or as a LazyList
+     * according to the fetch plan.
+     * Typically called in the constructor of the subclass.
+     *
+     * <p>A relation mapped in Castor is loaded by Castor itself;
+     * it is made lazy by the lazy attribute of the mapping,
+     * regardless of the fetch plan.
+     * </p>
+     *
+     * @param   relation
+     *  the relation name, which is referred in the FetchPlan.
+     * @param   type
+     *  the type of the related objects.
+     * @param   foreignKey
+     *  the property of the related objects that holds the persistent ID.
+     * @param   property
+     *  the List property of the objects of this Dao.
+     * @param   ordering
+     *  the ordering of the related objects, or null.
+     */
+    protected <L, S extends Persistable<L>>
+    void _declareRelation(
+                    final String relation,
+                    final Class<S> type,
+                    final String foreignKey,
+                    final String property,
+                    final List<? extends Order> ordering
+                    )
+    {
+        _relations.add( new RelationDeclaration<L, S>(
+                        relation, type, foreignKey, property, ordering ) );
+    }
+
+
+
+    /**
+     * Support method:
+     * Fetches the objects of a relation of the object being loaded,
+     * typically called by _daoAfterLoad for a relation that is not
+     * mapped in Castor.
+     * If the relation is lazy in the current fetch plan,
+     * a LazyList is returned which fetches the objects on first access.
+     *
+     * @param   relation
+     *  the relation name, which is referred in the FetchPlan.
+     * @param   type
+     *  the type of the related objects.
+     * @param   filter
+     *  the filter that selects the related objects.
+     * @param   ordering
+     *  the ordering of the related objects, or null.
+     * @return
+     *  the related objects.
+     * @see #_declareRelation(String, Class, String, String, List)
+     */
+    protected <L, S extends Persistable<L>>
+    List<S> _fetchRelation(
+                    final String relation,
+                    final Class<S> type,
+                    final Binding filter,
+                    final List<? extends Order> ordering
+                    )
+    {
+        final CastorDao<L, S>  dao = getForwardingDao( type );
+        final FetchPlan  plan = _getFetchPlan();
+        final TransactionTemplate  template = _lazyLoadTemplate;
+        LazyList.Loader<S>  loader = new LazyList.Loader<S>()
+        {
+            public List<S> load()
+            {
+                if (_LOG_.isDebugEnabled()) {
+                    _LOG_.debug( "fetching relation: " + relation + ", " + _daoProfile );
+                }
+
+                //eager, or a lazy list accessed in a transaction
+                if (template == null
+                                ||  TransactionSynchronizationManager.isActualTransactionActive()) {
+                    return new ArrayList<S>( dao.find( filter, ordering, null, plan ) );
+                }
+
+                try {
+                    return template.execute( new TransactionCallback<List<S>>()
+                    {
+                        public List<S> doInTransaction(
+                                        final TransactionStatus status
+                                        )
+                        {
+                            return new ArrayList<S>( dao.find( filter, ordering, null, plan ) );
+                        }
+                    });
+                } catch (TransactionException ex) {
+                    throw new PersistenceException( ex.getMostSpecificCause() );
+                }
+            }
+        };
+
+        return _relationList( plan.isEager( relation ), loader );
+    }
+
+
+
+    /**
+     * Returns the related objects fetched by the loader now if eager,
+     * or a LazyList which fetches them on first access.
+     */
+    static <S> List<S> _relationList(
+                    final boolean eager,
+                    final LazyList.Loader<S> loader
+                    )
+    {
+        if (! eager) {
+            return new LazyList<S>( loader );
+        }
+
+        List<? extends S>  objs = loader.load();
+        return (objs == null ? new ArrayList<S>() : new ArrayList<S>( objs ));
+    }
+
+
+
+    /**
+     * Loads the objects of the specified identities,
+     * looking up the cache first in a read-only transaction.
+     * In a read-write transaction, the objects are always loaded
+     * in the transaction, and not cached since their state
+     * may not be committed.
+     * The relations of the objects not found in the cache
+     * are fetched at once by _afterLoadPage.
+     * The loaded objects are cached after the read-only transaction
+     * is committed, unless the identity has been evicted since
+     * before the load, i.e. the object may be older than a concurrent update.
+     *
+     * @return
+     *  the objects in the order of the identities,
+     *  and null for an identity of no object.
+     */
+    private final List<T> _loadAll(
+                    final List<? extends K> ids
+                    )
+    {
+        ObjectCache<K, T>  cache = _objectCache;
+        if (cache != null
+                        &&  !TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+            cache = null;
+        }
+
+        List<T>  objs = new ArrayList<T>( ids.size() );
+        Map<K, T>  loaded = new LinkedHashMap<K, T>();
+        Map<K, Long>  versions = new HashMap<K, Long>();
+        for (K  id : ids) {
+            T  obj = null;
+            if (id != null) {
+                obj = (cache == null ? null : cache.get( id ));
+                if (obj == null) {
+                    obj = loaded.get( id );
+                }
+                if (obj == null) {
+                    //The version is obtained before the load;
+                    // an eviction during the load or the transaction invalidates the put.
+                    if (cache != null) {
+                        versions.put( id, cache.getVersion( id ) );
+                    }
+                    obj = _jdoLoad( id );
+                    if (obj != null) {
+                        loaded.put( id, obj );
+                    }
+                }
+            }
+            objs.add( obj );
+        }
+
+        _afterLoadPage( new ArrayList<T>( loaded.values() ) );
+
+        //Only the complete objects are cached.
+        if (cache != null  &&  loaded.size() > 0  &&  _getFetchPlan().isAll()) {
+            CacheSynchronization<K, T>  sync = _cacheSynchronization( cache );
+            if (sync != null) {
+                for (Map.Entry<K, T>  entry : loaded.entrySet()) {
+                    K  id = entry.getKey();
+                    sync.put( id, entry.getValue(), versions.get( id ) );
+                }
+            }
+        }
+
+        return objs;
+    }
+
+
+
+//    /**
+//     * Support method:
+//     */
+//    protected <L, S extends Persistable<L>>
+//    S _load(
+//                    final Class<S> type,
+//                    final S object
+//                    )
+//    {
+//        CastorDao<L, S>  dao = getForwardingDao( type );
+//        S  p_object = dao._loadCorrespondentOf( object );
+//
+//        return p_object;
+//    }
+
+
+
+    /**
+     */
+    private T _loadByUnique(
+                    final T object
+                    )
+    {
+        if (! _helper.hasUnique()) {
+            return null;
+        }
+
+        UniqueIndex<K>  index = _uniqueIndex;
+        if (index != null) {
+            K  id = index.get( _uniqueKey( _helper.getUnique( object ) ) );
+            return (id == null ? null : _load( id ));
+        }
+
+        String  filter = _helper.getUniqueFilter();
+        Object[]  params = _asArray( _helper.getUnique( object ) );
+        List<K>  ids = _findIdentity( filter, params, null );
+
+        T  obj = null;
+        if (ids != null  &&  ids.size() > 0) {
+            if (ids.size() > 1) {
+                final String  message = "uniqueness integrity violation";
+                PersistenceException  ex = new PersistenceException( message );
+                if (_LOG_.isErrorEnabled()) {
+                    _LOG_.error( message );
+                }
+                throw ex;
+            }
+
+            K  id = ids.iterator().next();
+            obj = _load( id );
+        }
+
+        return obj;
+    }
+//    {
+//        if (! _helper.hasUnique()) {
+//            return null;
+//        }
+//
+//        String  filter = _helper.getUniqueFilter();
+//        Object[]  params = _asArray( _helper.getUnique( object ) );
+//        if (_LOG.isDebugEnabled()) {
+//            _LOG.debug( "filter: " + filter );
+//            _LOG.debug( "params: " + Arrays.toString( params ) );
+//        }
+//
+////        Collection<T>  p_objects = _find( filter, params, null, null );
+//        Collection<T>  p_objects = _jdoFind( filter, params, null );
+//        if (p_objects.size() > 1) {
+//            PersistenceException  ex =
+//                new PersistenceException( "uniqueness integrity violation" );
+//            if (_LOG.isErrorEnabled()) {
+//                _LOG.error( ex );
+//            }
+//
+//            throw ex;
+//        }
+//
+//        return ((p_objects.size() == 0) ? null : p_objects.iterator().next());
+//    }
+
+
+
+    /**
+     */
+    private T _loadCorrespondent(
+                    final T object
+                    )
+    {
+        if (_LOG_.isTraceEnabled()) {
+            _LOG_.trace( "object: " + object );
+        }
+
+        SyncIdentityMap  identityMap = SyncIdentityMap.current();
+        T  p_object = null;
+        if (identityMap != null) {
+            p_object = _objectType.cast( identityMap.get(
+                            _objectType, object.getPersistentID(), _getUnique( object ) ) );
+        }
+
+        if (p_object == null) {
+            p_object = _load( object.getPersistentID() );
+            if (p_object == null) {
+                p_object = _loadByUnique( object );
+            }
+
+            if (identityMap != null  &&  p_object != null) {
+                identityMap.put( _objectType, p_object.getPersistentID(),
+                                _getUnique( p_object ), p_object );
+            }
+        }
 
         if (_LOG_.isTraceEnabled()) {
             _LOG_.trace( "correspondent: " + p_object );
@@ -780,6 +1835,19 @@ public class CastorDao<K, T extends Persistable<K>>
 
 
 
+    /**
+     * Returns the unique value of the object,
+     * or null if the type has no unique property.
+     */
+    private Object _getUnique(
+                    final T object
+                    )
+    {
+        return (_helper.hasUnique() ? _helper.getUnique( object ) : null);
+    }
+
+
+
     /**
      * Template method:
      * Loads the correspondent object, or creates if it has not persisted.
@@ -841,9 +1909,26 @@ public class CastorDao<K, T extends Persistable<K>>
             return object.getPersistentID();
         }
 
+        IdentityAllocator<? extends K>  allocator = _identityAllocator;
+        if (allocator != null  &&  object.getPersistentID() == null) {
+            object.setPersistentID( allocator.allocate() );
+        }
+
         _daoBeforeCreate( object );
         _jdoCreate( object );
         //throws DuplicateObjectException
+        _cacheEvict( object.getPersistentID() );
+
+        SyncIdentityMap  identityMap = SyncIdentityMap.current();
+        if (identityMap != null) {
+            identityMap.put( _objectType, object.getPersistentID(),
+                            _getUnique( object ), object );
+        }
+
+        UniqueIndex<K>  index = _uniqueIndex;
+        if (index != null  &&  object.getPersistentID() != null) {
+            index.put( _uniqueKey( _helper.getUnique( object ) ), object.getPersistentID() );
+        }
 
         return object.getPersistentID();
     }
@@ -881,8 +1966,12 @@ public class CastorDao<K, T extends Persistable<K>>
             }
             return;
         }
-        _daoBeforeUpdate( object );
-        _jdoUpdate( object );
+        try {
+            _daoBeforeUpdate( object );
+            _jdoUpdate( object );
+        } finally {
+            _cacheEvict( object.getPersistentID() );
+        }
     }
 
 
@@ -949,13 +2038,26 @@ public class CastorDao<K, T extends Persistable<K>>
 
         T  p_object = _loadCorrespondent( object );
         if (p_object != null) {
-//            _syncProperties( object, p_object );
-            _daoBeforeSync( object, p_object );
+            if (_dirtyCheckingEnabled  &&  !_daoIsModified( object, p_object )) {
+                _syncSkippedCount.incrementAndGet();
+                if (_LOG_.isDebugEnabled()) {
+                    _LOG_.debug( "not modified: " + object );
+                }
+            } else {
+//                _syncProperties( object, p_object );
+                try {
+                    _daoBeforeSync( object, p_object );
+                } finally {
+                    _cacheEvict( p_object.getPersistentID() );
+                }
+                _syncUpdatedCount.incrementAndGet();
+            }
         }
 
         if (p_object == null) {
             _create( object );
 //            _jdoCreate( object );
+            _syncCreatedCount.incrementAndGet();
         }
 
         if (_LOG_.isTraceEnabled()) {
@@ -979,6 +2081,30 @@ public class CastorDao<K, T extends Persistable<K>>
 
 
 
+    /**
+     * TEMPLATE:
+     * Tests if the object differs from the persistent object.
+     * This is used only if the dirty checking is enabled.
+     * The default implementation compares the properties
+     * that _syncProperties copies.
+     * If _daoBeforeSync does more than copying the properties,
+     * e.g. synchronizes the dependents, the subclass should override
+     * this method accordingly.
+     */
+    protected boolean _daoIsModified(
+                    final T object,
+                    final T p_object
+                    )
+    {
+        return (! BeansUtil.equalsPropertiesExcept(
+                        p_object,
+                        object,
+                        new String[] { "persistentID" }
+        ));
+    }
+
+
+
     /**
      * Template method:
      * Copies the properties.
@@ -1021,44 +2147,240 @@ public class CastorDao<K, T extends Persistable<K>>
         //TODO: _loadCorrespondent(object)???
         T  p_object = _load( object.getPersistentID() );
         if (p_object != null) {
-            _daoBeforeRemove( p_object );
-            _jdoRemove( p_object );
+            _removeDeclaredAssociations(
+                            Collections.singletonList( p_object.getPersistentID() ) );
+            _removePersistent( p_object );
         }
     }
 
 
 
-    //**************************************************************
-    //  implements Dao
-    //**************************************************************
-
     /**
+     * Removes the persistent object loaded in the current transaction.
      */
-    protected void _daoAssertOperation(
-                    final String operation,
-                    final boolean condition,
-                    final String errorMessage
+    private void _removePersistent(
+                    final T p_object
                     )
     {
-        if(_LOG_.isDebugEnabled()) {
-            _LOG_.debug( operation + ": " + _daoProfile );
+        SyncIdentityMap  identityMap = SyncIdentityMap.current();
+        if (identityMap != null) {
+            identityMap.remove( _objectType, p_object.getPersistentID(),
+                            _getUnique( p_object ) );
         }
 
-        if (! condition) {
-            throw new IllegalArgumentException( errorMessage );
+        UniqueIndex<K>  index = _uniqueIndex;
+        if (index != null) {
+            index.remove( _uniqueKey( _helper.getUnique( p_object ) ) );
+        }
+
+        try {
+            _daoBeforeRemove( p_object );
+            _jdoRemove( p_object );
+        } finally {
+            _cacheEvict( p_object.getPersistentID() );
         }
     }
 
 
 
-    public K create(
-                    final T object
+    /**
+     * TEMPLATE:
+     * Called before the objects of the specified identities are removed
+     * by removeAll(), after the declared associations are removed.
+     * A subclass can remove the other dependents of the objects
+     * in a set-based manner, instead of one by one in _daoBeforeRemove.
+     */
+    protected void _daoBeforeRemoveAll(
+                    final List<K> ids
                     )
     {
-        _daoAssertOperation( "create", object != null, "null object" );
-
-        K  id = _create( object );
-
+        //DEFAULT: do nothing.
+        if(_LOG_.isTraceEnabled()) {
+            _LOG_.trace( "NOP: " + _daoProfile );
+        }
+    }
+
+
+
+    /**
+     * Castor OQL has no DELETE statement.
+     * So, the identities are searched for first,
+     * and the objects are loaded and removed in chunks of IN_LIST_MAX_SIZE.
+     * The objects are loaded with FetchPlan.NONE,
+     * i.e. their relations are not fetched only to be removed.
+     */
+    private int _removeAll(
+                    final Binding filter
+                    )
+    {
+        List<K>  ids = _findIdentity( filter, null, null );
+        if (ids == null  ||  ids.size() == 0) {
+            return 0;
+        }
+
+        _removeDeclaredAssociations( ids );
+        _daoBeforeRemoveAll( ids );
+
+        int  count = 0;
+        final int  size = ids.size();
+        FetchPlan  previous = _beginFetchPlan( FetchPlan.NONE );
+        try {
+            for (int  from = 0; from < size; from += IN_LIST_MAX_SIZE) {
+                List<K>  chunk = ids.subList( from, Math.min( size, from + IN_LIST_MAX_SIZE ) );
+                for (T  p_object : _findByPropertyIn( "persistentID", chunk )) {
+                    _removePersistent( p_object );
+                    count++;
+                }
+            }
+        } finally {
+            _endFetchPlan( previous );
+        }
+
+        if (_LOG_.isDebugEnabled()) {
+            _LOG_.debug( "removeAll: #objects=" + count + ", " + _daoProfile );
+        }
+
+        return count;
+    }
+
+
+
+    /**
+     * Support method:
+     * Removes the association entries whose antecendent is one of the specified objects.
+     *
+     * @return
+     *  the number of the association entries removed.
+     */
+    protected <L, S extends AssociationEntry<L, ?, ?>>
+    int _removeAssociationsByAntecendent(
+                    final Class<S> type,
+                    final Collection<?> ids
+                    )
+    {
+        return _removeAssociations( type, "antecendentPersistentID", ids );
+    }
+
+
+
+    /**
+     * Support method:
+     * Removes the association entries whose dependent is one of the specified objects.
+     *
+     * @return
+     *  the number of the association entries removed.
+     */
+    protected <L, S extends AssociationEntry<L, ?, ?>>
+    int _removeAssociationsByDependent(
+                    final Class<S> type,
+                    final Collection<?> ids
+                    )
+    {
+        return _removeAssociations( type, "dependentPersistentID", ids );
+    }
+
+
+
+    /**
+     * Support method:
+     * Declares an association type of the objects of this Dao.
+     * The association entries that refer to the objects are removed
+     * before the objects are removed by remove() or removeAll(),
+     * in an IN LIST query per chunk of IN_LIST_MAX_SIZE objects.
+     * Typically called in the constructor of the subclass.
+     *
+     * @param   type
+     *  the type of the association entries.
+     * @param   foreignKey
+     *  the property of the association entries that holds the persistent ID,
+     *  i.e. "antecendentPersistentID" or "dependentPersistentID".
+     */
+    protected <L, S extends AssociationEntry<L, ?, ?>>
+    void _declareAssociation(
+                    final Class<S> type,
+                    final String foreignKey
+                    )
+    {
+        _associations.add( new AssociationDeclaration<L, S>( type, foreignKey ) );
+    }
+
+
+
+    /**
+     * Removes the entries of the declared associations
+     * which refer to the objects of the specified identities.
+     */
+    private void _removeDeclaredAssociations(
+                    final Collection<?> ids
+                    )
+    {
+        for (AssociationDeclaration<?, ?>  association : _associations) {
+            int  count = association.remove( this, ids );
+            if (_LOG_.isDebugEnabled()) {
+                _LOG_.debug( "removed associations: " + association
+                                + ", #entries=" + count + ", " + _daoProfile );
+            }
+        }
+    }
+
+
+
+    private <L, S extends AssociationEntry<L, ?, ?>>
+    int _removeAssociations(
+                    final Class<S> type,
+                    final String property,
+                    final Collection<?> ids
+                    )
+    {
+        if (ids == null  ||  ids.size() == 0) {
+            return 0;
+        }
+
+        CastorDao<L, S>  dao = getForwardingDao( type );
+        List<Object>  idList = new ArrayList<Object>( ids );
+        final int  size = idList.size();
+        int  count = 0;
+        for (int  from = 0; from < size; from += IN_LIST_MAX_SIZE) {
+            List<Object>  chunk = idList.subList( from, Math.min( size, from + IN_LIST_MAX_SIZE ) );
+            count += dao._removeAll( new InBinding( property, chunk ) );
+        }
+
+        return count;
+    }
+
+
+
+    //**************************************************************
+    //  implements Dao
+    //**************************************************************
+
+    /**
+     */
+    protected void _daoAssertOperation(
+                    final String operation,
+                    final boolean condition,
+                    final String errorMessage
+                    )
+    {
+        if(_LOG_.isDebugEnabled()) {
+            _LOG_.debug( operation + ": " + _daoProfile );
+        }
+
+        if (! condition) {
+            throw new IllegalArgumentException( errorMessage );
+        }
+    }
+
+
+
+    public K create(
+                    final T object
+                    )
+    {
+        _daoAssertOperation( "create", object != null, "null object" );
+
+        K  id = _create( object );
+
         return id;
     }
 
@@ -1091,13 +2413,31 @@ public class CastorDao<K, T extends Persistable<K>>
 
 
 
+    public int removeAll(
+                    final Binding filter
+                    )
+    {
+        _daoAssertOperation( "removeAll", true, "not an error" );
+
+        return _removeAll( filter );
+    }
+
+
+
     public T sync(
                     final T object
                     )
     {
         _daoAssertOperation( "sync", object != null, "null object" );
 
-        T  p_object = _sync( object );
+        T  p_object = null;
+        SyncIdentityMap.begin();
+        try {
+            p_object = _sync( object );
+        } finally {
+            SyncIdentityMap.end();
+        }
+
         return (p_object == null ? object : p_object);
     }
 
@@ -1111,9 +2451,32 @@ public class CastorDao<K, T extends Persistable<K>>
 
         List<T>  p_objects = new ArrayList<T>();
         if (objects.size() > 0) {
-            for (T  object : objects) {
-                T  p_object = _sync( object );
-                p_objects.add( p_object );
+            long  created = _syncCreatedCount.get();
+            long  updated = _syncUpdatedCount.get();
+            long  skipped = _syncSkippedCount.get();
+
+            // The dependents shared by the objects are resolved
+            // only once during this batch.
+            SyncIdentityMap.begin();
+            try {
+                for (T  object : objects) {
+                    T  p_object = _sync( object );
+                    p_objects.add( p_object );
+                }
+            } finally {
+                SyncIdentityMap.end();
+            }
+
+            if (_dirtyCheckingEnabled  &&  _LOG_.isDebugEnabled()) {
+                // NOTE: the counts include the concurrent operations, if any.
+                created = _syncCreatedCount.get() - created;
+                updated = _syncUpdatedCount.get() - updated;
+                skipped = _syncSkippedCount.get() - skipped;
+                _LOG_.debug( "syncAll: #objects=" + objects.size()
+                                + ", created=" + created
+                                + ", updated=" + updated
+                                + ", skipped=" + skipped
+                                + ", " + _daoProfile );
             }
         }
 
@@ -1153,7 +2516,22 @@ public class CastorDao<K, T extends Persistable<K>>
     {
         _daoAssertOperation( "load", id != null, "null identity" );
 
-        return _load( id );
+        return _loadCached( id );
+    }
+
+
+
+    public T load(
+                    final K id,
+                    final FetchPlan plan
+                    )
+    {
+        FetchPlan  previous = _beginFetchPlan( plan );
+        try {
+            return load( id );
+        } finally {
+            _endFetchPlan( previous );
+        }
     }
 
 
@@ -1202,6 +2580,83 @@ public class CastorDao<K, T extends Persistable<K>>
 
 
 
+    public Collection<T> find(
+                    final Binding filter,
+                    final List<? extends Order> ordering,
+                    final Limit limit,
+                    final FetchPlan plan
+                    )
+    {
+        FetchPlan  previous = _beginFetchPlan( plan );
+        try {
+            return find( filter, ordering, limit );
+        } finally {
+            _endFetchPlan( previous );
+        }
+    }
+
+
+
+    /**
+     * Returns a page of the objects that match the specified filter.
+     * The identities of the page are found by a query bounded by the limit,
+     * and the objects are loaded by an IN LIST query,
+     * instead of one load per object.
+     * This is intended for the keyset pagination, i.e. Limit.after;
+     * the ordering should end with a unique property, e.g. persistentID.
+     *
+     * @return
+     *  the objects in the order of the ordering.
+     */
+    public List<T> findPage(
+                    final Binding filter,
+                    final List<? extends Order> ordering,
+                    final Limit limit
+                    )
+    {
+        _daoAssertOperation( "findPage", limit != null, "null limit" );
+
+        List<K>  ids = _findIdentity( filter, ordering, limit );
+        Map<K, T>  loaded = new HashMap<K, T>();
+        for (T  obj : _findByPropertyIn( "persistentID", ids )) {
+            loaded.put( obj.getPersistentID(), obj );
+        }
+
+        List<T>  objs = new ArrayList<T>( ids.size() );
+        for (K  id : ids) {
+            T  obj = loaded.get( id );
+            if (obj != null) {
+                objs.add( obj );
+            }
+        }
+
+        return objs;
+    }
+
+
+
+    public CloseableIterator<T> iterate(
+                    final Binding filter,
+                    final List<? extends Order> ordering
+                    )
+    {
+        _daoAssertOperation( "iterate", true, "not an error" );
+
+        return _iterate( filter, ordering );
+    }
+
+
+
+    public final Stream<T> stream(
+                    final Binding filter,
+                    final List<? extends Order> ordering
+                    )
+    {
+        return CloseableIterator.stream( iterate( filter, ordering ) );
+    }
+
+
+
     public final Collection<K> findIdentity()
     {
         return findIdentity( null, null, null );
@@ -1240,5 +2695,475 @@ public class CastorDao<K, T extends Persistable<K>>
         return _search( criteria );
     }
 
+
+
+    public List<Object[]> searchRows(
+                    final SearchCriteria criteria
+                    )
+    {
+        _daoAssertOperation( "searchRows",
+                        criteria != null
+                        &&  criteria.getProjections() != null
+                        &&  criteria.getProjections().size() > 0,
+                        "no projection specified" );
+
+        return _searchRows( criteria );
+    }
+
+
+
+    /**
+     * An iterator over the Castor query results.
+     * The objects are fetched from the database cursor on demand,
+     * and the template method _daoAfterLoad is applied
+     * to each object when it is returned.
+     * The cursor is closed when the iterator is closed or exhausted.
+     */
+    private class QueryResultsIterator
+        implements CloseableIterator<T>
+    {
+        private QueryResults  _results;
+
+
+
+        public QueryResultsIterator(
+                        final QueryResults results
+                        )
+        {
+            _results = results;
+        }
+
+
+
+        public boolean hasNext()
+        {
+            if (_results == null) {
+                return false;
+            }
+
+            boolean  hasMore = false;
+            try {
+                hasMore = _results.hasMore();
+            } catch (org.exolab.castor.jdo.PersistenceException ex) {
+                close();
+                throw new PersistenceException( ex );
+            }
+
+            if (! hasMore) {
+                close();
+            }
+
+            return hasMore;
+        }
+
+
+
+        public T next()
+        {
+            if (! hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            Object  p_object = null;
+            try {
+                p_object = _results.next();
+            } catch (org.exolab.castor.jdo.PersistenceException ex) {
+                close();
+                throw new PersistenceException( ex );
+            }
+
+            T  obj = _objectType.cast( p_object );
+            _afterLoad( obj );
+
+            return obj;
+        }
+
+
+
+        public void remove()
+        {
+            throw new UnsupportedOperationException();
+        }
+
+
+
+        public void close()
+        {
+            if (_results != null) {
+                _results.close();
+                _results = null;
+            }
+        }
+    }
+    // QueryResultsIterator
+
+
+
+    /**
+     * A relation declared by _declareRelation.
+     */
+    private static class RelationDeclaration<L, S extends Persistable<L>>
+    {
+        private final String  _relation;
+        private final Class<S>  _type;
+        private final String  _foreignKey;
+        private final String  _property;
+        private final List<? extends Order>  _ordering;
+
+
+
+        public RelationDeclaration(
+                        final String relation,
+                        final Class<S> type,
+                        final String foreignKey,
+                        final String property,
+                        final List<? extends Order> ordering
+                        )
+        {
+            _relation = relation;
+            _type = type;
+            _foreignKey = foreignKey;
+            _property = property;
+            _ordering = ordering;
+        }
+
+
+
+        public void fetch(
+                        final CastorDao<?, ?> dao,
+                        final Persistable<?> p_object
+                        )
+        {
+            List<S>  related = dao._fetchRelation( _relation, _type,
+                            RelationalBinding.equalBinding( _foreignKey, p_object.getPersistentID() ),
+                            _ordering );
+            BeansUtil.setProperty( p_object, _property, related );
+        }
+
+
+
+        /**
+         * Fetches the related objects of all the specified objects at once,
+         * if the relation is eager in the current fetch plan.
+         * Otherwise, a LazyList is set to each object by fetch.
+         */
+        public void fetchPage(
+                        final CastorDao<?, ?> dao,
+                        final List<? extends Persistable<?>> p_objects
+                        )
+        {
+            if (p_objects.size() == 1  ||  !dao._getFetchPlan().isEager( _relation )) {
+                for (Persistable<?>  p_object : p_objects) {
+                    fetch( dao, p_object );
+                }
+                return;
+            }
+
+            List<Object>  ids = new ArrayList<Object>( p_objects.size() );
+            for (Persistable<?>  p_object : p_objects) {
+                ids.add( p_object.getPersistentID() );
+            }
+
+            if (_LOG_.isDebugEnabled()) {
+                _LOG_.debug( "fetching relation page: " + _relation
+                                + ", #objects=" + ids.size() + ", " + dao._daoProfile );
+            }
+
+            CastorDao<L, S>  related = dao.getForwardingDao( _type );
+            Map<Object, List<S>>  groups =
+                related._findGroupedByPropertyIn( _foreignKey, ids, _ordering );
+            for (Persistable<?>  p_object : p_objects) {
+                List<S>  group = groups.get( p_object.getPersistentID() );
+                BeansUtil.setProperty( p_object, _property,
+                                (group == null ? new ArrayList<S>() : group) );
+            }
+        }
+    }
+    // RelationDeclaration
+
+
+
+    /**
+     * An association declared by _declareAssociation.
+     */
+    private static class AssociationDeclaration<L, S extends AssociationEntry<L, ?, ?>>
+    {
+        private final Class<S>  _type;
+        private final String  _foreignKey;
+
+
+
+        public AssociationDeclaration(
+                        final Class<S> type,
+                        final String foreignKey
+                        )
+        {
+            _type = type;
+            _foreignKey = foreignKey;
+        }
+
+
+
+        public int remove(
+                        final CastorDao<?, ?> dao,
+                        final Collection<?> ids
+                        )
+        {
+            return dao._removeAssociations( _type, _foreignKey, ids );
+        }
+
+
+
+        @Override
+        public String toString()
+        {
+            return _type.getName() + "." + _foreignKey;
+        }
+    }
+    // AssociationDeclaration
+
+
+
+    //**************************************************************
+    //  unique-key index
+    //**************************************************************
+
+    /**
+     * The unique-key index of the bulk import mode.
+     * The changes made in a transaction are visible to the transaction,
+     * and applied to the index only when it is committed;
+     * they are discarded when it is rolled back,
+     * so the index does not refer to the objects not created
+     * or lose those not removed.
+     * Without the transaction synchronization, the changes are applied
+     * immediately.
+     */
+    static class UniqueIndex<K>
+    {
+        private final Map<List<Object>, K>  _ids;
+
+
+
+        UniqueIndex(
+                        final int expectedSize
+                        )
+        {
+            _ids = Collections.synchronizedMap(
+                            new HashMap<List<Object>, K>( Math.max( 16, expectedSize * 4 / 3 + 1 ) ) );
+        }
+
+
+
+        /**
+         * Returns the number of the committed entries.
+         */
+        public int size()
+        {
+            return _ids.size();
+        }
+
+
+
+        void load(
+                        final List<Object> key,
+                        final K id
+                        )
+        {
+            _ids.put( key, id );
+        }
+
+
+
+        public K get(
+                        final List<Object> key
+                        )
+        {
+            UniqueIndexSynchronization<K>  sync = _getSynchronization( false );
+            if (sync != null) {
+                if (sync._removes.contains( key )) {
+                    return null;
+                }
+
+                K  id = sync._puts.get( key );
+                if (id != null) {
+                    return id;
+                }
+            }
+
+            return _ids.get( key );
+        }
+
+
+
+        public void put(
+                        final List<Object> key,
+                        final K id
+                        )
+        {
+            UniqueIndexSynchronization<K>  sync = _getSynchronization( true );
+            if (sync == null) {
+                _ids.put( key, id );
+            } else {
+                sync._removes.remove( key );
+                sync._puts.put( key, id );
+            }
+        }
+
+
+
+        public void remove(
+                        final List<Object> key
+                        )
+        {
+            UniqueIndexSynchronization<K>  sync = _getSynchronization( true );
+            if (sync == null) {
+                _ids.remove( key );
+            } else {
+                sync._puts.remove( key );
+                sync._removes.add( key );
+            }
+        }
+
+
+
+        private UniqueIndexSynchronization<K> _getSynchronization(
+                        final boolean create
+                        )
+        {
+            if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+                return null;
+            }
+
+            @SuppressWarnings( "unchecked" )
+            UniqueIndexSynchronization<K>  sync =
+                (UniqueIndexSynchronization<K>)TransactionSynchronizationManager.getResource( this );
+            if (sync == null  &&  create) {
+                sync = new UniqueIndexSynchronization<K>( this );
+                TransactionSynchronizationManager.bindResource( this, sync );
+                TransactionSynchronizationManager.registerSynchronization( sync );
+            }
+
+            return sync;
+        }
+    }
+    // UniqueIndex
+
+
+
+    /**
+     * The changes of the unique-key index made in a transaction.
+     */
+    private static class UniqueIndexSynchronization<K>
+        extends TransactionSynchronizationAdapter
+    {
+        private final UniqueIndex<K>  _index;
+        private final Map<List<Object>, K>  _puts = new HashMap<List<Object>, K>();
+        private final Set<List<Object>>  _removes = new HashSet<List<Object>>();
+
+
+
+        public UniqueIndexSynchronization(
+                        final UniqueIndex<K> index
+                        )
+        {
+            _index = index;
+        }
+
+
+
+        @Override
+        public void afterCompletion(
+                        final int status
+                        )
+        {
+            TransactionSynchronizationManager.unbindResourceIfPossible( _index );
+            if (status != STATUS_COMMITTED) {
+                return;
+            }
+
+            for (List<Object>  key : _removes) {
+                _index._ids.remove( key );
+            }
+            for (Map.Entry<List<Object>, K>  entry : _puts.entrySet()) {
+                _index._ids.put( entry.getKey(), entry.getValue() );
+            }
+        }
+    }
+    // UniqueIndexSynchronization
+
+
+
+    //**************************************************************
+    //  cache synchronization
+    //**************************************************************
+
+    /**
+     * Applies the changes of the object cache when the transaction completes:
+     * the objects loaded in a committed read-only transaction are put,
+     * unless they have been evicted since before the load,
+     * and the objects written in the transaction are evicted.
+     */
+    private static class CacheSynchronization<K, T>
+        extends TransactionSynchronizationAdapter
+    {
+        private final ObjectCache<K, T>  _cache;
+        private final Map<K, T>  _puts = new HashMap<K, T>();
+        private final Map<K, Long>  _versions = new HashMap<K, Long>();
+        private final Set<K>  _evictions = new HashSet<K>();
+
+
+
+        public CacheSynchronization(
+                        final ObjectCache<K, T> cache
+                        )
+        {
+            _cache = cache;
+        }
+
+
+
+        public void put(
+                        final K id,
+                        final T object,
+                        final long version
+                        )
+        {
+            _puts.put( id, object );
+            _versions.put( id, Long.valueOf( version ) );
+        }
+
+
+        public void evict(
+                        final K id
+                        )
+        {
+            _puts.remove( id );
+            _versions.remove( id );
+            _evictions.add( id );
+        }
+
+
+
+        @Override
+        public void afterCompletion(
+                        final int status
+                        )
+        {
+            TransactionSynchronizationManager.unbindResourceIfPossible( _cache );
+
+            for (K  id : _evictions) {
+                _cache.remove( id );
+            }
+
+            if (status == STATUS_COMMITTED) {
+                for (Map.Entry<K, T>  entry : _puts.entrySet()) {
+                    K  id = entry.getKey();
+                    _cache.put( id, entry.getValue(), _versions.get( id ).longValue() );
+                }
+            }
+        }
+    }
+    // CacheSynchronization
+
 }
 //
@@ -18,9 +18,19 @@
  */
 package jp.go.aist.six.util.core.persist.castor;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.stream.Stream;
+import jp.go.aist.six.util.BeansUtil;
+import jp.go.aist.six.util.CloseableIterator;
+import jp.go.aist.six.util.ObjectCache;
 import jp.go.aist.six.util.persist.Datastore;
+import jp.go.aist.six.util.persist.FetchPlan;
 import jp.go.aist.six.util.persist.Persistable;
 import jp.go.aist.six.util.persist.PersistenceException;
 import jp.go.aist.six.util.search.Binding;
@@ -62,6 +72,22 @@ public class CastorDatastore
     private DaoRegistry  _daoRegistry;
 
 
+    /**
+     * The transaction templates, which are thread-safe and shared by all
+     * the operations.
+     * They are created when the transaction manager is set.
+     */
+    private TransactionTemplate  _txTemplate;
+    private TransactionTemplate  _readOnlyTxTemplate;
+
+
+    public static final int  DEFAULT_ITERATION_CHUNK_SIZE = 500;
+
+    private static final String  _IDENTITY_PROPERTY_ = "persistentID";
+
+    private int  _iterationChunkSize = DEFAULT_ITERATION_CHUNK_SIZE;
+
+
 
     /**
      * Constructor.
@@ -77,6 +103,9 @@ public class CastorDatastore
                     )
     {
         _txManager = manager;
+        _txTemplate = null;
+        _readOnlyTxTemplate = null;
+        _configureDaoRegistry();
     }
 
 
@@ -87,11 +116,51 @@ public class CastorDatastore
 
 
 
+    /**
+     * Sets the number of the objects loaded in a transaction
+     * by the iterator returned by iterate.
+     * The default is 500.
+     */
+    public void setIterationChunkSize(
+                    final int size
+                    )
+    {
+        if (size < 1) {
+            throw new IllegalArgumentException( "invalid chunk size: " + size );
+        }
+
+        _iterationChunkSize = size;
+    }
+
+
+    public int getIterationChunkSize()
+    {
+        return _iterationChunkSize;
+    }
+
+
+
     public void setDaoRegistry(
                     final DaoRegistry registry
                     )
     {
         _daoRegistry = registry;
+        _configureDaoRegistry();
+    }
+
+
+
+    /**
+     * Injects the read-only template into all the Daos of the registry,
+     * so that the lazy relations of the objects loaded through
+     * the forwarding Daos are also fetched in a transaction.
+     */
+    private void _configureDaoRegistry()
+    {
+        if (_txManager != null  &&  _daoRegistry instanceof FactoryDaoRegistry) {
+            FactoryDaoRegistry.class.cast( _daoRegistry )
+                .setLazyLoadTemplate( _getReadOnlyTxTemplate() );
+        }
     }
 
 
@@ -113,6 +182,46 @@ public class CastorDatastore
 
 
 
+    /**
+     * Enters the bulk import mode of the Dao for the specified type.
+     * The unique-key index is loaded in a transaction.
+     *
+     * @see CastorDao#beginBulkImport()
+     */
+    public <K, T extends Persistable<K>>
+    void beginBulkImport(
+                    final Class<T> type
+                    )
+    {
+        _executeTx( "beginBulkImport", type,
+                        new TransactionCallbackWithoutResult()
+                        {
+                            @Override
+                            public void doInTransactionWithoutResult( final TransactionStatus status )
+                            {
+                                getDao( type ).beginBulkImport();
+                            }
+                        }
+        );
+    }
+
+
+
+    /**
+     * Leaves the bulk import mode of the Dao for the specified type.
+     *
+     * @see CastorDao#endBulkImport()
+     */
+    public <K, T extends Persistable<K>>
+    void endBulkImport(
+                    final Class<T> type
+                    )
+    {
+        getDao( type ).endBulkImport();
+    }
+
+
+
     //**************************************************************
     //  DataStore
     //**************************************************************
@@ -144,16 +253,20 @@ public class CastorDatastore
                     final T object
                     )
     {
-        _executeTx( "update", type, object,
-                        new TransactionCallbackWithoutResult()
-                        {
-                            @Override
-                            public void doInTransactionWithoutResult( final TransactionStatus status )
+        try {
+            _executeTx( "update", type, object,
+                            new TransactionCallbackWithoutResult()
                             {
-                                getDao( type ).update( object );
+                                @Override
+                                public void doInTransactionWithoutResult( final TransactionStatus status )
+                                {
+                                    getDao( type ).update( object );
+                                }
                             }
-                        }
-        );
+            );
+        } finally {
+            _cacheEvict( type, Collections.singletonList( object ) );
+        }
     }
 
 
@@ -164,16 +277,50 @@ public class CastorDatastore
                     final T object
                     )
     {
-        _executeTx( "remove", type, object,
-                        new TransactionCallbackWithoutResult()
-                        {
-                            @Override
-                            public void doInTransactionWithoutResult( final TransactionStatus status )
+        try {
+            _executeTx( "remove", type, object,
+                            new TransactionCallbackWithoutResult()
                             {
-                                getDao( type ).remove( object );
+                                @Override
+                                public void doInTransactionWithoutResult( final TransactionStatus status )
+                                {
+                                    getDao( type ).remove( object );
+                                }
                             }
-                        }
-        );
+            );
+        } finally {
+            _cacheEvict( type, Collections.singletonList( object ) );
+        }
+    }
+
+
+
+    public <K, T extends Persistable<K>>
+    int removeAll(
+                    final Class<T> type,
+                    final Binding filter
+                    )
+    {
+        Integer  p_count = null;
+        try {
+            p_count = _executeTx( "removeAll", type, filter,
+                            new TransactionCallback<Integer>()
+                            {
+                                public Integer doInTransaction( final TransactionStatus status )
+                                {
+                                    return getDao( type ).removeAll( filter );
+                                }
+                            }
+            );
+        } finally {
+            CastorDao<K, T>  dao = getDao( type );
+            ObjectCache<K, T>  cache = dao.getObjectCache();
+            if (cache != null) {
+                cache.clear();
+            }
+        }
+
+        return p_count.intValue();
     }
 
 
@@ -184,15 +331,21 @@ public class CastorDatastore
                     final T object
                     )
     {
-        T  p_object = _executeTx( "sync", type, object,
-                        new TransactionCallback<T>()
-                        {
-                            public T doInTransaction( final TransactionStatus status )
+        T  p_object = null;
+        try {
+            p_object = _executeTx( "sync", type, object,
+                            new TransactionCallback<T>()
                             {
-                                return getDao( type ).sync( object );
+                                public T doInTransaction( final TransactionStatus status )
+                                {
+                                    return getDao( type ).sync( object );
+                                }
                             }
-                        }
-        );
+            );
+        } finally {
+            _cacheEvict( type, Collections.singletonList( object ) );
+            _cacheEvict( type, Collections.singletonList( p_object ) );
+        }
 
         return p_object;
     }
@@ -205,15 +358,21 @@ public class CastorDatastore
                     final List<? extends T> objects
                     )
     {
-        List<T>  p_objects = _executeTx( "syncAll", type,
-                        new TransactionCallback<List<T>>()
-                        {
-                            public List<T> doInTransaction( final TransactionStatus status )
+        List<T>  p_objects = null;
+        try {
+            p_objects = _executeTx( "syncAll", type,
+                            new TransactionCallback<List<T>>()
                             {
-                                return getDao( type ).syncAll( objects );
+                                public List<T> doInTransaction( final TransactionStatus status )
+                                {
+                                    return getDao( type ).syncAll( objects );
+                                }
                             }
-                        }
-        );
+            );
+        } finally {
+            _cacheEvict( type, objects );
+            _cacheEvict( type, p_objects );
+        }
 
         return p_objects;
     }
@@ -225,7 +384,7 @@ public class CastorDatastore
                     final Class<T> type
                     )
     {
-        Integer  p_count = _executeTx( "countAll", type,
+        Integer  p_count = _executeReadTx( "countAll", type,
                         new TransactionCallback<Integer>()
                         {
                             public Integer doInTransaction( final TransactionStatus status )
@@ -246,7 +405,7 @@ public class CastorDatastore
                     final Binding filter
                     )
     {
-        Integer  p_count = _executeTx( "count", type, filter,
+        Integer  p_count = _executeReadTx( "count", type, filter,
                         new TransactionCallback<Integer>()
                         {
                             public Integer doInTransaction( final TransactionStatus status )
@@ -267,7 +426,7 @@ public class CastorDatastore
                     final K identity
                     )
     {
-        T  p_object = _executeTx( "load", type, identity,
+        T  p_object = _executeReadTx( "load", type, identity,
                         new TransactionCallback<T>()
                         {
                             public T doInTransaction( final TransactionStatus status )
@@ -282,13 +441,50 @@ public class CastorDatastore
 
 
 
+    public <K, T extends Persistable<K>>
+    T load(
+                    final Class<T> type,
+                    final K identity,
+                    final FetchPlan plan
+                    )
+    {
+        T  p_object = _executeReadTx( "load", type, identity,
+                        new TransactionCallback<T>()
+                        {
+                            public T doInTransaction( final TransactionStatus status )
+                            {
+                                return getDao( type ).load( identity, plan );
+                            }
+                        }
+        );
+
+        return p_object;
+    }
+
+
+
+    /**
+     * The object is loaded by load(type, identity),
+     * which returns null if not found.
+     */
+    public <K, T extends Persistable<K>>
+    Optional<T> loadOptional(
+                    final Class<T> type,
+                    final K identity
+                    )
+    {
+        return Optional.ofNullable( load( type, identity ) );
+    }
+
+
+
     public <K, T extends Persistable<K>>
     List<T> loadAll(
                     final Class<T> type,
                     final List<? extends K> identities
                     )
     {
-        List<T>  p_objects = _executeTx( "loadAll", type, identities,
+        List<T>  p_objects = _executeReadTx( "loadAll", type, identities,
                         new TransactionCallback<List<T>>()
                         {
                             public List<T> doInTransaction( final TransactionStatus status )
@@ -308,7 +504,7 @@ public class CastorDatastore
                     final Class<T> type
                     )
     {
-        Collection<T>  p_objects = _executeTx( "getAll", type,
+        Collection<T>  p_objects = _executeReadTx( "getAll", type,
                         new TransactionCallback<Collection<T>>()
                         {
                             public Collection<T> doInTransaction( final TransactionStatus status )
@@ -342,7 +538,7 @@ public class CastorDatastore
                     final Limit limit
                     )
     {
-        Collection<T>  p_objects = _executeTx( "find", type, filter,
+        Collection<T>  p_objects = _executeReadTx( "find", type, filter,
                         new TransactionCallback<Collection<T>>()
                         {
                             public Collection<T> doInTransaction( final TransactionStatus status )
@@ -357,12 +553,123 @@ public class CastorDatastore
 
 
 
+    public <K, T extends Persistable<K>>
+    Collection<T> find(
+                    final Class<T> type,
+                    final Binding filter,
+                    final List<? extends Order> ordering,
+                    final Limit limit,
+                    final FetchPlan plan
+                    )
+    {
+        Collection<T>  p_objects = _executeReadTx( "find", type, filter,
+                        new TransactionCallback<Collection<T>>()
+                        {
+                            public Collection<T> doInTransaction( final TransactionStatus status )
+                            {
+                                return getDao( type ).find( filter, ordering, limit, plan );
+                            }
+                        }
+        );
+
+        return p_objects;
+    }
+
+
+
+    /**
+     * Returns an iterator over the objects that match the specified filter.
+     * The objects are loaded in pages by the keyset pagination,
+     * each page in a short read-only transaction,
+     * so only the current page is held.
+     * Castor holds every object loaded in a transaction until it completes,
+     * so a transaction over the whole iteration would hold all the results.
+     * The persistentID is appended to the ordering, if not included,
+     * to make the position of a page unambiguous.
+     *
+     * <p>The iteration is not a snapshot:
+     * an object created, updated or removed during the iteration
+     * is returned or skipped according to its state
+     * when its page is loaded.
+     * </p>
+     *
+     * @see #setIterationChunkSize(int)
+     * @see CastorDao#findPage(Binding, List, Limit)
+     */
+    public <K, T extends Persistable<K>>
+    CloseableIterator<T> iterate(
+                    final Class<T> type,
+                    final Binding filter,
+                    final List<? extends Order> ordering
+                    )
+    {
+        final List<Order>  keyOrdering = _withIdentityOrder( ordering );
+        return new KeysetIterator<T>( keyOrdering, _iterationChunkSize )
+        {
+            @Override
+            protected List<T> _findPage(
+                            final Object[] after,
+                            final int count
+                            )
+            {
+                final Limit  limit = new Limit( count ).after( after );
+                return _executeReadTx( "iterate", type, limit,
+                                new TransactionCallback<List<T>>()
+                                {
+                                    public List<T> doInTransaction( final TransactionStatus status )
+                                    {
+                                        return getDao( type ).findPage( filter, keyOrdering, limit );
+                                    }
+                                }
+                );
+            }
+        };
+    }
+
+
+
+    /**
+     * Appends the persistentID to the ordering unless it is included.
+     */
+    static List<Order> _withIdentityOrder(
+                    final List<? extends Order> ordering
+                    )
+    {
+        List<Order>  keyOrdering = new ArrayList<Order>();
+        if (ordering != null) {
+            keyOrdering.addAll( ordering );
+        }
+
+        for (Order  order : keyOrdering) {
+            if (_IDENTITY_PROPERTY_.equals( order.getProperty() )) {
+                return keyOrdering;
+            }
+        }
+
+        keyOrdering.add( new Order( _IDENTITY_PROPERTY_ ) );
+        return keyOrdering;
+    }
+
+
+
+    public <K, T extends Persistable<K>>
+    Stream<T> stream(
+                    final Class<T> type,
+                    final Binding filter,
+                    final List<? extends Order> ordering
+                    )
+    {
+        return CloseableIterator.stream( iterate( type, filter, ordering ) );
+    }
+
+
+
     public <K, T extends Persistable<K>>
     Collection<K> findIdentity(
                     final Class<T> type
                     )
     {
-        Collection<K>  p_ids = _executeTx( "findIdentity", type,
+        Collection<K>  p_ids = _executeReadTx( "findIdentity", type,
                         new TransactionCallback<Collection<K>>()
                         {
                             public Collection<K> doInTransaction( final TransactionStatus status )
@@ -396,7 +703,7 @@ public class CastorDatastore
                     final Limit limit
                     )
     {
-        Collection<K>  p_ids = _executeTx( "findIdentity", type, filter,
+        Collection<K>  p_ids = _executeReadTx( "findIdentity", type, filter,
                         new TransactionCallback<Collection<K>>()
                         {
                             public Collection<K> doInTransaction( final TransactionStatus status )
@@ -417,7 +724,7 @@ public class CastorDatastore
                     final SearchCriteria criteria
                     )
     {
-        List<Object>  p_objects = _executeTx( "search", type, criteria,
+        List<Object>  p_objects = _executeReadTx( "search", type, criteria,
                         new TransactionCallback<List<Object>>()
                         {
                             public List<Object> doInTransaction( final TransactionStatus status )
@@ -432,6 +739,124 @@ public class CastorDatastore
 
 
 
+    public <K, T extends Persistable<K>>
+    List<Object[]> searchRows(
+                    final Class<T> type,
+                    final SearchCriteria criteria
+                    )
+    {
+        List<Object[]>  p_rows = _executeReadTx( "searchRows", type, criteria,
+                        new TransactionCallback<List<Object[]>>()
+                        {
+                            public List<Object[]> doInTransaction( final TransactionStatus status )
+                            {
+                                return getDao( type ).searchRows( criteria );
+                            }
+                        }
+        );
+
+        return p_rows;
+    }
+
+
+
+    /**
+     * Removes the specified objects from the object cache of the Dao.
+     * This is done after the transaction completes.
+     * The removal changes the invalidation version of the objects,
+     * so an object loaded by a concurrent read-only transaction
+     * before the commit is not put in the cache afterwards.
+     */
+    protected <K, T extends Persistable<K>>
+    void _cacheEvict(
+                    final Class<T> type,
+                    final Collection<? extends T> objects
+                    )
+    {
+        if (objects == null) {
+            return;
+        }
+
+        CastorDao<K, T>  dao = getDao( type );
+        ObjectCache<K, T>  cache = dao.getObjectCache();
+        if (cache == null) {
+            return;
+        }
+
+        for (T  object : objects) {
+            if (object != null) {
+                cache.remove( object.getPersistentID() );
+            }
+        }
+    }
+
+
+
+    /**
+     * Returns the template for the read-write transactions.
+     */
+    protected synchronized TransactionTemplate _getTxTemplate()
+    {
+        if (_txTemplate == null) {
+            TransactionTemplate  template = new TransactionTemplate( getTransactionManager() );
+            template.setPropagationBehavior( TransactionDefinition.PROPAGATION_REQUIRED );
+            _txTemplate = template;
+        }
+
+        return _txTemplate;
+    }
+
+
+
+    /**
+     * Returns the template for the read operations.
+     * A read joins the active transaction, or begins a read-only one.
+     * Castor JDO requires a transaction, i.e. Database.begin(),
+     * even for load and OQL queries, so the reads are never
+     * non-transactional.
+     */
+    protected synchronized TransactionTemplate _getReadOnlyTxTemplate()
+    {
+        if (_readOnlyTxTemplate == null) {
+            TransactionTemplate  template = new TransactionTemplate( getTransactionManager() );
+            template.setPropagationBehavior( TransactionDefinition.PROPAGATION_REQUIRED );
+            template.setReadOnly( true );
+            _readOnlyTxTemplate = template;
+        }
+
+        return _readOnlyTxTemplate;
+    }
+
+
+
+    /**
+     * Executes the specified read action in a read-only transaction.
+     */
+    protected <T> T _executeReadTx(
+                    final String operation,
+                    final Class<? extends Persistable<?>> type,
+                    final TransactionCallback<T> action
+                    )
+    {
+        return _executeReadTx( operation, type, null, action );
+    }
+
+
+
+    protected <T> T _executeReadTx(
+                    final String operation,
+                    final Class<? extends Persistable<?>> type,
+                    final Object value,
+                    final TransactionCallback<T> action
+                    )
+    {
+        Tx<T>  tx = new Tx<T>( operation, type, value, action, _getReadOnlyTxTemplate() );
+
+        return tx.execute();
+    }
+
+
+
     /**
      * Executes the specified action in a new transaction.
      */
@@ -453,7 +878,7 @@ public class CastorDatastore
                     final TransactionCallback<T> action
                     )
     {
-        Tx<T>  tx = new Tx<T>( operation, type, value, action, getTransactionManager() );
+        Tx<T>  tx = new Tx<T>( operation, type, value, action, _getTxTemplate() );
 
         return tx.execute();
     }
@@ -465,8 +890,9 @@ public class CastorDatastore
      */
     private static class Tx<T>
     {
-        private final String  _message;
-        private final String  _value;
+        private final String  _operation;
+        private final Class<? extends Persistable<?>>  _type;
+        private final Object  _value;
         private final TransactionCallback<T> _action;
         private final TransactionTemplate  _template;
 
@@ -477,25 +903,29 @@ public class CastorDatastore
                         final Class<? extends Persistable<?>> type,
                         final Object value,
                         final TransactionCallback<T> action,
-                        final PlatformTransactionManager txmgr
+                        final TransactionTemplate template
                         )
         {
-            _message = ": " + operation + " - " + type.getName();
+            _operation = operation;
+            _type = type;
+            _value = value;
             _action = action;
-            _template = new TransactionTemplate( txmgr );
-            _template.setPropagationBehavior( TransactionDefinition.PROPAGATION_REQUIRED );
-            _value = (value == null ? "" : (" - " + String.valueOf( value )));
+            _template = template;
         }
 
 
 
         public T execute()
         {
-            if (_LOG_.isInfoEnabled()) {
-                _LOG_.info( "TX begin" + _message + _value );
+            //The message is built only if it is logged,
+            // since the value may be a large collection.
+            final boolean  info = _LOG_.isInfoEnabled();
+            if (info) {
+                _LOG_.info( "TX begin: " + _operation + " - " + _type.getName()
+                                + (_value == null ? "" : (" - " + String.valueOf( _value ))) );
             }
 
-            long  timestamp = System.currentTimeMillis();
+            long  timestamp = (info ? System.currentTimeMillis() : 0L);
             T  result = null;
             try {
                 result = _template.execute( _action );
@@ -507,9 +937,9 @@ public class CastorDatastore
                 throw new PersistenceException( ex.getMostSpecificCause() );
             }
 
-            if (_LOG_.isInfoEnabled()) {
+            if (info) {
                 timestamp = System.currentTimeMillis() - timestamp;
-                _LOG_.info( "TX end" + _message
+                _LOG_.info( "TX end: " + _operation + " - " + _type.getName()
                                 + ": elapsed time (ms)=" + timestamp );
             }
 
@@ -518,5 +948,112 @@ public class CastorDatastore
     }
     // Tx
 
+
+
+    /**
+     * An iterator which loads the objects page by page,
+     * following the ordering key of the last object of the previous page.
+     * Only the current page is held.
+     */
+    abstract static class KeysetIterator<T>
+        implements CloseableIterator<T>
+    {
+        private final List<Order>  _ordering;
+        private final int  _pageSize;
+        private Object[]  _after;
+        private Iterator<T>  _page;
+        private boolean  _exhausted = false;
+
+
+
+        public KeysetIterator(
+                        final List<Order> ordering,
+                        final int pageSize
+                        )
+        {
+            _ordering = ordering;
+            _pageSize = pageSize;
+        }
+
+
+
+        /**
+         * Finds the page following the specified ordering key.
+         *
+         * @param   after
+         *  the ordering key of the last object of the previous page,
+         *  or null for the first page.
+         * @param   count
+         *  the maximum number of the objects.
+         * @return
+         *  the objects in the order of the ordering.
+         */
+        protected abstract List<T> _findPage( Object[] after, int count );
+
+
+
+        public boolean hasNext()
+        {
+            while (_page == null  ||  !_page.hasNext()) {
+                if (_exhausted) {
+                    close();
+                    return false;
+                }
+
+                List<T>  page = _findPage( _after, _pageSize );
+                if (page.size() < _pageSize) {
+                    _exhausted = true;
+                }
+                if (page.size() > 0) {
+                    _after = _keyOf( page.get( page.size() - 1 ) );
+                }
+                _page = page.iterator();
+            }
+
+            return true;
+        }
+
+
+
+        public T next()
+        {
+            if (! hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            return _page.next();
+        }
+
+
+
+        public void remove()
+        {
+            throw new UnsupportedOperationException();
+        }
+
+
+
+        public void close()
+        {
+            _exhausted = true;
+            _page = null;
+        }
+
+
+
+        private Object[] _keyOf(
+                        final T object
+                        )
+        {
+            Object[]  key = new Object[_ordering.size()];
+            for (int  i = 0; i < key.length; i++) {
+                key[i] = BeansUtil.getProperty( object, _ordering.get( i ).getProperty() );
+            }
+
+            return key;
+        }
+    }
+    // KeysetIterator
+
 }
 //
@@ -122,5 +122,35 @@ extends CastorTemplate
         return results;
     }
 
+
+
+    /**
+     * Executes the query and returns the results without copying them.
+     * The results hold the database cursor,
+     * so they must be closed by the caller
+     * before the current transaction completes.
+     */
+    public QueryResults openQuery(
+                    final String oql,
+                    final Object[] params
+                    )
+    throws DataAccessException
+    {
+        QueryResults  results = (QueryResults)execute(new CastorCallback() {
+            public Object doInCastor(final Database database) throws PersistenceException {
+                OQLQuery  query = database.getOQLQuery( oql );
+                if (params != null) {
+                    for (int  i = 0; i < params.length; i++) {
+                        query.bind( params[i] );
+                    }
+                }
+                prepareQuery( query );
+                return query.execute();
+            }
+        });
+
+        return results;
+    }
+
 }
 // ExtendedCastorTemplate
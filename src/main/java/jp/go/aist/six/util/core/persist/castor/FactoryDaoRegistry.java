@@ -18,14 +18,21 @@
  */
 package jp.go.aist.six.util.core.persist.castor;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import jp.go.aist.six.util.ObjectCache;
+import jp.go.aist.six.util.persist.IdentityAllocator;
 import jp.go.aist.six.util.persist.Persistable;
 import jp.go.aist.six.util.persist.PersistenceException;
 import org.castor.spring.orm.support.CastorDaoSupport;
 import org.exolab.castor.jdo.JDOManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.transaction.support.TransactionTemplate;
 
 
 
@@ -49,13 +56,35 @@ public class FactoryDaoRegistry
     private final Map<String, String>  _typeMapping = new HashMap<String, String>();
 
 
-    private final Map<Class<? extends Persistable<?>>, CastorDao<?, ?>>  _daoMapping =
-        new HashMap<Class<? extends Persistable<?>>, CastorDao<?, ?>>();
+    /**
+     * The object caches, keyed by the object type name.
+     */
+    private final Map<String, ObjectCache<?, ?>>  _cacheMapping =
+        new HashMap<String, ObjectCache<?, ?>>();
+
+
+    /**
+     * The identity allocators, keyed by the object type name.
+     */
+    private final Map<String, IdentityAllocator<?>>  _allocatorMapping =
+        new HashMap<String, IdentityAllocator<?>>();
+
+
+    private final ConcurrentMap<Class<? extends Persistable<?>>, CastorDao<?, ?>>  _daoMapping =
+        new ConcurrentHashMap<Class<? extends Persistable<?>>, CastorDao<?, ?>>();
 
 
     private JDOManager  _jdoManager;
 
 
+    private boolean  _dirtyCheckingEnabled = false;
+
+
+    private final List<QueryListener>  _queryListeners = new ArrayList<QueryListener>();
+
+    private volatile TransactionTemplate  _lazyLoadTemplate;
+
+
 
     /**
      * Constructor.
@@ -103,6 +132,111 @@ public class FactoryDaoRegistry
 
 
 
+    /**
+     * Enables or disables the dirty checking of the sync operation
+     * in all the Daos created by this registry.
+     */
+    public void setDirtyCheckingEnabled(
+                    final boolean enabled
+                    )
+    {
+        _dirtyCheckingEnabled = enabled;
+    }
+
+
+
+    /**
+     * Sets the query listeners added to all the Daos created by this registry,
+     * e.g. a shared QueryStatistics and a SlowQueryLog.
+     */
+    public void setQueryListeners(
+                    final List<? extends QueryListener> listeners
+                    )
+    {
+        if (listeners == null) {
+            return;
+        }
+
+        _queryListeners.addAll( listeners );
+    }
+
+
+
+    /**
+     * Sets the transaction template in which the lazy relations are fetched
+     * by all the Daos of this registry,
+     * including those reached through the forwarding Daos.
+     * CastorDatastore sets its read-only template.
+     */
+    public void setLazyLoadTemplate(
+                    final TransactionTemplate template
+                    )
+    {
+        _lazyLoadTemplate = template;
+        for (CastorDao<?, ?>  dao : _daoMapping.values()) {
+            dao.setLazyLoadTemplate( template );
+        }
+    }
+
+
+
+    /**
+     * Sets the object caches of the Daos.
+     * The key of the map is the name of the object type.
+     * The types not contained in the map are not cached.
+     */
+    public void setObjectCacheMapping(
+                    final Map<String, ObjectCache<?, ?>> map
+                    )
+    {
+        if (map == null) {
+            return;
+        }
+
+        _cacheMapping.putAll( map );
+        if (_LOG_.isDebugEnabled()) {
+            _LOG_.debug( "object cache mapping: " + _cacheMapping );
+        }
+    }
+
+
+
+    /**
+     * Sets the identity allocators of the Daos.
+     * The key of the map is the name of the object type.
+     * The IDs of the types not contained in the map are generated
+     * by the data store.
+     */
+    public void setIdentityAllocatorMapping(
+                    final Map<String, IdentityAllocator<?>> map
+                    )
+    {
+        if (map == null) {
+            return;
+        }
+
+        _allocatorMapping.putAll( map );
+        if (_LOG_.isDebugEnabled()) {
+            _LOG_.debug( "identity allocator mapping: " + _allocatorMapping );
+        }
+    }
+
+
+
+    /**
+     * Returns the object cache of the specified object type,
+     * or null if the type is not cached.
+     * The cache provides the hit ratio and eviction statistics.
+     */
+    public ObjectCache<?, ?> getObjectCache(
+                    final Class<?> type
+                    )
+    {
+        return _cacheMapping.get( type.getName() );
+    }
+
+
+
     /**
      * Creates a Dao for the specified object type.
      */
@@ -136,6 +270,24 @@ public class FactoryDaoRegistry
             support.setJDOManager( _jdoManager );
         }
 
+        @SuppressWarnings( "unchecked" )
+        ObjectCache<K, T>  cache = (ObjectCache<K, T>)_cacheMapping.get( type.getName() );
+        if (cache != null) {
+            dao.setObjectCache( cache );
+        }
+
+        @SuppressWarnings( "unchecked" )
+        IdentityAllocator<K>  allocator = (IdentityAllocator<K>)_allocatorMapping.get( type.getName() );
+        if (allocator != null) {
+            dao.setIdentityAllocator( allocator );
+        }
+
+        dao.setDirtyCheckingEnabled( _dirtyCheckingEnabled );
+        dao.setLazyLoadTemplate( _lazyLoadTemplate );
+        for (QueryListener  listener : _queryListeners) {
+            dao.addQueryListener( listener );
+        }
+
         return dao;
     }
 
@@ -158,7 +310,15 @@ public class FactoryDaoRegistry
 
         if (dao == null) {
             dao = _createDao( type );
-            _daoMapping.put( type, dao );
+            @SuppressWarnings( "unchecked" )
+            CastorDao<K, T>  prev = (CastorDao<K, T>)_daoMapping.putIfAbsent( type, dao );
+            if (prev != null) {
+                //created concurrently; the loser is discarded.
+                dao = prev;
+            } else {
+                //the template may be set during the creation.
+                dao.setLazyLoadTemplate( _lazyLoadTemplate );
+            }
         }
 
         return dao;
@@ -19,7 +19,9 @@
 package jp.go.aist.six.util.core.persist.castor;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Locale;
 import jp.go.aist.six.util.search.Aggregation;
 import jp.go.aist.six.util.search.AndBinding;
 import jp.go.aist.six.util.search.Binding;
@@ -444,6 +446,7 @@ public class OQL
             Limit  limit = criteria.getLimit();
             if (limit != null) {
                 _limit = new Limit( limit.getCount(), limit.getOffset() );
+                _limit.setAfter( limit.getAfter() );
                 StringBuilder  limitClause = new StringBuilder();
                 _buildLimit( _limit, limitClause );
                 _limitClause = limitClause.toString();
@@ -571,15 +574,80 @@ public class OQL
 //            }
 //        }
 
-        if (binding != null ){
+        Limit  limit = (criteria == null ? null : criteria.getLimit());
+        Object[]  after = (limit == null ? null : limit.getAfter());
+
+        if (binding != null  ||  after != null) {
             stmt.append( _WHERE_ );
-            _buildBinding( binding, stmt, params );
-            //throws SearchException
+            if (binding != null) {
+                _buildBinding( binding, stmt, params );
+                //throws SearchException
+            }
+
+            if (after != null) {
+                if (binding != null) {
+                    stmt.append( _AND_ );
+                }
+                _buildSeek( criteria.getOrders(), after, stmt, params );
+            }
         }
     }
 
 
 
+    /**
+     * Keyset (seek) predicate, which selects the objects
+     * following the specified ordering key.
+     *      ((T.a > $1) OR (T.a = $2 AND T.b > $3) OR ...)
+     * The comparison is "&lt;" for a descending order.
+     */
+    private void _buildSeek(
+                    final List<Order> orders,
+                    final Object[] after,
+                    final StringBuilder stmt,
+                    final List<Object> params
+                    )
+    {
+        int  n_orders = (orders == null ? 0 : orders.size());
+        if (n_orders != after.length) {
+            throw new IllegalArgumentException(
+                            "the 'after' key does not match the orders: "
+                            + Arrays.toString( after ) + ", " + orders );
+        }
+
+        stmt.append( " (" );
+        for (int  i = 0; i < n_orders; i++) {
+            if (i > 0) {
+                stmt.append( _OR_ );
+            }
+
+            stmt.append( "(" );
+            for (int  j = 0; j <= i; j++) {
+                if (after[j] == null) {
+                    throw new IllegalArgumentException(
+                                    "null value in the 'after' key: "
+                                    + Arrays.toString( after ) );
+                }
+
+                final Order  order = orders.get( j );
+                if (j > 0) {
+                    stmt.append( _AND_ );
+                }
+                _buildProperty( order.getProperty(), stmt );
+                if (j < i) {
+                    stmt.append( " = " );
+                } else {
+                    stmt.append( order.isDescending() ? " < " : " > " );
+                }
+                _buildParameter( after[j], stmt, params );
+            }
+            stmt.append( ")" );
+        }
+        stmt.append( ")" );
+    }
+
+
+
     /**
      */
     private void _buildBinding(
@@ -877,6 +945,9 @@ public class OQL
      * SELECT
      *      SELECT {DISTINCT} T
      *      SELECT {DISTINCT} T.a, T.b, T.c
+     *      SELECT count(*), max(T.a)
+     *
+     * DISTINCT is not applied to the aggregations.
      */
     private void _buildSelect(
                     final SearchCriteria criteria,
@@ -886,8 +957,13 @@ public class OQL
         final List<Projection>  projections =
             (criteria == null ? null : criteria.getProjections());
         final int  n_projections = (projections == null ? 0 : projections.size());
-        final boolean  distinct =
+        boolean  distinct =
             (criteria == null ? true : criteria.isDistinct());
+        for (int  i = 0; distinct  &&  i < n_projections; i++) {
+            if (projections.get( i ) instanceof Aggregation) {
+                distinct = false;
+            }
+        }
 
         // SELECT
         stmt.append( _SELECT_ );
@@ -915,8 +991,8 @@ public class OQL
 
     /**
      * Projection
-     *      COUNT(*)
-     *      MAX(T.a)
+     *      count(*)
+     *      max(T.a)
      *      T.a
      */
     private void _buildProjection(
@@ -926,7 +1002,7 @@ public class OQL
     {
         if (p instanceof Aggregation) {
             Aggregation  aggr = (Aggregation)p;
-            stmt.append( aggr.getFunction().name() );
+            stmt.append( aggr.getFunction().name().toLowerCase( Locale.ENGLISH ) );
             stmt.append( "(" );
             String  expr = aggr.getExpression();
             if (Aggregation.WHOLE_OBJECT_EXPRESSION.equals( expr )) {
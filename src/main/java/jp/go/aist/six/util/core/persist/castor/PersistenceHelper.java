@@ -73,6 +73,19 @@ public class PersistenceHelper<T extends Persistable<?>>
 
 
 
+    /**
+     * Returns the names of the properties that constitute the unique value,
+     * in the same order as the elements of getUnique(T).
+     * It is used to build the unique-key index for bulk import.
+     * If null, i.e. by default, the index is not available for the type.
+     */
+    public String[] getUniqueProperties()
+    {
+        return null;
+    }
+
+
+
     /**
      * Returns a filter clause of a query statement to retrieve
      * the unique object.
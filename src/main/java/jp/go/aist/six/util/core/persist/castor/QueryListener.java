@@ -0,0 +1,75 @@
+/**
+ * SIX UTIL - https://staff.aist.go.jp/nakamura-akihito/six/util/
+ * Copyright (C) 2008
+ *   National Institute of Advanced Industrial Science and Technology (AIST)
+ *   Registration Number: H20PRO-863
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.go.aist.six.util.core.persist.castor;
+
+
+
+/**
+ * A listener notified of the OQL queries executed by the Daos.
+ * The listener is called in the thread that executed the query,
+ * so the implementation should return quickly
+ * and must be thread-safe.
+ *
+ * @author  Akihito Nakamura, AIST
+ * @version $Id$
+ * @see CastorDao#addQueryListener(QueryListener)
+ */
+public interface QueryListener
+{
+
+    /**
+     * Called after an OQL query is executed.
+     *
+     * @param   type
+     *  the object type of the Dao.
+     * @param   statement
+     *  the OQL statement.
+     * @param   params
+     *  the parameter values, or null.
+     * @param   rowCount
+     *  the number of the result rows,
+     *  or -1 if the results are iterated by the caller and not counted.
+     * @param   elapsedNanos
+     *  the execution time in nanoseconds.
+     */
+    public void queryExecuted( Class<?> type, String statement, Object[] params,
+                    int rowCount, long elapsedNanos );
+
+
+
+    /**
+     * Called after an OQL query failed,
+     * before the error is thrown to the caller.
+     *
+     * @param   type
+     *  the object type of the Dao.
+     * @param   statement
+     *  the OQL statement.
+     * @param   params
+     *  the parameter values, or null.
+     * @param   error
+     *  the error thrown by the query.
+     * @param   elapsedNanos
+     *  the time until the failure in nanoseconds.
+     */
+    public void queryFailed( Class<?> type, String statement, Object[] params,
+                    Throwable error, long elapsedNanos );
+
+}
+//
@@ -0,0 +1,280 @@
+/**
+ * SIX UTIL - https://staff.aist.go.jp/nakamura-akihito/six/util/
+ * Copyright (C) 2008
+ *   National Institute of Advanced Industrial Science and Technology (AIST)
+ *   Registration Number: H20PRO-863
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.go.aist.six.util.core.persist.castor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import jp.go.aist.six.util.metrics.Histogram;
+
+
+
+/**
+ * A query listener that collects the latency histogram, the row count
+ * and the error count per Dao type and statement shape.
+ * The shape of a statement is the OQL text in which the parameters
+ * are replaced with "?" and an IN LIST of any length is reduced to one,
+ * so the queries that differ only in their values share one entry.
+ *
+ * <p>The latencies are recorded in microseconds.
+ * </p>
+ *
+ * @author  Akihito Nakamura, AIST
+ * @version $Id$
+ */
+public class QueryStatistics
+    implements QueryListener
+{
+
+    private static final Pattern  _PARAMETER_ = Pattern.compile( "\\$\\d+" );
+    private static final Pattern  _PARAMETER_LIST_ = Pattern.compile( "\\?(\\s*,\\s*\\?)+" );
+
+
+    private final ConcurrentMap<String, Entry>  _entries =
+        new ConcurrentHashMap<String, Entry>();
+
+
+
+    /**
+     * Constructor.
+     */
+    public QueryStatistics()
+    {
+    }
+
+
+
+    /**
+     * Returns the shape of the specified OQL statement.
+     *
+     * @param   statement
+     *  the OQL statement.
+     * @return
+     *  the statement shape.
+     */
+    public static String shapeOf(
+                    final String statement
+                    )
+    {
+        if (statement == null) {
+            return "";
+        }
+
+        String  shape = _PARAMETER_.matcher( statement ).replaceAll( "?" );
+        shape = _PARAMETER_LIST_.matcher( shape ).replaceAll( "?, ..." );
+        return shape.trim();
+    }
+
+
+
+    /**
+     * Returns the snapshot of the entries,
+     * in descending order of the total execution time.
+     */
+    public List<Entry> getEntries()
+    {
+        List<Entry>  entries = new ArrayList<Entry>( _entries.values() );
+        Collections.sort( entries, new Comparator<Entry>()
+        {
+            public int compare(
+                            final Entry e1,
+                            final Entry e2
+                            )
+            {
+                return Long.compare( e2.getLatency().getSum(), e1.getLatency().getSum() );
+            }
+        });
+
+        return entries;
+    }
+
+
+
+    /**
+     * Clears all the entries.
+     */
+    public void reset()
+    {
+        _entries.clear();
+    }
+
+
+
+    //**************************************************************
+    //  QueryListener
+    //**************************************************************
+
+    public void queryExecuted(
+                    final Class<?> type,
+                    final String statement,
+                    final Object[] params,
+                    final int rowCount,
+                    final long elapsedNanos
+                    )
+    {
+        Entry  entry = _getEntry( type, statement );
+        entry._latency.record( elapsedNanos / 1000L );
+        if (rowCount > 0) {
+            entry._rowCount.addAndGet( rowCount );
+        }
+    }
+
+
+
+    /**
+     * The latency of a failed query is also recorded,
+     * since a timeout is typically the slowest one.
+     */
+    public void queryFailed(
+                    final Class<?> type,
+                    final String statement,
+                    final Object[] params,
+                    final Throwable error,
+                    final long elapsedNanos
+                    )
+    {
+        Entry  entry = _getEntry( type, statement );
+        entry._latency.record( elapsedNanos / 1000L );
+        entry._errorCount.incrementAndGet();
+    }
+
+
+
+    private Entry _getEntry(
+                    final Class<?> type,
+                    final String statement
+                    )
+    {
+        String  shape = shapeOf( statement );
+        String  key = type.getName() + " " + shape;
+        Entry  entry = _entries.get( key );
+        if (entry == null) {
+            Entry  new_entry = new Entry( type.getName(), shape );
+            entry = _entries.putIfAbsent( key, new_entry );
+            if (entry == null) {
+                entry = new_entry;
+            }
+        }
+
+        return entry;
+    }
+
+
+
+    //**************************************************************
+    //  java.lang.Object
+    //**************************************************************
+
+    @Override
+    public String toString()
+    {
+        StringBuilder  s = new StringBuilder( "QueryStatistics[" );
+        for (Entry  entry : getEntries()) {
+            s.append( "\n  " ).append( entry );
+        }
+        s.append( "]" );
+
+        return s.toString();
+    }
+
+
+
+    /**
+     * The statistics of a statement shape.
+     */
+    public static final class Entry
+    {
+        private final String  _type;
+        private final String  _statement;
+        private final Histogram  _latency = new Histogram();
+        private final AtomicLong  _rowCount = new AtomicLong();
+        private final AtomicLong  _errorCount = new AtomicLong();
+
+
+
+        Entry(
+                        final String type,
+                        final String statement
+                        )
+        {
+            _type = type;
+            _statement = statement;
+        }
+
+
+
+        public String getType()
+        {
+            return _type;
+        }
+
+
+        public String getStatement()
+        {
+            return _statement;
+        }
+
+
+        /**
+         * Returns the latency histogram in microseconds.
+         */
+        public Histogram getLatency()
+        {
+            return _latency;
+        }
+
+
+        /**
+         * Returns the total number of the result rows.
+         */
+        public long getRowCount()
+        {
+            return _rowCount.get();
+        }
+
+
+        /**
+         * Returns the number of the failed queries.
+         */
+        public long getErrorCount()
+        {
+            return _errorCount.get();
+        }
+
+
+
+        @Override
+        public String toString()
+        {
+            return "type=" + _type
+                            + ", latency(us)=" + _latency
+                            + ", rows=" + getRowCount()
+                            + ", errors=" + getErrorCount()
+                            + ", OQL=" + _statement;
+        }
+    }
+    // Entry
+
+}
+//
@@ -0,0 +1,202 @@
+/**
+ * SIX UTIL - https://staff.aist.go.jp/nakamura-akihito/six/util/
+ * Copyright (C) 2008
+ *   National Institute of Advanced Industrial Science and Technology (AIST)
+ *   Registration Number: H20PRO-863
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.go.aist.six.util.core.persist.castor;
+
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+
+/**
+ * A query listener that logs the queries
+ * slower than the threshold, with their parameter values.
+ * The failed queries are also logged if they are slower than the threshold,
+ * e.g. those canceled by a timeout.
+ * The log is written at WARN level.
+ *
+ * @author  Akihito Nakamura, AIST
+ * @version $Id$
+ */
+public class SlowQueryLog
+    implements QueryListener
+{
+
+    /**
+     * Logger.
+     */
+    private static final Logger  _LOG_ =
+        LoggerFactory.getLogger( SlowQueryLog.class );
+
+
+    public static final long  DEFAULT_THRESHOLD = 1000L;
+    public static final int  DEFAULT_MAX_LOGGED_PARAMETERS = 20;
+
+
+
+    private volatile long  _thresholdNanos =
+        TimeUnit.MILLISECONDS.toNanos( DEFAULT_THRESHOLD );
+
+    private volatile int  _maxLoggedParameters = DEFAULT_MAX_LOGGED_PARAMETERS;
+
+
+
+    /**
+     * Constructor.
+     */
+    public SlowQueryLog()
+    {
+    }
+
+
+    /**
+     * Constructor.
+     *
+     * @param   threshold
+     *  the threshold in milliseconds.
+     */
+    public SlowQueryLog(
+                    final long threshold
+                    )
+    {
+        setThreshold( threshold );
+    }
+
+
+
+    /**
+     * Sets the threshold in milliseconds.
+     * The default is 1000.
+     */
+    public void setThreshold(
+                    final long threshold
+                    )
+    {
+        if (threshold < 0L) {
+            throw new IllegalArgumentException( "negative threshold: " + threshold );
+        }
+
+        _thresholdNanos = TimeUnit.MILLISECONDS.toNanos( threshold );
+    }
+
+
+    public long getThreshold()
+    {
+        return TimeUnit.NANOSECONDS.toMillis( _thresholdNanos );
+    }
+
+
+
+    /**
+     * Sets the maximum number of the parameter values logged per query.
+     * The long value lists, e.g. IN LIST, are truncated.
+     * The default is 20.
+     */
+    public void setMaxLoggedParameters(
+                    final int max
+                    )
+    {
+        if (max < 0) {
+            throw new IllegalArgumentException( "negative max: " + max );
+        }
+
+        _maxLoggedParameters = max;
+    }
+
+
+    public int getMaxLoggedParameters()
+    {
+        return _maxLoggedParameters;
+    }
+
+
+
+    //**************************************************************
+    //  QueryListener
+    //**************************************************************
+
+    public void queryExecuted(
+                    final Class<?> type,
+                    final String statement,
+                    final Object[] params,
+                    final int rowCount,
+                    final long elapsedNanos
+                    )
+    {
+        if (elapsedNanos < _thresholdNanos  ||  !_LOG_.isWarnEnabled()) {
+            return;
+        }
+
+        _LOG_.warn( "slow query: type=" + type.getName()
+                        + ", elapsed time (ms)=" + TimeUnit.NANOSECONDS.toMillis( elapsedNanos )
+                        + ", rows=" + (rowCount < 0 ? "?" : String.valueOf( rowCount ))
+                        + ", OQL=" + statement
+                        + ", params=" + _toString( params ) );
+    }
+
+
+
+    public void queryFailed(
+                    final Class<?> type,
+                    final String statement,
+                    final Object[] params,
+                    final Throwable error,
+                    final long elapsedNanos
+                    )
+    {
+        if (elapsedNanos < _thresholdNanos  ||  !_LOG_.isWarnEnabled()) {
+            return;
+        }
+
+        _LOG_.warn( "slow query failed: type=" + type.getName()
+                        + ", elapsed time (ms)=" + TimeUnit.NANOSECONDS.toMillis( elapsedNanos )
+                        + ", error=" + error
+                        + ", OQL=" + statement
+                        + ", params=" + _toString( params ) );
+    }
+
+
+
+    private String _toString(
+                    final Object[] params
+                    )
+    {
+        if (params == null) {
+            return "[]";
+        }
+
+        final int  max = _maxLoggedParameters;
+        StringBuilder  s = new StringBuilder( "[" );
+        for (int  i = 0; i < params.length; i++) {
+            if (i > 0) {
+                s.append( ", " );
+            }
+            if (i >= max) {
+                s.append( "... (" ).append( params.length ).append( " values)" );
+                break;
+            }
+            s.append( params[i] );
+        }
+        s.append( "]" );
+
+        return s.toString();
+    }
+
+}
+//
@@ -0,0 +1,278 @@
+/**
+ * SIX UTIL - https://staff.aist.go.jp/nakamura-akihito/six/util/
+ * Copyright (C) 2008
+ *   National Institute of Advanced Industrial Science and Technology (AIST)
+ *   Registration Number: H20PRO-863
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.go.aist.six.util.core.persist.castor;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+
+/**
+ * An identity map of the persistent objects resolved during a sync operation.
+ * The map is bound to the current thread, i.e. the current transaction,
+ * and shared by all the Daos.
+ * It is opened by the outermost sync() or syncAll() and discarded
+ * when that operation completes.
+ *
+ * <p>The objects are keyed by the persistent ID and by the unique value
+ * of the type.
+ * So, a dependent object shared by many objects in a batch
+ * is looked up in the data store only once.
+ * </p>
+ *
+ * @author  Akihito Nakamura, AIST
+ * @version $Id$
+ */
+final class SyncIdentityMap
+{
+
+    /**
+     * Logger.
+     */
+    private static final Logger  _LOG_ =
+        LoggerFactory.getLogger( SyncIdentityMap.class );
+
+
+
+    private static final ThreadLocal<SyncIdentityMap>  _CURRENT_ =
+        new ThreadLocal<SyncIdentityMap>();
+
+
+
+    /**
+     * The nesting level of the sync operations.
+     */
+    private int  _depth = 0;
+
+
+    private final Map<Key, Object>  _objects = new HashMap<Key, Object>();
+
+
+    private long  _hitCount = 0L;
+    private long  _missCount = 0L;
+
+
+
+    /**
+     * Constructor.
+     */
+    private SyncIdentityMap()
+    {
+    }
+
+
+
+    /**
+     * Opens the identity map of the current thread.
+     * If it is already open, the nesting level is incremented.
+     */
+    static void begin()
+    {
+        SyncIdentityMap  map = _CURRENT_.get();
+        if (map == null) {
+            map = new SyncIdentityMap();
+            _CURRENT_.set( map );
+        }
+
+        map._depth++;
+    }
+
+
+
+    /**
+     * Closes the identity map of the current thread.
+     * The map is discarded when the outermost operation ends.
+     */
+    static void end()
+    {
+        SyncIdentityMap  map = _CURRENT_.get();
+        if (map == null) {
+            return;
+        }
+
+        map._depth--;
+        if (map._depth <= 0) {
+            _CURRENT_.remove();
+            if (_LOG_.isDebugEnabled()) {
+                _LOG_.debug( "sync identity map: size=" + map._objects.size()
+                                + ", hits=" + map._hitCount
+                                + ", misses=" + map._missCount );
+            }
+        }
+    }
+
+
+
+    /**
+     * Returns the identity map of the current thread,
+     * or null if no sync operation is in progress.
+     */
+    static SyncIdentityMap current()
+    {
+        return _CURRENT_.get();
+    }
+
+
+
+    /**
+     * Returns the persistent object of the specified type
+     * that has the specified identity or unique value.
+     *
+     * @param   type
+     *  the object type.
+     * @param   id
+     *  the persistent ID, or null.
+     * @param   unique
+     *  the unique value, or null.
+     * @return
+     *  the persistent object, or null if not resolved yet.
+     */
+    Object get(
+                    final Class<?> type,
+                    final Object id,
+                    final Object unique
+                    )
+    {
+        Object  p_object = null;
+        if (id != null) {
+            p_object = _objects.get( new Key( type, false, id ) );
+        }
+
+        if (p_object == null  &&  unique != null) {
+            p_object = _objects.get( new Key( type, true, unique ) );
+        }
+
+        if (p_object == null) {
+            _missCount++;
+        } else {
+            _hitCount++;
+        }
+
+        return p_object;
+    }
+
+
+
+    /**
+     */
+    void put(
+                    final Class<?> type,
+                    final Object id,
+                    final Object unique,
+                    final Object p_object
+                    )
+    {
+        if (id != null) {
+            _objects.put( new Key( type, false, id ), p_object );
+        }
+
+        if (unique != null) {
+            _objects.put( new Key( type, true, unique ), p_object );
+        }
+    }
+
+
+
+    /**
+     */
+    void remove(
+                    final Class<?> type,
+                    final Object id,
+                    final Object unique
+                    )
+    {
+        if (id != null) {
+            _objects.remove( new Key( type, false, id ) );
+        }
+
+        if (unique != null) {
+            _objects.remove( new Key( type, true, unique ) );
+        }
+    }
+
+
+
+    /**
+     * A key of the identity map.
+     * An array value, i.e. a composite unique value,
+     * is compared by its elements.
+     */
+    private static final class Key
+    {
+        private final Class<?>  _type;
+        private final boolean  _unique;
+        private final Object  _value;
+
+
+
+        Key(
+                        final Class<?> type,
+                        final boolean unique,
+                        final Object value
+                        )
+        {
+            _type = type;
+            _unique = unique;
+            _value = (value instanceof Object[]
+                            ? Arrays.asList( (Object[])value ) : value);
+        }
+
+
+
+        @Override
+        public int hashCode()
+        {
+            final int  prime = 37;
+            int  result = 17;
+
+            result = prime * result + _type.hashCode();
+            result = prime * result + (_unique ? 1 : 0);
+            result = prime * result + _value.hashCode();
+
+            return result;
+        }
+
+
+
+        @Override
+        public boolean equals(
+                        final Object obj
+                        )
+        {
+            if (this == obj) {
+                return true;
+            }
+
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+
+            Key  other = (Key)obj;
+            return (_type == other._type
+                            &&  _unique == other._unique
+                            &&  _value.equals( other._value ));
+        }
+    }
+    // Key
+
+}
+//
@@ -0,0 +1,437 @@
+/**
+ * SIX UTIL - https://staff.aist.go.jp/nakamura-akihito/six/util/
+ * Copyright (C) 2008
+ *   National Institute of Advanced Industrial Science and Technology (AIST)
+ *   Registration Number: H20PRO-863
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.go.aist.six.util.core.persist.jdbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import javax.sql.DataSource;
+import jp.go.aist.six.util.persist.BlockIdentityAllocator;
+import jp.go.aist.six.util.persist.PersistenceException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+
+/**
+ * A hi/lo block source backed by a table of the "hi" values:
+ * <pre>
+ *   CREATE TABLE hilo_sequence (
+ *     name     VARCHAR(64) NOT NULL PRIMARY KEY,
+ *     next_hi  BIGINT      NOT NULL
+ *   );
+ * </pre>
+ * Each block increments the "hi" value of the sequence name,
+ * and the block starts at hi * blockSize + 1, so the IDs start from 1.
+ * The table and column names are configurable.
+ *
+ * <p>The increment is committed on a separate connection,
+ * independent of the caller's transaction.
+ * If the row of the sequence does not exist, it is inserted
+ * with the initial hi value.
+ * When the IDs are introduced to an existing table,
+ * e.g. whose rows were created by the Castor key generator,
+ * the initial hi value must be set above the existing IDs:
+ * either explicitly, or by the seed table and column,
+ * from which it is computed as MAX(column) / blockSize + 1.
+ * </p>
+ *
+ * @author  Akihito Nakamura, AIST
+ * @version $Id$
+ */
+public class JdbcHiLoBlockSource
+    implements BlockIdentityAllocator.BlockSource
+{
+
+    /**
+     * Logger.
+     */
+    private static final Logger  _LOG_ =
+        LoggerFactory.getLogger( JdbcHiLoBlockSource.class );
+
+
+    public static final String  DEFAULT_TABLE = "hilo_sequence";
+    public static final String  DEFAULT_NAME_COLUMN = "name";
+    public static final String  DEFAULT_HI_COLUMN = "next_hi";
+
+
+
+    private DataSource  _dataSource;
+
+    private String  _sequenceName;
+
+    private String  _table = DEFAULT_TABLE;
+    private String  _nameColumn = DEFAULT_NAME_COLUMN;
+    private String  _hiColumn = DEFAULT_HI_COLUMN;
+
+    private long  _initialHi = 0L;
+    private String  _seedTable;
+    private String  _seedColumn;
+
+
+
+    /**
+     * Constructor.
+     */
+    public JdbcHiLoBlockSource()
+    {
+    }
+
+
+    /**
+     * Constructor.
+     */
+    public JdbcHiLoBlockSource(
+                    final DataSource dataSource,
+                    final String sequenceName
+                    )
+    {
+        setDataSource( dataSource );
+        setSequenceName( sequenceName );
+    }
+
+
+
+    /**
+     */
+    public void setDataSource(
+                    final DataSource dataSource
+                    )
+    {
+        _dataSource = dataSource;
+    }
+
+
+    public DataSource getDataSource()
+    {
+        return _dataSource;
+    }
+
+
+
+    /**
+     * Sets the name of the sequence, typically the object type name.
+     */
+    public void setSequenceName(
+                    final String sequenceName
+                    )
+    {
+        _sequenceName = sequenceName;
+    }
+
+
+    public String getSequenceName()
+    {
+        return _sequenceName;
+    }
+
+
+
+    /**
+     */
+    public void setTable(
+                    final String table
+                    )
+    {
+        _table = table;
+    }
+
+
+    public void setNameColumn(
+                    final String column
+                    )
+    {
+        _nameColumn = column;
+    }
+
+
+    public void setHiColumn(
+                    final String column
+                    )
+    {
+        _hiColumn = column;
+    }
+
+
+
+    /**
+     * Sets the hi value of a sequence used for the first time.
+     * The default is 0, i.e. the IDs start from 1.
+     */
+    public void setInitialHi(
+                    final long hi
+                    )
+    {
+        if (hi < 0L) {
+            throw new IllegalArgumentException( "invalid initial hi: " + hi );
+        }
+
+        _initialHi = hi;
+    }
+
+
+    public long getInitialHi()
+    {
+        return _initialHi;
+    }
+
+
+
+    /**
+     * Sets the table and the ID column of the existing objects.
+     * When the sequence is used for the first time,
+     * the hi value is started above the maximum existing ID.
+     */
+    public void setSeedTable(
+                    final String table
+                    )
+    {
+        _seedTable = table;
+    }
+
+
+    public void setSeedColumn(
+                    final String column
+                    )
+    {
+        _seedColumn = column;
+    }
+
+
+
+    //**************************************************************
+    //  BlockSource
+    //**************************************************************
+
+    public long nextBlock(
+                    final int blockSize
+                    )
+    {
+        if (_dataSource == null  ||  _sequenceName == null) {
+            throw new PersistenceException( "data source or sequence name not configured" );
+        }
+
+        Connection  conn = null;
+        boolean  autoCommit = true;
+        try {
+            conn = _dataSource.getConnection();
+            autoCommit = conn.getAutoCommit();
+            conn.setAutoCommit( false );
+
+            long  hi = 0L;
+            try {
+                hi = _nextHi( conn, blockSize );
+            } catch (SQLException ex) {
+                if (!_isDuplicateKey( ex )) {
+                    throw ex;
+                }
+
+                //another process has inserted the row of the sequence
+                if (_LOG_.isDebugEnabled()) {
+                    _LOG_.debug( "hi/lo sequence inserted concurrently, retrying: "
+                                    + _sequenceName );
+                }
+                conn.rollback();
+                hi = _nextHi( conn, blockSize );
+            }
+            conn.commit();
+
+            if (_LOG_.isDebugEnabled()) {
+                _LOG_.debug( "hi/lo block reserved: sequence=" + _sequenceName
+                                + ", hi=" + hi + ", block size=" + blockSize );
+            }
+
+            return (hi * blockSize + 1L);
+        } catch (SQLException ex) {
+            _rollback( conn );
+            throw new PersistenceException( ex );
+        } finally {
+            _close( conn, autoCommit );
+        }
+    }
+
+
+
+    /**
+     * Increments the hi value and returns the previous one.
+     * If the row of the sequence does not exist,
+     * the initial hi value is returned and the row is inserted.
+     */
+    private long _nextHi(
+                    final Connection conn,
+                    final int blockSize
+                    )
+    throws SQLException
+    {
+        String  select = "SELECT " + _hiColumn + " FROM " + _table
+                        + " WHERE " + _nameColumn + " = ? FOR UPDATE";
+        String  update = "UPDATE " + _table + " SET " + _hiColumn + " = ?"
+                        + " WHERE " + _nameColumn + " = ?";
+        String  insert = "INSERT INTO " + _table
+                        + " (" + _nameColumn + ", " + _hiColumn + ") VALUES (?, ?)";
+
+        boolean  exists = false;
+        long  hi = 0L;
+        PreparedStatement  stmt = conn.prepareStatement( select );
+        try {
+            stmt.setString( 1, _sequenceName );
+            ResultSet  rs = stmt.executeQuery();
+            if (rs.next()) {
+                exists = true;
+                hi = rs.getLong( 1 );
+            }
+            rs.close();
+        } finally {
+            stmt.close();
+        }
+
+        if (!exists) {
+            hi = _initialHi( conn, blockSize );
+        }
+
+        stmt = conn.prepareStatement( exists ? update : insert );
+        try {
+            if (exists) {
+                stmt.setLong( 1, hi + 1L );
+                stmt.setString( 2, _sequenceName );
+            } else {
+                stmt.setString( 1, _sequenceName );
+                stmt.setLong( 2, hi + 1L );
+            }
+            stmt.executeUpdate();
+        } finally {
+            stmt.close();
+        }
+
+        return hi;
+    }
+
+
+
+    /**
+     * Returns the hi value of a new sequence,
+     * above the maximum ID in the seed table if configured.
+     */
+    private long _initialHi(
+                    final Connection conn,
+                    final int blockSize
+                    )
+    throws SQLException
+    {
+        long  hi = _initialHi;
+        if (_seedTable == null  ||  _seedColumn == null) {
+            return hi;
+        }
+
+        PreparedStatement  stmt = conn.prepareStatement(
+                        "SELECT MAX(" + _seedColumn + ") FROM " + _seedTable );
+        try {
+            ResultSet  rs = stmt.executeQuery();
+            if (rs.next()) {
+                long  max = rs.getLong( 1 );
+                if (!rs.wasNull()) {
+                    hi = Math.max( hi, max / blockSize + 1L );
+                }
+            }
+            rs.close();
+        } finally {
+            stmt.close();
+        }
+
+        return hi;
+    }
+
+
+
+    /**
+     * Tests whether the exception is an integrity constraint violation,
+     * i.e. SQLSTATE class 23, e.g. a duplicate key.
+     */
+    private static boolean _isDuplicateKey(
+                    final SQLException ex
+                    )
+    {
+        String  state = ex.getSQLState();
+        return (state != null  &&  state.startsWith( "23" ));
+    }
+
+
+
+    private static void _rollback(
+                    final Connection conn
+                    )
+    {
+        if (conn == null) {
+            return;
+        }
+
+        try {
+            conn.rollback();
+        } catch (SQLException ex) {
+            if (_LOG_.isWarnEnabled()) {
+                _LOG_.warn( "rollback failed: " + ex.getMessage() );
+            }
+        }
+    }
+
+
+
+    private static void _close(
+                    final Connection conn,
+                    final boolean autoCommit
+                    )
+    {
+        if (conn == null) {
+            return;
+        }
+
+        try {
+            conn.setAutoCommit( autoCommit );
+        } catch (SQLException ex) {
+            if (_LOG_.isWarnEnabled()) {
+                _LOG_.warn( "auto-commit not restored: " + ex.getMessage() );
+            }
+        }
+
+        try {
+            conn.close();
+        } catch (SQLException ex) {
+            if (_LOG_.isWarnEnabled()) {
+                _LOG_.warn( "close failed: " + ex.getMessage() );
+            }
+        }
+    }
+
+
+
+    //**************************************************************
+    //  java.lang.Object
+    //**************************************************************
+
+    @Override
+    public String toString()
+    {
+        return "JdbcHiLoBlockSource[table=" + _table
+                        + ", sequence=" + _sequenceName
+                        + "]";
+    }
+
+}
+// JdbcHiLoBlockSource
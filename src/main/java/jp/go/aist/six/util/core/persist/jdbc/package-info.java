@@ -0,0 +1,6 @@
+/**
+ * JDBC support of the persistence API.
+ */
+
+package jp.go.aist.six.util.core.persist.jdbc;
+
@@ -0,0 +1,880 @@
+/**
+ * SIX UTIL - https://staff.aist.go.jp/nakamura-akihito/six/util/
+ * Copyright (C) 2008
+ *   National Institute of Advanced Industrial Science and Technology (AIST)
+ *   Registration Number: H20PRO-863
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.go.aist.six.util.core.persist.memory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.Lock;
+import java.util.stream.Stream;
+import jp.go.aist.six.util.CloseableIterator;
+import jp.go.aist.six.util.persist.DataRetrievalException;
+import jp.go.aist.six.util.persist.Datastore;
+import jp.go.aist.six.util.persist.DuplicateObjectException;
+import jp.go.aist.six.util.persist.FetchPlan;
+import jp.go.aist.six.util.persist.IdentityAllocator;
+import jp.go.aist.six.util.persist.Persistable;
+import jp.go.aist.six.util.persist.PersistenceException;
+import jp.go.aist.six.util.search.Aggregation;
+import jp.go.aist.six.util.search.Binding;
+import jp.go.aist.six.util.search.Function;
+import jp.go.aist.six.util.search.Limit;
+import jp.go.aist.six.util.search.Order;
+import jp.go.aist.six.util.search.Projection;
+import jp.go.aist.six.util.search.PropertyProjection;
+import jp.go.aist.six.util.search.SearchCriteria;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+
+/**
+ * A Datastore that holds the objects in memory.
+ * It is intended for tests, benchmarking,
+ * and in-process replicas of small reference tables.
+ * The SearchCriteria, Binding, Order, and Limit are evaluated natively
+ * on the property values obtained by the getters.
+ *
+ * <p>Each type may have secondary indexes on the declared properties:
+ * a hash index answers the EQUAL, IN, and IS NULL bindings,
+ * and a sorted index also answers the range bindings.
+ * A unique index rejects the duplicate values,
+ * and identifies the correspondent object in sync().
+ * </p>
+ *
+ * <p>The objects are stored by reference, not copied.
+ * After modifying a stored object, the application must call update()
+ * so that the indexes are maintained.
+ * A new object with no persistent ID is given one by the IdentityAllocator
+ * of its type; without an allocator, the ID must be set in advance.
+ * The FetchPlan has no effect since the objects are always complete.
+ * </p>
+ *
+ * @author  Akihito Nakamura, AIST
+ * @version $Id$
+ */
+public class MemoryDatastore
+    implements Datastore
+{
+
+    /**
+     * Logger.
+     */
+    private static final Logger  _LOG_ =
+        LoggerFactory.getLogger( MemoryDatastore.class );
+
+
+    public static final int  DEFAULT_STRIPES = 16;
+
+
+
+    private final int  _stripes;
+
+    private final ConcurrentMap<Class<?>, MemoryTable<?, ?>>  _tables =
+        new ConcurrentHashMap<Class<?>, MemoryTable<?, ?>>();
+
+    private final ConcurrentMap<Class<?>, IdentityAllocator<?>>  _identityAllocators =
+        new ConcurrentHashMap<Class<?>, IdentityAllocator<?>>();
+
+
+
+    /**
+     * Constructor.
+     */
+    public MemoryDatastore()
+    {
+        this( DEFAULT_STRIPES );
+    }
+
+
+    /**
+     * Constructor.
+     *
+     * @param   stripes
+     *  the number of the locks of each type.
+     */
+    public MemoryDatastore(
+                    final int stripes
+                    )
+    {
+        if (stripes < 1) {
+            throw new IllegalArgumentException( "invalid stripes: " + stripes );
+        }
+
+        _stripes = stripes;
+    }
+
+
+
+    /**
+     * Declares a hash index on the property of the type.
+     * The index is built from the objects already stored.
+     *
+     * @param   type
+     *  the object type.
+     * @param   property
+     *  the property name, or a path of the property names separated by dots.
+     */
+    public void declareIndex(
+                    final Class<? extends Persistable<?>> type,
+                    final String property
+                    )
+    {
+        _getTable( type ).declareIndex( property, false, false );
+    }
+
+
+
+    /**
+     * Declares a sorted index on the property of the type,
+     * which also answers the range bindings.
+     */
+    public void declareSortedIndex(
+                    final Class<? extends Persistable<?>> type,
+                    final String property
+                    )
+    {
+        _getTable( type ).declareIndex( property, true, false );
+    }
+
+
+
+    /**
+     * Declares a unique hash index on the property of the type.
+     * The null values are not checked for uniqueness.
+     *
+     * @throws  DuplicateObjectException
+     *  if the objects already stored have duplicate values.
+     */
+    public void declareUniqueIndex(
+                    final Class<? extends Persistable<?>> type,
+                    final String property
+                    )
+    {
+        _getTable( type ).declareIndex( property, false, true );
+    }
+
+
+
+    /**
+     * Sets the allocator of the persistent IDs of the new objects of the type.
+     */
+    public void setIdentityAllocator(
+                    final Class<? extends Persistable<?>> type,
+                    final IdentityAllocator<?> allocator
+                    )
+    {
+        if (allocator == null) {
+            _identityAllocators.remove( type );
+        } else {
+            _identityAllocators.put( type, allocator );
+        }
+    }
+
+
+
+    /**
+     * Removes all the objects of all the types.
+     * The declared indexes remain.
+     */
+    public void clear()
+    {
+        for (MemoryTable<?, ?>  table : _tables.values()) {
+            table.writeLockAll();
+            try {
+                table.clear();
+            } finally {
+                table.writeUnlockAll();
+            }
+        }
+    }
+
+
+
+    /**
+     */
+    @SuppressWarnings( "unchecked" )
+    private <K, T extends Persistable<K>> MemoryTable<K, T> _getTable(
+                    final Class<?> type
+                    )
+    {
+        if (type == null) {
+            throw new IllegalArgumentException( "null type" );
+        }
+
+        MemoryTable<?, ?>  table = _tables.get( type );
+        if (table == null) {
+            MemoryTable<?, ?>  new_table =
+                new MemoryTable<K, T>( (Class<T>)type, _stripes );
+            table = _tables.putIfAbsent( type, new_table );
+            if (table == null) {
+                table = new_table;
+            }
+        }
+
+        return (MemoryTable<K, T>)table;
+    }
+
+
+
+    /**
+     * Selects, sorts, and limits the objects.
+     */
+    private <K, T extends Persistable<K>> List<T> _query(
+                    final MemoryTable<K, T> table,
+                    final Binding filter,
+                    final List<? extends Order> ordering,
+                    final Limit limit
+                    )
+    {
+        List<T>  objects = null;
+        table.readLockAll();
+        try {
+            objects = table.select( filter );
+        } finally {
+            table.readUnlockAll();
+        }
+
+        List<? extends Order>  orders = ordering;
+        Object[]  after = (limit == null ? null : limit.getAfter());
+        if (after != null  &&  (orders == null  ||  orders.size() == 0)) {
+            orders = Collections.singletonList( new Order( "persistentID" ) );
+        }
+
+        objects = MemoryEvaluator.sort( objects, orders );
+        if (after != null) {
+            objects = MemoryEvaluator.seek( objects, orders, after );
+        }
+
+        return _applyLimit( objects, limit );
+    }
+
+
+
+    /**
+     * Applies the offset and count of the limit.
+     */
+    private static <E> List<E> _applyLimit(
+                    final List<E> elements,
+                    final Limit limit
+                    )
+    {
+        if (limit == null) {
+            return elements;
+        }
+
+        int  size = elements.size();
+        int  from = Math.min( limit.getOffset(), size );
+        int  to = (limit.getCount() < 0 ? size : Math.min( from + limit.getCount(), size ));
+
+        return new ArrayList<E>( elements.subList( from, to ) );
+    }
+
+
+
+    /**
+     * Evaluates the projections of the criteria.
+     * The aggregations yield a single row;
+     * mixing them with the property projections, i.e. grouping,
+     * is not supported.
+     */
+    private <K, T extends Persistable<K>> List<Object[]> _project(
+                    final MemoryTable<K, T> table,
+                    final SearchCriteria criteria
+                    )
+    {
+        List<Projection>  projections = criteria.getProjections();
+        boolean  aggregate = false;
+        for (Projection  p : projections) {
+            aggregate |= (p instanceof Aggregation);
+        }
+
+        if (aggregate) {
+            List<T>  objects = _query( table, criteria.getBinding(), null, null );
+            Object[]  row = new Object[projections.size()];
+            for (int  i = 0; i < row.length; i++) {
+                Projection  p = projections.get( i );
+                if (!(p instanceof Aggregation)) {
+                    throw new IllegalArgumentException(
+                                    "aggregation with property projection not supported: "
+                                    + projections );
+                }
+                row[i] = _aggregate( (Aggregation)p, objects );
+            }
+
+            List<Object[]>  rows = new ArrayList<Object[]>();
+            rows.add( row );
+            return _applyLimit( rows, criteria.getLimit() );
+        }
+
+        List<T>  objects = _query( table, criteria.getBinding(), criteria.getOrders(), null );
+        List<Object[]>  rows = new ArrayList<Object[]>( objects.size() );
+        Set<List<Object>>  distinct = (criteria.isDistinct() ? new HashSet<List<Object>>() : null);
+        for (T  object : objects) {
+            Object[]  row = new Object[projections.size()];
+            for (int  i = 0; i < row.length; i++) {
+                Projection  p = projections.get( i );
+                if (!(p instanceof PropertyProjection)) {
+                    throw new IllegalArgumentException( "unsupported Projection: " + p );
+                }
+                String  property = ((PropertyProjection)p).getProperty();
+                row[i] = (PropertyProjection.ALL_PROJECTION.getProperty().equals( property )
+                                ? object : MemoryEvaluator.getProperty( object, property ));
+            }
+
+            if (distinct == null  ||  distinct.add( Arrays.asList( row ) )) {
+                rows.add( row );
+            }
+        }
+
+        return _applyLimit( rows, criteria.getLimit() );
+    }
+
+
+
+    /**
+     */
+    private static Object _aggregate(
+                    final Aggregation aggregation,
+                    final List<?> objects
+                    )
+    {
+        String  expression = aggregation.getExpression();
+        boolean  whole = (expression == null
+                        ||  Aggregation.WHOLE_OBJECT_EXPRESSION.equals( expression ));
+
+        List<Object>  values = new ArrayList<Object>( objects.size() );
+        for (Object  object : objects) {
+            Object  value = (whole ? object : MemoryEvaluator.getProperty( object, expression ));
+            if (value != null) {
+                values.add( value );
+            }
+        }
+
+        switch (aggregation.getFunction()) {
+            case COUNT:
+                return Integer.valueOf( values.size() );
+            case MAX:
+            case MIN:
+                Object  m = null;
+                for (Object  v : values) {
+                    if (m == null) {
+                        m = v;
+                        continue;
+                    }
+
+                    int  c = MemoryEvaluator.compareValues( v, m );
+                    if (aggregation.getFunction() == Function.MAX
+                                    ? c > 0 : c < 0) {
+                        m = v;
+                    }
+                }
+                return m;
+            case SUM:
+            case AVG:
+                if (values.size() == 0) {
+                    return null;
+                }
+                boolean  integral = true;
+                long  lsum = 0L;
+                double  dsum = 0.0;
+                for (Object  v : values) {
+                    Object  n = MemoryEvaluator.normalize( v );
+                    if (!(n instanceof Number)) {
+                        throw new IllegalArgumentException( "not a number: " + expression );
+                    }
+                    integral &= (n instanceof Long);
+                    lsum += ((Number)n).longValue();
+                    dsum += ((Number)n).doubleValue();
+                }
+                if (aggregation.getFunction() == Function.AVG) {
+                    return Double.valueOf( dsum / values.size() );
+                }
+                return (integral ? (Object)Long.valueOf( lsum ) : Double.valueOf( dsum ));
+            default:
+                throw new IllegalArgumentException( "unsupported function: "
+                                + aggregation.getFunction() );
+        }
+    }
+
+
+
+    //**************************************************************
+    //  Datastore
+    //**************************************************************
+
+    public <K, T extends Persistable<K>>
+    K create(
+                    final Class<T> type,
+                    final T object
+                    )
+    {
+        MemoryTable<K, T>  table = _getTable( type );
+        K  id = object.getPersistentID();
+        if (id == null) {
+            @SuppressWarnings( "unchecked" )
+            IdentityAllocator<? extends K>  allocator =
+                (IdentityAllocator<? extends K>)_identityAllocators.get( type );
+            if (allocator == null) {
+                throw new PersistenceException( "no persistent ID: type=" + type.getName() );
+            }
+            id = allocator.allocate();
+            object.setPersistentID( id );
+        }
+
+        Lock  lock = table.lockOf( id ).writeLock();
+        lock.lock();
+        try {
+            if (table.get( id ) != null) {
+                throw new DuplicateObjectException( "duplicate persistent ID: type="
+                                + type.getName() + ", ID=" + id );
+            }
+            table.put( id, object );
+        } finally {
+            lock.unlock();
+        }
+
+        if (_LOG_.isTraceEnabled()) {
+            _LOG_.trace( "created: type=" + type.getName() + ", ID=" + id );
+        }
+
+        return id;
+    }
+
+
+
+    public <K, T extends Persistable<K>>
+    void update(
+                    final Class<T> type,
+                    final T object
+                    )
+    {
+        MemoryTable<K, T>  table = _getTable( type );
+        K  id = object.getPersistentID();
+        if (id == null) {
+            throw new PersistenceException( "no persistent ID: type=" + type.getName() );
+        }
+
+        Lock  lock = table.lockOf( id ).writeLock();
+        lock.lock();
+        try {
+            if (table.get( id ) == null) {
+                throw new DataRetrievalException( "object not found: type="
+                                + type.getName() + ", ID=" + id );
+            }
+            table.put( id, object );
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+
+    public <K, T extends Persistable<K>>
+    void remove(
+                    final Class<T> type,
+                    final T object
+                    )
+    {
+        MemoryTable<K, T>  table = _getTable( type );
+        K  id = object.getPersistentID();
+        if (id == null) {
+            return;
+        }
+
+        Lock  lock = table.lockOf( id ).writeLock();
+        lock.lock();
+        try {
+            table.delete( id );
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+
+    public <K, T extends Persistable<K>>
+    int removeAll(
+                    final Class<T> type,
+                    final Binding filter
+                    )
+    {
+        MemoryTable<K, T>  table = _getTable( type );
+        table.writeLockAll();
+        try {
+            List<T>  objects = table.select( filter );
+            for (T  object : objects) {
+                table.delete( object.getPersistentID() );
+            }
+            return objects.size();
+        } finally {
+            table.writeUnlockAll();
+        }
+    }
+
+
+
+    public <K, T extends Persistable<K>>
+    T sync(
+                    final Class<T> type,
+                    final T object
+                    )
+    {
+        MemoryTable<K, T>  table = _getTable( type );
+        K  id = object.getPersistentID();
+        if (id == null  ||  table.get( id ) == null) {
+            K  correspondent = table.findByUnique( object );
+            if (correspondent != null) {
+                id = correspondent;
+            }
+        }
+
+        if (id == null) {
+            create( type, object );
+            return object;
+        }
+
+        object.setPersistentID( id );
+        Lock  lock = table.lockOf( id ).writeLock();
+        lock.lock();
+        try {
+            table.put( id, object );
+        } finally {
+            lock.unlock();
+        }
+
+        return object;
+    }
+
+
+
+    public <K, T extends Persistable<K>>
+    List<T> syncAll(
+                    final Class<T> type,
+                    final List<? extends T> objects
+                    )
+    {
+        List<T>  p_objects = new ArrayList<T>( objects.size() );
+        for (T  object : objects) {
+            p_objects.add( sync( type, object ) );
+        }
+
+        return p_objects;
+    }
+
+
+
+    public <K, T extends Persistable<K>>
+    int count(
+                    final Class<T> type
+                    )
+    {
+        MemoryTable<K, T>  table = _getTable( type );
+        return table.size();
+    }
+
+
+
+    public <K, T extends Persistable<K>>
+    int count(
+                    final Class<T> type,
+                    final Binding filter
+                    )
+    {
+        MemoryTable<K, T>  table = _getTable( type );
+        return _query( table, filter, null, null ).size();
+    }
+
+
+
+    public <K, T extends Persistable<K>>
+    T load(
+                    final Class<T> type,
+                    final K id
+                    )
+    {
+        MemoryTable<K, T>  table = _getTable( type );
+        Lock  lock = table.lockOf( id ).readLock();
+        lock.lock();
+        try {
+            return table.get( id );
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+
+    public <K, T extends Persistable<K>>
+    T load(
+                    final Class<T> type,
+                    final K id,
+                    final FetchPlan plan
+                    )
+    {
+        return load( type, id );
+    }
+
+
+
+    public <K, T extends Persistable<K>>
+    Optional<T> loadOptional(
+                    final Class<T> type,
+                    final K id
+                    )
+    {
+        return Optional.ofNullable( load( type, id ) );
+    }
+
+
+
+    public <K, T extends Persistable<K>>
+    List<T> loadAll(
+                    final Class<T> type,
+                    final List<? extends K> ids
+                    )
+    {
+        List<T>  objects = new ArrayList<T>( ids.size() );
+        for (K  id : ids) {
+            T  object = load( type, id );
+            objects.add( object );
+        }
+
+        return objects;
+    }
+
+
+
+    public <K, T extends Persistable<K>>
+    Collection<T> find(
+                    final Class<T> type
+                    )
+    {
+        return find( type, null, null, null );
+    }
+
+
+
+    public <K, T extends Persistable<K>>
+    Collection<T> find(
+                    final Class<T> type,
+                    final Binding filter
+                    )
+    {
+        return find( type, filter, null, null );
+    }
+
+
+
+    public <K, T extends Persistable<K>>
+    Collection<T> find(
+                    final Class<T> type,
+                    final Binding filter,
+                    final List<? extends Order> ordering,
+                    final Limit limit
+                    )
+    {
+        MemoryTable<K, T>  table = _getTable( type );
+        return _query( table, filter, ordering, limit );
+    }
+
+
+
+    public <K, T extends Persistable<K>>
+    Collection<T> find(
+                    final Class<T> type,
+                    final Binding filter,
+                    final List<? extends Order> ordering,
+                    final Limit limit,
+                    final FetchPlan plan
+                    )
+    {
+        return find( type, filter, ordering, limit );
+    }
+
+
+
+    /**
+     * The objects are selected when the iterator is created,
+     * so the iterator holds no locks.
+     */
+    public <K, T extends Persistable<K>>
+    CloseableIterator<T> iterate(
+                    final Class<T> type,
+                    final Binding filter,
+                    final List<? extends Order> ordering
+                    )
+    {
+        MemoryTable<K, T>  table = _getTable( type );
+        final Iterator<T>  itr = _query( table, filter, ordering, null ).iterator();
+
+        return new CloseableIterator<T>()
+        {
+            private boolean  _closed = false;
+
+            public boolean hasNext()
+            {
+                return (!_closed  &&  itr.hasNext());
+            }
+
+            public T next()
+            {
+                if (_closed) {
+                    throw new NoSuchElementException( "iterator closed" );
+                }
+                return itr.next();
+            }
+
+            public void remove()
+            {
+                throw new UnsupportedOperationException();
+            }
+
+            public void close()
+            {
+                _closed = true;
+            }
+        };
+    }
+
+
+
+    public <K, T extends Persistable<K>>
+    Stream<T> stream(
+                    final Class<T> type,
+                    final Binding filter,
+                    final List<? extends Order> ordering
+                    )
+    {
+        CloseableIterator<T>  itr = iterate( type, filter, ordering );
+        return CloseableIterator.stream( itr );
+    }
+
+
+
+    public <K, T extends Persistable<K>>
+    Collection<K> findIdentity(
+                    final Class<T> type
+                    )
+    {
+        return findIdentity( type, null, null, null );
+    }
+
+
+
+    public <K, T extends Persistable<K>>
+    Collection<K> findIdentity(
+                    final Class<T> type,
+                    final Binding filter
+                    )
+    {
+        return findIdentity( type, filter, null, null );
+    }
+
+
+
+    public <K, T extends Persistable<K>>
+    Collection<K> findIdentity(
+                    final Class<T> type,
+                    final Binding filter,
+                    final List<? extends Order> ordering,
+                    final Limit limit
+                    )
+    {
+        MemoryTable<K, T>  table = _getTable( type );
+        List<T>  objects = _query( table, filter, ordering, limit );
+        List<K>  ids = new ArrayList<K>( objects.size() );
+        for (T  object : objects) {
+            ids.add( object.getPersistentID() );
+        }
+
+        return ids;
+    }
+
+
+
+    public <K, T extends Persistable<K>>
+    List<Object> search(
+                    final Class<T> type,
+                    final SearchCriteria criteria
+                    )
+    {
+        MemoryTable<K, T>  table = _getTable( type );
+        if (criteria.getProjections().size() == 0) {
+            List<T>  objects = _query( table, criteria.getBinding(),
+                            criteria.getOrders(), criteria.getLimit() );
+            return new ArrayList<Object>( objects );
+        }
+
+        List<Object[]>  rows = _project( table, criteria );
+        List<Object>  results = new ArrayList<Object>( rows.size() );
+        for (Object[]  row : rows) {
+            results.add( row.length == 1 ? row[0] : row );
+        }
+
+        return results;
+    }
+
+
+
+    public <K, T extends Persistable<K>>
+    List<Object[]> searchRows(
+                    final Class<T> type,
+                    final SearchCriteria criteria
+                    )
+    {
+        MemoryTable<K, T>  table = _getTable( type );
+        if (criteria.getProjections().size() == 0) {
+            List<T>  objects = _query( table, criteria.getBinding(),
+                            criteria.getOrders(), criteria.getLimit() );
+            List<Object[]>  rows = new ArrayList<Object[]>( objects.size() );
+            for (T  object : objects) {
+                rows.add( new Object[] { object } );
+            }
+            return rows;
+        }
+
+        return _project( table, criteria );
+    }
+
+
+
+    //**************************************************************
+    //  java.lang.Object
+    //**************************************************************
+
+    @Override
+    public String toString()
+    {
+        return "MemoryDatastore[types=" + _tables.keySet()
+                        + ", stripes=" + _stripes
+                        + "]";
+    }
+
+}
+//
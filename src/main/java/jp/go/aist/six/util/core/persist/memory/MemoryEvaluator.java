@@ -0,0 +1,467 @@
+/**
+ * SIX UTIL - https://staff.aist.go.jp/nakamura-akihito/six/util/
+ * Copyright (C) 2008
+ *   National Institute of Advanced Industrial Science and Technology (AIST)
+ *   Registration Number: H20PRO-863
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.go.aist.six.util.core.persist.memory;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+import jp.go.aist.six.util.BeansUtil;
+import jp.go.aist.six.util.search.AndBinding;
+import jp.go.aist.six.util.search.Binding;
+import jp.go.aist.six.util.search.InBinding;
+import jp.go.aist.six.util.search.LikeBinding;
+import jp.go.aist.six.util.search.NotBinding;
+import jp.go.aist.six.util.search.NullBinding;
+import jp.go.aist.six.util.search.OrBinding;
+import jp.go.aist.six.util.search.Order;
+import jp.go.aist.six.util.search.RelationalBinding;
+import jp.go.aist.six.util.search.TextMatchBinding;
+
+
+
+/**
+ * Evaluates the search model, i.e. Binding and Order,
+ * against the objects in memory.
+ *
+ * <p>The property values are compared after normalization:
+ * the integral numbers are compared as long values,
+ * the other numbers as double values,
+ * and the enum constants as their names.
+ * So, for example, an Integer property matches a Long value.
+ * A null value is smaller than any other value in ordering,
+ * and never matches a relational, LIKE, or text binding,
+ * as in SQL.
+ * </p>
+ *
+ * @author  Akihito Nakamura, AIST
+ * @version $Id$
+ */
+final class MemoryEvaluator
+{
+
+    /**
+     * The compiled LIKE patterns.
+     */
+    private static final Map<String, Pattern>  _PATTERNS_ =
+        new ConcurrentHashMap<String, Pattern>();
+
+    private static final int  _MAX_PATTERNS_ = 1024;
+
+
+
+    /**
+     * The order of the normalized property values, null first.
+     */
+    static final Comparator<Object>  VALUE_ORDER = new Comparator<Object>()
+    {
+        public int compare(
+                        final Object o1,
+                        final Object o2
+                        )
+        {
+            return compareValues( o1, o2 );
+        }
+    };
+
+
+
+    /**
+     * Constructor.
+     */
+    private MemoryEvaluator()
+    {
+    }
+
+
+
+    /**
+     * Returns the property value of the object.
+     * The property may be a path of the properties separated by dots,
+     * e.g. "generator.timestamp".
+     */
+    static Object getProperty(
+                    final Object object,
+                    final String property
+                    )
+    {
+        Object  value = object;
+        int  from = 0;
+        while (value != null) {
+            int  to = property.indexOf( '.', from );
+            if (to < 0) {
+                return BeansUtil.getProperty( value, property.substring( from ) );
+            }
+
+            value = BeansUtil.getProperty( value, property.substring( from, to ) );
+            from = to + 1;
+        }
+
+        return null;
+    }
+
+
+
+    /**
+     * Normalizes the value for comparison and hashing.
+     */
+    static Object normalize(
+                    final Object value
+                    )
+    {
+        if (value instanceof Integer  ||  value instanceof Long
+                        ||  value instanceof Short  ||  value instanceof Byte) {
+            return Long.valueOf( ((Number)value).longValue() );
+        } else if (value instanceof BigInteger) {
+            BigInteger  i = (BigInteger)value;
+            return (i.bitLength() < 64 ? (Object)Long.valueOf( i.longValue() ) : value);
+        } else if (value instanceof Double  ||  value instanceof Float
+                        ||  value instanceof BigDecimal) {
+            double  d = ((Number)value).doubleValue();
+            if (d == Math.rint( d )  &&  Math.abs( d ) < 9.0E18) {
+                return Long.valueOf( (long)d );
+            }
+            return Double.valueOf( d );
+        } else if (value instanceof Enum) {
+            return ((Enum<?>)value).name();
+        } else if (value instanceof Character) {
+            return value.toString();
+        }
+
+        return value;
+    }
+
+
+
+    /**
+     * Compares the two values, null first.
+     */
+    @SuppressWarnings( { "unchecked", "rawtypes" } )
+    static int compareValues(
+                    final Object value1,
+                    final Object value2
+                    )
+    {
+        if (value1 == value2) {
+            return 0;
+        } else if (value1 == null) {
+            return -1;
+        } else if (value2 == null) {
+            return 1;
+        }
+
+        Object  v1 = normalize( value1 );
+        Object  v2 = normalize( value2 );
+        if (v1 instanceof Number  &&  v2 instanceof Number) {
+            if (v1 instanceof Long  &&  v2 instanceof Long) {
+                return ((Long)v1).compareTo( (Long)v2 );
+            }
+            return Double.compare( ((Number)v1).doubleValue(), ((Number)v2).doubleValue() );
+        }
+
+        if (v1 instanceof Comparable) {
+            if (v1.getClass().isInstance( v2 )) {
+                return ((Comparable)v1).compareTo( v2 );
+            } else if (v2.getClass().isInstance( v1 )) {
+                return -((Comparable)v2).compareTo( v1 );
+            }
+        }
+
+        return v1.toString().compareTo( v2.toString() );
+    }
+
+
+
+    //**************************************************************
+    //  Binding
+    //**************************************************************
+
+    /**
+     * Tests whether the object satisfies the binding.
+     * The null binding matches any object.
+     *
+     * @throws  IllegalArgumentException
+     *  if the binding is not supported.
+     */
+    static boolean matches(
+                    final Binding binding,
+                    final Object object
+                    )
+    {
+        if (binding == null) {
+            return true;
+        }
+
+        if (binding instanceof RelationalBinding) {
+            RelationalBinding  b = (RelationalBinding)binding;
+            Object  value = getProperty( object, b.getProperty() );
+            if (value == null  ||  b.getValue() == null) {
+                return false;
+            }
+
+            int  c = compareValues( value, b.getValue() );
+            switch (b.getRelation()) {
+                case EQUAL:
+                    return (c == 0);
+                case NOT_EQUAL:
+                    return (c != 0);
+                case LESS_THAN:
+                    return (c < 0);
+                case LESS_EQUAL:
+                    return (c <= 0);
+                case GREATER_THAN:
+                    return (c > 0);
+                case GREATER_EQUAL:
+                    return (c >= 0);
+                default:
+                    throw new IllegalArgumentException( "unsupported relation: "
+                                    + b.getRelation() );
+            }
+
+        } else if (binding instanceof InBinding) {
+            InBinding  b = (InBinding)binding;
+            Object  value = getProperty( object, b.getProperty() );
+            if (value == null) {
+                return b.isNullContained();
+            }
+            for (Object  v : b.getValues()) {
+                if (v != null  &&  compareValues( value, v ) == 0) {
+                    return true;
+                }
+            }
+            return false;
+
+        } else if (binding instanceof LikeBinding) {
+            LikeBinding  b = (LikeBinding)binding;
+            Object  value = getProperty( object, b.getProperty() );
+            return (value != null
+                            &&  likePattern( b.getPattern() ).matcher( value.toString() ).matches());
+
+        } else if (binding instanceof TextMatchBinding) {
+            TextMatchBinding  b = (TextMatchBinding)binding;
+            if (b.getText().size() == 0) {
+                throw new IllegalArgumentException( "no text in TextMatchBinding" );
+            }
+            Object  value = getProperty( object, b.getProperty() );
+            if (value == null) {
+                return false;
+            }
+            String  s = value.toString();
+            for (String  w : b.getText()) {
+                boolean  found = s.contains( w );
+                if (found != b.isMatchAll()) {
+                    return found;
+                }
+            }
+            return b.isMatchAll();
+
+        } else if (binding instanceof NullBinding) {
+            NullBinding  b = (NullBinding)binding;
+            Object  value = getProperty( object, b.getProperty() );
+            return ((value == null) != b.isNotNull());
+
+        } else if (binding instanceof AndBinding) {
+            for (Binding  e : ((AndBinding)binding).getElements()) {
+                if (!matches( e, object )) {
+                    return false;
+                }
+            }
+            return true;
+
+        } else if (binding instanceof OrBinding) {
+            for (Binding  e : ((OrBinding)binding).getElements()) {
+                if (matches( e, object )) {
+                    return true;
+                }
+            }
+            return false;
+
+        } else if (binding instanceof NotBinding) {
+            return !matches( ((NotBinding)binding).getBindingToNegate(), object );
+        }
+
+        throw new IllegalArgumentException( "unsupported Binding: "
+                        + String.valueOf( binding ) );
+    }
+
+
+
+    /**
+     * Converts the SQL LIKE pattern, with % and _, to a regular expression.
+     */
+    static Pattern likePattern(
+                    final String like
+                    )
+    {
+        Pattern  pattern = _PATTERNS_.get( like );
+        if (pattern == null) {
+            StringBuilder  regex = new StringBuilder();
+            StringBuilder  literal = new StringBuilder();
+            for (int  i = 0; i < like.length(); i++) {
+                char  c = like.charAt( i );
+                if (c == '%'  ||  c == '_') {
+                    if (literal.length() > 0) {
+                        regex.append( Pattern.quote( literal.toString() ) );
+                        literal.setLength( 0 );
+                    }
+                    regex.append( c == '%' ? ".*" : "." );
+                } else {
+                    literal.append( c );
+                }
+            }
+            if (literal.length() > 0) {
+                regex.append( Pattern.quote( literal.toString() ) );
+            }
+
+            pattern = Pattern.compile( regex.toString(), Pattern.DOTALL );
+            if (_PATTERNS_.size() >= _MAX_PATTERNS_) {
+                _PATTERNS_.clear();
+            }
+            _PATTERNS_.put( like, pattern );
+        }
+
+        return pattern;
+    }
+
+
+
+    //**************************************************************
+    //  Order
+    //**************************************************************
+
+    /**
+     * Returns the ordering key of the object, i.e. its values of the ordered properties.
+     */
+    static Object[] orderingKey(
+                    final List<? extends Order> ordering,
+                    final Object object
+                    )
+    {
+        Object[]  key = new Object[ordering.size()];
+        for (int  i = 0; i < key.length; i++) {
+            key[i] = getProperty( object, ordering.get( i ).getProperty() );
+        }
+
+        return key;
+    }
+
+
+
+    /**
+     * Compares the two ordering keys.
+     */
+    static int compareKeys(
+                    final List<? extends Order> ordering,
+                    final Object[] key1,
+                    final Object[] key2
+                    )
+    {
+        for (int  i = 0; i < key1.length; i++) {
+            int  c = compareValues( key1[i], key2[i] );
+            if (c != 0) {
+                return (ordering.get( i ).isDescending() ? -c : c);
+            }
+        }
+
+        return 0;
+    }
+
+
+
+    /**
+     * Sorts the objects.
+     * The ordering keys are computed once per object.
+     */
+    static <T> List<T> sort(
+                    final List<T> objects,
+                    final List<? extends Order> ordering
+                    )
+    {
+        if (ordering == null  ||  ordering.size() == 0  ||  objects.size() < 2) {
+            return objects;
+        }
+
+        List<Object[]>  keyed = new ArrayList<Object[]>( objects.size() );
+        for (T  object : objects) {
+            keyed.add( new Object[] { orderingKey( ordering, object ), object } );
+        }
+
+        Collections.sort( keyed, new Comparator<Object[]>()
+        {
+            public int compare(
+                            final Object[] o1,
+                            final Object[] o2
+                            )
+            {
+                return compareKeys( ordering, (Object[])o1[0], (Object[])o2[0] );
+            }
+        });
+
+        List<T>  sorted = new ArrayList<T>( objects.size() );
+        for (Object[]  k : keyed) {
+            @SuppressWarnings( "unchecked" )
+            T  object = (T)k[1];
+            sorted.add( object );
+        }
+
+        return sorted;
+    }
+
+
+
+    /**
+     * Removes the objects at or before the ordering key of the last object
+     * of the previous page.
+     *
+     * @throws  IllegalArgumentException
+     *  if the key does not match the ordering, or contains null.
+     */
+    static <T> List<T> seek(
+                    final List<T> sortedObjects,
+                    final List<? extends Order> ordering,
+                    final Object[] after
+                    )
+    {
+        if (after.length != ordering.size()) {
+            throw new IllegalArgumentException( "seek key size mismatch: ordering="
+                            + ordering.size() + ", key=" + after.length );
+        }
+        for (Object  v : after) {
+            if (v == null) {
+                throw new IllegalArgumentException( "null seek key" );
+            }
+        }
+
+        List<T>  results = new ArrayList<T>();
+        for (T  object : sortedObjects) {
+            if (compareKeys( ordering, orderingKey( ordering, object ), after ) > 0) {
+                results.add( object );
+            }
+        }
+
+        return results;
+    }
+
+}
+//
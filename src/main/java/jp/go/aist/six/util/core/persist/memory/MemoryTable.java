@@ -0,0 +1,631 @@
+/**
+ * SIX UTIL - https://staff.aist.go.jp/nakamura-akihito/six/util/
+ * Copyright (C) 2008
+ *   National Institute of Advanced Industrial Science and Technology (AIST)
+ *   Registration Number: H20PRO-863
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.go.aist.six.util.core.persist.memory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import jp.go.aist.six.util.persist.DuplicateObjectException;
+import jp.go.aist.six.util.persist.Persistable;
+import jp.go.aist.six.util.search.AndBinding;
+import jp.go.aist.six.util.search.Binding;
+import jp.go.aist.six.util.search.InBinding;
+import jp.go.aist.six.util.search.NullBinding;
+import jp.go.aist.six.util.search.OrBinding;
+import jp.go.aist.six.util.search.RelationalBinding;
+
+
+
+/**
+ * The objects of one type, stored by their persistent IDs,
+ * with the secondary indexes on the declared properties.
+ *
+ * <p>The table is guarded by striped read/write locks.
+ * An operation on a single object locks the stripe of its ID,
+ * and a query read-locks all the stripes,
+ * so the queries and the point reads run in parallel
+ * and a query never sees a half-updated object and its indexes.
+ * </p>
+ *
+ * @author  Akihito Nakamura, AIST
+ * @version $Id$
+ */
+final class MemoryTable<K, T extends Persistable<K>>
+{
+
+    /**
+     * The index key of the null value.
+     * It is the smallest key in a sorted index.
+     */
+    private static final Object  _NULL_KEY_ = new Object()
+    {
+        @Override
+        public String toString()
+        {
+            return "NULL";
+        }
+    };
+
+
+
+    /**
+     * A secondary index on a property.
+     */
+    static final class PropertyIndex<K>
+    {
+        private final String  _property;
+        private final boolean  _sorted;
+        private final boolean  _unique;
+
+        private final ConcurrentMap<Object, Set<K>>  _entries;
+
+        /**
+         * The index key of each object, to find its entry on update or remove.
+         */
+        private final ConcurrentMap<K, Object>  _keyOf = new ConcurrentHashMap<K, Object>();
+
+
+        PropertyIndex(
+                        final String property,
+                        final boolean sorted,
+                        final boolean unique
+                        )
+        {
+            _property = property;
+            _sorted = sorted;
+            _unique = unique;
+
+            if (sorted) {
+                _entries = new ConcurrentSkipListMap<Object, Set<K>>( new Comparator<Object>()
+                {
+                    public int compare(
+                                    final Object o1,
+                                    final Object o2
+                                    )
+                    {
+                        if (o1 == _NULL_KEY_) {
+                            return (o2 == _NULL_KEY_ ? 0 : -1);
+                        } else if (o2 == _NULL_KEY_) {
+                            return 1;
+                        }
+                        return MemoryEvaluator.compareValues( o1, o2 );
+                    }
+                });
+            } else {
+                _entries = new ConcurrentHashMap<Object, Set<K>>();
+            }
+        }
+
+
+        String getProperty()
+        {
+            return _property;
+        }
+
+
+        boolean isSorted()
+        {
+            return _sorted;
+        }
+
+
+        boolean isUnique()
+        {
+            return _unique;
+        }
+
+
+        static Object indexKey(
+                        final Object value
+                        )
+        {
+            return (value == null ? _NULL_KEY_ : MemoryEvaluator.normalize( value ));
+        }
+
+
+        Object keyOf(
+                        final Object object
+                        )
+        {
+            return indexKey( MemoryEvaluator.getProperty( object, _property ) );
+        }
+
+
+        /**
+         * Returns the ID of another object that has the same value,
+         * or null if none.
+         */
+        K conflict(
+                        final K id,
+                        final Object key
+                        )
+        {
+            if (key == _NULL_KEY_) {
+                return null;
+            }
+
+            Set<K>  ids = _entries.get( key );
+            if (ids != null) {
+                for (K  other : ids) {
+                    if (!other.equals( id )) {
+                        return other;
+                    }
+                }
+            }
+
+            return null;
+        }
+
+
+        void add(
+                        final K id,
+                        final Object key
+                        )
+        {
+            Set<K>  ids = _entries.get( key );
+            if (ids == null) {
+                Set<K>  new_ids = Collections.newSetFromMap( new ConcurrentHashMap<K, Boolean>() );
+                ids = _entries.putIfAbsent( key, new_ids );
+                if (ids == null) {
+                    ids = new_ids;
+                }
+            }
+            ids.add( id );
+            _keyOf.put( id, key );
+        }
+
+
+        void remove(
+                        final K id
+                        )
+        {
+            Object  key = _keyOf.remove( id );
+            if (key != null) {
+                Set<K>  ids = _entries.get( key );
+                if (ids != null) {
+                    ids.remove( id );
+                    if (ids.isEmpty()) {
+                        _entries.remove( key, ids );
+                    }
+                }
+            }
+        }
+
+
+        void clear()
+        {
+            _entries.clear();
+            _keyOf.clear();
+        }
+
+
+        Collection<K> lookup(
+                        final Object value
+                        )
+        {
+            Set<K>  ids = _entries.get( indexKey( value ) );
+            return (ids == null ? Collections.<K>emptySet() : ids);
+        }
+
+
+        /**
+         * Returns the IDs in the range, excluding the null values.
+         * This is available only for a sorted index.
+         */
+        Collection<K> range(
+                        final RelationalBinding binding
+                        )
+        {
+            NavigableMap<Object, Set<K>>  map = (NavigableMap<Object, Set<K>>)_entries;
+            Object  key = indexKey( binding.getValue() );
+            NavigableMap<Object, Set<K>>  sub = null;
+            switch (binding.getRelation()) {
+                case LESS_THAN:
+                    sub = map.headMap( key, false ).tailMap( _NULL_KEY_, false );
+                    break;
+                case LESS_EQUAL:
+                    sub = map.headMap( key, true ).tailMap( _NULL_KEY_, false );
+                    break;
+                case GREATER_THAN:
+                    sub = map.tailMap( key, false );
+                    break;
+                case GREATER_EQUAL:
+                    sub = map.tailMap( key, true );
+                    break;
+                default:
+                    return null;
+            }
+
+            List<K>  ids = new ArrayList<K>();
+            for (Set<K>  s : sub.values()) {
+                ids.addAll( s );
+            }
+            return ids;
+        }
+    }
+    // PropertyIndex
+
+
+
+    private final Class<T>  _type;
+
+    private final ConcurrentMap<K, T>  _objects = new ConcurrentHashMap<K, T>();
+
+    private final ReadWriteLock[]  _locks;
+
+    private final ConcurrentMap<String, PropertyIndex<K>>  _indexes =
+        new ConcurrentHashMap<String, PropertyIndex<K>>();
+
+    /**
+     * Serializes the unique checks and the index updates across the stripes.
+     */
+    private final Object  _uniqueMonitor = new Object();
+
+
+
+    /**
+     * Constructor.
+     */
+    MemoryTable(
+                    final Class<T> type,
+                    final int stripes
+                    )
+    {
+        _type = type;
+        _locks = new ReadWriteLock[stripes];
+        for (int  i = 0; i < stripes; i++) {
+            _locks[i] = new ReentrantReadWriteLock();
+        }
+    }
+
+
+
+    Class<T> getType()
+    {
+        return _type;
+    }
+
+
+
+    //**************************************************************
+    //  locking
+    //**************************************************************
+
+    ReadWriteLock lockOf(
+                    final K id
+                    )
+    {
+        int  h = id.hashCode();
+        h ^= (h >>> 16);
+        return _locks[(h & 0x7fffffff) % _locks.length];
+    }
+
+
+
+    void readLockAll()
+    {
+        for (ReadWriteLock  lock : _locks) {
+            lock.readLock().lock();
+        }
+    }
+
+
+    void readUnlockAll()
+    {
+        for (int  i = _locks.length - 1; i >= 0; i--) {
+            _locks[i].readLock().unlock();
+        }
+    }
+
+
+
+    void writeLockAll()
+    {
+        for (ReadWriteLock  lock : _locks) {
+            lock.writeLock().lock();
+        }
+    }
+
+
+    void writeUnlockAll()
+    {
+        for (int  i = _locks.length - 1; i >= 0; i--) {
+            _locks[i].writeLock().unlock();
+        }
+    }
+
+
+
+    //**************************************************************
+    //  indexes
+    //**************************************************************
+
+    /**
+     * Declares an index, and builds it from the present objects.
+     */
+    void declareIndex(
+                    final String property,
+                    final boolean sorted,
+                    final boolean unique
+                    )
+    {
+        writeLockAll();
+        try {
+            PropertyIndex<K>  index = new PropertyIndex<K>( property, sorted, unique );
+            for (Map.Entry<K, T>  e : _objects.entrySet()) {
+                Object  key = index.keyOf( e.getValue() );
+                if (unique  &&  index.conflict( e.getKey(), key ) != null) {
+                    throw new DuplicateObjectException( "duplicate value: type="
+                                    + _type.getName() + ", property=" + property
+                                    + ", value=" + key );
+                }
+                index.add( e.getKey(), key );
+            }
+            _indexes.put( property, index );
+        } finally {
+            writeUnlockAll();
+        }
+    }
+
+
+
+    Collection<PropertyIndex<K>> getIndexes()
+    {
+        return _indexes.values();
+    }
+
+
+
+    //**************************************************************
+    //  objects
+    //**************************************************************
+
+    /**
+     * Stores the object, replacing the present one of the same ID.
+     * The caller holds the write lock of the stripe.
+     *
+     * @throws  DuplicateObjectException
+     *  if the object violates a unique index.
+     */
+    void put(
+                    final K id,
+                    final T object
+                    )
+    {
+        if (_indexes.isEmpty()) {
+            _objects.put( id, object );
+            return;
+        }
+
+        synchronized (_uniqueMonitor) {
+            List<Object>  keys = new ArrayList<Object>( _indexes.size() );
+            for (PropertyIndex<K>  index : _indexes.values()) {
+                Object  key = index.keyOf( object );
+                if (index.isUnique()  &&  index.conflict( id, key ) != null) {
+                    throw new DuplicateObjectException( "duplicate value: type="
+                                    + _type.getName() + ", property=" + index.getProperty()
+                                    + ", value=" + key );
+                }
+                keys.add( key );
+            }
+
+            _objects.put( id, object );
+            int  i = 0;
+            for (PropertyIndex<K>  index : _indexes.values()) {
+                index.remove( id );
+                index.add( id, keys.get( i++ ) );
+            }
+        }
+    }
+
+
+
+    /**
+     * Removes the object.
+     * The caller holds the write lock of the stripe.
+     */
+    T delete(
+                    final K id
+                    )
+    {
+        T  object = _objects.remove( id );
+        if (object != null  &&  !_indexes.isEmpty()) {
+            synchronized (_uniqueMonitor) {
+                for (PropertyIndex<K>  index : _indexes.values()) {
+                    index.remove( id );
+                }
+            }
+        }
+
+        return object;
+    }
+
+
+
+    /**
+     * Removes all the objects.
+     * The caller holds the write locks of all the stripes.
+     */
+    void clear()
+    {
+        _objects.clear();
+        for (PropertyIndex<K>  index : _indexes.values()) {
+            index.clear();
+        }
+    }
+
+
+
+    T get(
+                    final K id
+                    )
+    {
+        return _objects.get( id );
+    }
+
+
+
+    int size()
+    {
+        return _objects.size();
+    }
+
+
+
+    /**
+     * Finds the ID of the object that has the same value
+     * of a unique property as the specified object, or null if none.
+     */
+    K findByUnique(
+                    final T object
+                    )
+    {
+        for (PropertyIndex<K>  index : _indexes.values()) {
+            if (index.isUnique()) {
+                Object  value = MemoryEvaluator.getProperty( object, index.getProperty() );
+                if (value != null) {
+                    Collection<K>  ids = index.lookup( value );
+                    if (ids.size() > 0) {
+                        return ids.iterator().next();
+                    }
+                }
+            }
+        }
+
+        return null;
+    }
+
+
+
+    /**
+     * Selects the objects that satisfy the filter, in no particular order.
+     * The candidates are narrowed by the indexes when possible,
+     * and then tested by the whole filter.
+     * The caller holds the read locks of all the stripes.
+     */
+    List<T> select(
+                    final Binding filter
+                    )
+    {
+        Collection<K>  candidates = (filter == null ? null : _candidates( filter ));
+
+        List<T>  results = new ArrayList<T>();
+        if (candidates == null) {
+            for (T  object : _objects.values()) {
+                if (MemoryEvaluator.matches( filter, object )) {
+                    results.add( object );
+                }
+            }
+        } else {
+            for (K  id : candidates) {
+                T  object = _objects.get( id );
+                if (object != null  &&  MemoryEvaluator.matches( filter, object )) {
+                    results.add( object );
+                }
+            }
+        }
+
+        return results;
+    }
+
+
+
+    /**
+     * Returns the candidate IDs found by the indexes,
+     * or null if the binding cannot be answered by them.
+     */
+    private Collection<K> _candidates(
+                    final Binding binding
+                    )
+    {
+        if (binding instanceof RelationalBinding) {
+            RelationalBinding  b = (RelationalBinding)binding;
+            PropertyIndex<K>  index = _indexes.get( b.getProperty() );
+            if (index == null  ||  b.getValue() == null) {
+                return null;
+            }
+            switch (b.getRelation()) {
+                case EQUAL:
+                    return index.lookup( b.getValue() );
+                case NOT_EQUAL:
+                    return null;
+                default:
+                    return (index.isSorted() ? index.range( b ) : null);
+            }
+
+        } else if (binding instanceof InBinding) {
+            InBinding  b = (InBinding)binding;
+            PropertyIndex<K>  index = _indexes.get( b.getProperty() );
+            if (index == null) {
+                return null;
+            }
+            Set<K>  ids = new HashSet<K>();
+            for (Object  v : b.getValues()) {
+                if (v != null) {
+                    ids.addAll( index.lookup( v ) );
+                }
+            }
+            if (b.isNullContained()) {
+                ids.addAll( index.lookup( null ) );
+            }
+            return ids;
+
+        } else if (binding instanceof NullBinding) {
+            NullBinding  b = (NullBinding)binding;
+            PropertyIndex<K>  index = _indexes.get( b.getProperty() );
+            return (index == null  ||  b.isNotNull() ? null : index.lookup( null ));
+
+        } else if (binding instanceof AndBinding) {
+            Collection<K>  smallest = null;
+            for (Binding  e : ((AndBinding)binding).getElements()) {
+                Collection<K>  ids = _candidates( e );
+                if (ids != null  &&  (smallest == null  ||  ids.size() < smallest.size())) {
+                    smallest = ids;
+                }
+            }
+            return smallest;
+
+        } else if (binding instanceof OrBinding) {
+            Set<K>  union = new HashSet<K>();
+            for (Binding  e : ((OrBinding)binding).getElements()) {
+                Collection<K>  ids = _candidates( e );
+                if (ids == null) {
+                    return null;
+                }
+                union.addAll( ids );
+            }
+            return union;
+        }
+
+        return null;
+    }
+
+}
+//
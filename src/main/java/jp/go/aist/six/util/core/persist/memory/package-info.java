@@ -0,0 +1,5 @@
+/**
+ * An in-memory implementation of the persistence API.
+ */
+
+package jp.go.aist.six.util.core.persist.memory;
@@ -19,23 +19,55 @@
 package jp.go.aist.six.util.core.repository.morphia;
 
 import java.io.Serializable;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import com.mongodb.WriteConcern;
+import com.mongodb.WriteResult;
+import jp.go.aist.six.util.CloseableIterator;
+import jp.go.aist.six.util.metrics.DefaultMetricsRegistry;
+import jp.go.aist.six.util.metrics.MetricsRegistry;
+import jp.go.aist.six.util.repository.BulkWriteException;
 import jp.go.aist.six.util.repository.CommonQueryParams;
+import jp.go.aist.six.util.repository.CursorToken;
 import jp.go.aist.six.util.repository.Datastore;
 import jp.go.aist.six.util.repository.ObjectNotFoundException;
 import jp.go.aist.six.util.repository.ObjectTypeException;
 import jp.go.aist.six.util.repository.QueryException;
 import jp.go.aist.six.util.repository.QueryParams;
+import jp.go.aist.six.util.repository.QueryResultCache;
 import jp.go.aist.six.util.repository.RepositoryConfigurationException;
 import jp.go.aist.six.util.repository.RepositoryException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.mongodb.morphia.DatastoreImpl;
 import org.mongodb.morphia.Key;
+import org.mongodb.morphia.annotations.EntityListeners;
+import org.mongodb.morphia.annotations.PostPersist;
+import org.mongodb.morphia.annotations.PreSave;
+import org.mongodb.morphia.annotations.Version;
 import org.mongodb.morphia.dao.DAO;
+import org.mongodb.morphia.mapping.Mapper;
+import org.mongodb.morphia.mapping.cache.EntityCache;
+import org.mongodb.morphia.query.MorphiaIterator;
 import org.mongodb.morphia.query.Query;
 
 
@@ -56,6 +88,44 @@ public abstract class MorphiaMongoDatastore
     private static final Logger  _LOG_ = LoggerFactory.getLogger( MorphiaMongoDatastore.class );
 
 
+    public static final int  DEFAULT_BULK_BATCH_SIZE = 1000;
+    public static final int  DEFAULT_CURSOR_BATCH_SIZE = 100;
+
+
+    /**
+     * The operation names in the metrics.
+     */
+    public static final String  OP_FIND_BY_ID = "findById";
+    public static final String  OP_EXISTS = "exists";
+    public static final String  OP_FIND = "find";
+    public static final String  OP_ITERATE = "iterate";
+    public static final String  OP_STREAM = "stream";
+    public static final String  OP_FOR_EACH = "forEach";
+    public static final String  OP_FIND_ID = "findId";
+    public static final String  OP_COUNT = "count";
+    public static final String  OP_SAVE = "save";
+    public static final String  OP_SAVE_ALL = "saveAll";
+    public static final String  OP_DELETE_BY_ID = "deleteById";
+    public static final String  OP_DELETE = "delete";
+
+
+    /**
+     * The query parameters of paging, which are not allowed in delete.
+     */
+    private static final String[]  _PAGING_KEYS_ = new String[] {
+        CommonQueryParams.Key.COUNT,
+        CommonQueryParams.Key.START_INDEX,
+        CommonQueryParams.Key.START_PAGE,
+        CommonQueryParams.Key.AFTER
+    };
+
+
+    /**
+     * The suffix of a text index field in the index declarations.
+     */
+    private static final String  _TEXT_INDEX_SUFFIX_ = ":text";
+
+
 
     /**
      * Class - DAO
@@ -66,6 +136,45 @@ public abstract class MorphiaMongoDatastore
 
     private QueryBuilderFactory  _query_builder_factory;
 
+    /**
+     * Class - QueryBuilder.
+     * The builder of each type is reused, so that its query plans are cached.
+     */
+    private final ConcurrentMap<Class<?>, QueryBuilder>  _queryBuilders =
+        new ConcurrentHashMap<Class<?>, QueryBuilder>();
+
+    private boolean  _dropOnDelete = false;
+
+    /**
+     * Class - saved one by one in saveAll or not.
+     */
+    private final ConcurrentMap<Class<?>, Boolean>  _requiresSave =
+        new ConcurrentHashMap<Class<?>, Boolean>();
+
+    private int  _bulkBatchSize = DEFAULT_BULK_BATCH_SIZE;
+    private boolean  _bulkOrdered = true;
+
+    private int  _cursorBatchSize = DEFAULT_CURSOR_BATCH_SIZE;
+
+    private QueryResultCache  _resultCache;
+
+    private MetricsRegistry  _metrics = new DefaultMetricsRegistry();
+
+    private int  _logSampling = 0;
+    private final AtomicLong  _logSequence = new AtomicLong();
+
+    private boolean  _explainQueries = false;
+
+    /**
+     * Query shape (type and param keys) - collection scan or not
+     */
+    private final ConcurrentMap<String, Boolean>  _queryPlans = new ConcurrentHashMap<String, Boolean>();
+
+    /**
+     * Query shape - number of the collection scans
+     */
+    private final ConcurrentMap<String, AtomicLong>  _collectionScans = new ConcurrentHashMap<String, AtomicLong>();
+
 
 
     /**
@@ -121,6 +230,7 @@ public abstract class MorphiaMongoDatastore
                     )
     {
         _query_builder_factory = factory;
+        _queryBuilders.clear();
     }
 
 
@@ -135,6 +245,483 @@ public abstract class MorphiaMongoDatastore
 
 
 
+    /**
+     * Returns the query builder of the specified type.
+     * The builder is created by the QueryBuilderFactory only once,
+     * since the query plans are cached in each builder instance.
+     */
+    protected QueryBuilder _getQueryBuilder(
+                    final Class<?> type
+                    )
+    {
+        QueryBuilder  builder = _queryBuilders.get( type );
+        if (builder == null) {
+            builder = _getQueryBuilderFactory().newBuilder( type );
+            QueryBuilder  prev = _queryBuilders.putIfAbsent( type, builder );
+            if (prev != null) {
+                builder = prev;
+            }
+        }
+
+        return builder;
+    }
+
+
+
+    /**
+     * Sets whether delete(type) drops the collection and re-creates
+     * the indexes, instead of deleting the documents.
+     * Dropping is much faster for a large collection,
+     * but the indexes not declared in the mapping are lost.
+     * The default is false.
+     */
+    public void setDropOnDelete(
+                    final boolean drop
+                    )
+    {
+        _dropOnDelete = drop;
+    }
+
+
+    public boolean isDropOnDelete()
+    {
+        return _dropOnDelete;
+    }
+
+
+
+    /**
+     * Sets the number of the objects saved by a single call in saveAll.
+     * The default is 1000.
+     */
+    public void setBulkBatchSize(
+                    final int size
+                    )
+    {
+        if (size < 1) {
+            throw new IllegalArgumentException( "invalid batch size: " + size );
+        }
+
+        _bulkBatchSize = size;
+    }
+
+
+    public int getBulkBatchSize()
+    {
+        return _bulkBatchSize;
+    }
+
+
+
+    /**
+     * Sets whether saveAll stops at the first error.
+     * In the unordered mode, i.e. false,
+     * the rest of the objects are saved after an error,
+     * which gives the maximum throughput.
+     * The default is true.
+     */
+    public void setBulkOrdered(
+                    final boolean ordered
+                    )
+    {
+        _bulkOrdered = ordered;
+    }
+
+
+    public boolean isBulkOrdered()
+    {
+        return _bulkOrdered;
+    }
+
+
+
+    /**
+     * Sets the number of the documents fetched at a time
+     * by the cursor of iterate, stream, and forEach.
+     * The default is 100.
+     */
+    public void setCursorBatchSize(
+                    final int size
+                    )
+    {
+        if (size < 1) {
+            throw new IllegalArgumentException( "invalid batch size: " + size );
+        }
+
+        _cursorBatchSize = size;
+    }
+
+
+    public int getCursorBatchSize()
+    {
+        return _cursorBatchSize;
+    }
+
+
+
+    /**
+     * Sets the cache of the results of find and count,
+     * or null to disable it (the default).
+     * The results of a type are invalidated by save, saveAll,
+     * deleteById, and delete of the type.
+     * The results of find are cached as the mapped documents,
+     * and a cache hit maps them to new objects,
+     * so the callers never share the objects with the cache or with each other;
+     * the referenced objects are loaded again on each hit.
+     */
+    public void setQueryResultCache(
+                    final QueryResultCache cache
+                    )
+    {
+        _resultCache = cache;
+    }
+
+
+    public QueryResultCache getQueryResultCache()
+    {
+        return _resultCache;
+    }
+
+
+
+    private void _invalidate(
+                    final Class<?> type
+                    )
+    {
+        QueryResultCache  cache = _resultCache;
+        if (cache != null) {
+            cache.invalidate( type );
+        }
+    }
+
+
+
+    /**
+     * Sets the registry of the per-operation metrics,
+     * or null to disable the metrics.
+     * The default is a DefaultMetricsRegistry.
+     */
+    public void setMetricsRegistry(
+                    final MetricsRegistry metrics
+                    )
+    {
+        _metrics = metrics;
+    }
+
+
+    public MetricsRegistry getMetricsRegistry()
+    {
+        return _metrics;
+    }
+
+
+
+    /**
+     * Sets the sampling interval of the operation log:
+     * one of every n operations is logged at INFO level,
+     * with its elapsed time and result size.
+     * Zero, the default, disables the sampling;
+     * all the operations are still logged at DEBUG level.
+     */
+    public void setLogSampling(
+                    final int n
+                    )
+    {
+        if (n < 0) {
+            throw new IllegalArgumentException( "invalid log sampling: " + n );
+        }
+
+        _logSampling = n;
+    }
+
+
+    public int getLogSampling()
+    {
+        return _logSampling;
+    }
+
+
+
+    //*********************************************************************
+    //  metrics
+    //*********************************************************************
+
+    /**
+     * Records the metrics of a completed operation,
+     * and logs it if sampled.
+     *
+     * @param   size
+     *  the result size, or a negative value if the operation has no result.
+     */
+    private void _record(
+                    final String operation,
+                    final Class<?> type,
+                    final long ts_start,
+                    final long size,
+                    final Object detail
+                    )
+    {
+        long  elapsed = System.nanoTime() - ts_start;
+
+        MetricsRegistry  metrics = _metrics;
+        if (metrics != null) {
+            metrics.recordLatency( operation, type, elapsed );
+            if (size >= 0L) {
+                metrics.recordResultSize( operation, type, size );
+            }
+        }
+
+        boolean  sampled = false;
+        int  sampling = _logSampling;
+        if (sampling > 0) {
+            sampled = (_logSequence.incrementAndGet() % sampling == 0L);
+        }
+
+        if (sampled ? _LOG_.isInfoEnabled() : _LOG_.isDebugEnabled()) {
+            String  message = operation + ": type=" + type.getName()
+                            + (detail == null ? "" : (", " + detail))
+                            + ", elapsed time (us)=" + (elapsed / 1000L)
+                            + (size < 0L ? "" : (", size=" + size));
+            if (sampled) {
+                _LOG_.info( message );
+            } else {
+                _LOG_.debug( message );
+            }
+        }
+    }
+
+
+
+    /**
+     * Records an error of an operation.
+     *
+     * @return
+     *  the error, to be thrown by the caller.
+     */
+    private <X extends RuntimeException> X _error(
+                    final String operation,
+                    final Class<?> type,
+                    final X error
+                    )
+    {
+        MetricsRegistry  metrics = _metrics;
+        if (metrics != null  &&  type != null) {
+            metrics.recordError( operation, type, error );
+        }
+
+        if (_LOG_.isDebugEnabled()) {
+            _LOG_.debug( operation + ": type=" + type + ", error=" + error );
+        }
+
+        return error;
+    }
+
+
+
+    /**
+     * Sets the diagnostic mode, in which the plan of each built query
+     * is examined by explain and a collection scan is warned and recorded.
+     * A query is explained once per shape, i.e. the type and the param keys,
+     * so the overhead is limited, but it is not intended for production use.
+     * The default is false.
+     */
+    public void setExplainQueries(
+                    final boolean explain
+                    )
+    {
+        _explainQueries = explain;
+    }
+
+
+    public boolean isExplainQueries()
+    {
+        return _explainQueries;
+    }
+
+
+
+    /**
+     * Returns the query shapes that resulted in a collection scan
+     * in the diagnostic mode, with the number of the executions,
+     * e.g. {"Vulnerability[order,searchTerms]": 12}.
+     */
+    public Map<String, Long> getCollectionScans()
+    {
+        Map<String, Long>  scans = new TreeMap<String, Long>();
+        for (Map.Entry<String, AtomicLong>  entry : _collectionScans.entrySet()) {
+            scans.put( entry.getKey(), entry.getValue().get() );
+        }
+
+        return scans;
+    }
+
+
+
+    //*********************************************************************
+    //  indexes
+    //*********************************************************************
+
+    /**
+     * Ensures the indexes of all the types of the DAOs:
+     * those declared in the Morphia mapping, and
+     * those declared by the MorphiaQueryBuilder of the type.
+     * This is intended to be called at startup,
+     * e.g. as the init-method of the Spring bean.
+     */
+    public void ensureIndexes()
+    {
+        for (Class<?>  type : new ArrayList<Class<?>>( _daoMap.keySet() )) {
+            _ensureIndexes( type );
+        }
+    }
+
+
+
+    private <T, K extends Serializable>
+    void _ensureIndexes(
+                    final Class<T> type
+                    )
+    {
+        try {
+            DAO<T, K>  dao = getDAO( type );
+            dao.getDatastore().ensureIndexes( type );
+
+            QueryBuilder  builder = _getQueryBuilder( type );
+            if (!(builder instanceof MorphiaQueryBuilder)) {
+                return;
+            }
+
+            for (String  index : MorphiaQueryBuilder.class.cast( builder ).getIndexes()) {
+                if (_LOG_.isDebugEnabled()) {
+                    _LOG_.debug( "ensure index: type=" + type + ", index=" + index );
+                }
+                dao.getCollection().ensureIndex( _asIndexKeys( index ) );
+            }
+        } catch (RepositoryConfigurationException ex) {
+            throw ex;
+        } catch (RepositoryException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new RepositoryException( ex );
+        }
+    }
+
+
+
+    /**
+     * Converts the index declaration, e.g. "family,-last_modified",
+     * to the index keys, e.g. {family:1, last_modified:-1}.
+     */
+    private static DBObject _asIndexKeys(
+                    final String index
+                    )
+    {
+        DBObject  keys = new BasicDBObject();
+        for (String  field : index.split( MorphiaQueryBuilder.LIST_DELIMITER )) {
+            field = field.trim();
+            if (field.length() == 0) {
+                continue;
+            }
+
+            if (field.endsWith( _TEXT_INDEX_SUFFIX_ )) {
+                keys.put( field.substring( 0, field.length() - _TEXT_INDEX_SUFFIX_.length() ), "text" );
+            } else if (field.startsWith( "-" )) {
+                keys.put( field.substring( 1 ), Integer.valueOf( -1 ) );
+            } else {
+                keys.put( field, Integer.valueOf( 1 ) );
+            }
+        }
+
+        if (keys.keySet().isEmpty()) {
+            throw new RepositoryConfigurationException( "invalid index: " + index );
+        }
+
+        return keys;
+    }
+
+
+
+    //*********************************************************************
+    //  query diagnostics
+    //*********************************************************************
+
+    /**
+     * Explains the query if its shape has not been explained yet,
+     * and records it if the query results in a collection scan.
+     */
+    private <T> void _explain(
+                    final Class<T> type,
+                    final QueryParams params,
+                    final Query<T> query
+                    )
+    {
+        String  shape = type.getSimpleName() + new TreeSet<String>( params.keys() );
+        Boolean  scan = _queryPlans.get( shape );
+        if (scan == null) {
+            try {
+                scan = Boolean.valueOf( _isCollectionScan( query.explain() ) );
+            } catch (Exception ex) {
+                if (_LOG_.isWarnEnabled()) {
+                    _LOG_.warn( "explain failed: " + shape + ", " + ex.getMessage() );
+                }
+                scan = Boolean.FALSE;
+            }
+            _queryPlans.put( shape, scan );
+
+            if (scan.booleanValue()  &&  _LOG_.isWarnEnabled()) {
+                _LOG_.warn( "COLLSCAN: " + shape + ", query=" + query );
+            }
+        }
+
+        if (scan.booleanValue()) {
+            AtomicLong  count = _collectionScans.get( shape );
+            if (count == null) {
+                AtomicLong  new_count = new AtomicLong();
+                count = _collectionScans.putIfAbsent( shape, new_count );
+                count = (count == null ? new_count : count);
+            }
+            count.incrementAndGet();
+        }
+    }
+
+
+
+    /**
+     * Tests whether the explain output contains a collection scan:
+     * the COLLSCAN stage (MongoDB 3.0 or later) or
+     * the BasicCursor (MongoDB 2.x).
+     */
+    private static boolean _isCollectionScan(
+                    final Object plan
+                    )
+    {
+        if (plan instanceof Map) {
+            for (Map.Entry<?, ?>  entry : ((Map<?, ?>)plan).entrySet()) {
+                Object  key = entry.getKey();
+                Object  value = entry.getValue();
+                if ("stage".equals( key )  &&  "COLLSCAN".equals( value )) {
+                    return true;
+                }
+                if ("cursor".equals( key )  &&  String.valueOf( value ).startsWith( "BasicCursor" )) {
+                    return true;
+                }
+                if (_isCollectionScan( value )) {
+                    return true;
+                }
+            }
+        } else if (plan instanceof Collection) {
+            for (Object  element : (Collection<?>)plan) {
+                if (_isCollectionScan( element )) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+
+
 //    private final void _startOperation(
 //                    final String operation_name,
 //                    final String message
@@ -173,8 +760,12 @@ public abstract class MorphiaMongoDatastore
         Query<T>  query = null;
         try {
             query = dao.createQuery();
-            QueryBuilder  builder = _getQueryBuilderFactory().newBuilder( type );
+            QueryBuilder  builder = _getQueryBuilder( type );
             query = builder.build( query, params );
+
+            if (_explainQueries) {
+                _explain( type, params, query );
+            }
         } catch (RepositoryConfigurationException ex) {
             throw ex;
         } catch (QueryException ex) {
@@ -266,46 +857,65 @@ public abstract class MorphiaMongoDatastore
                     final K id
                     )
     {
-       _LOG_.info( "findById: type=" + type + ", ID=" + id );
-       long  ts_start = System.currentTimeMillis();
+        T  p_object = _findById( type, id );
+        if (p_object == null) {
+            throw new ObjectNotFoundException( type, id );
+        }
 
-       T  p_object = null;
-       try {
-           p_object = getDAO( type ).get( id );
-       } catch (Exception ex) {
-           throw new RepositoryException( ex );
-       }
+        return p_object;
+    }
 
-       _LOG_.info( "findById: elapsed time (ms)=" +  (System.currentTimeMillis() - ts_start) );
-       _LOG_.debug( (p_object == null ? "findById: object NOT found" : "findById: object found") );
-       if (p_object == null) {
-           ObjectNotFoundException  ex = new ObjectNotFoundException( "type=" + type + ", id=" + id );
-           ex.setType( type );
-           ex.setId( id );
-           throw ex;
-       }
 
-       return p_object;
-   }
+
+    public <T, K extends Serializable>
+    Optional<T> findByIdOptional(
+                    final Class<T> type,
+                    final K id
+                    )
+    {
+        return Optional.ofNullable( _findById( type, id ) );
+    }
+
+
+
+    /**
+     * Loads the object, or returns null if not found.
+     */
+    private <T, K extends Serializable>
+    T _findById(
+                    final Class<T> type,
+                    final K id
+                    )
+    {
+        long  ts_start = System.nanoTime();
+
+        T  p_object = null;
+        try {
+            p_object = getDAO( type ).get( id );
+        } catch (Exception ex) {
+            throw _error( OP_FIND_BY_ID, type, new RepositoryException( ex ) );
+        }
+
+        _record( OP_FIND_BY_ID, type, ts_start, (p_object == null ? 0L : 1L), id );
+        return p_object;
+    }
 
 
 
     public <T, K extends Serializable>
     boolean exists( final Class<T> type, final K id )
     {
-        _LOG_.info( "exists: type=" + type + ", ID=" + id );
-        long  ts_start = System.currentTimeMillis();
+        long  ts_start = System.nanoTime();
 
         boolean  exists = false;
         try {
             exists = getDAO( type ).exists( "_id", id );    //TODO: Test this!
 //            exists = (getDAO( type ).get( id ) != null);
         } catch (Exception ex) {
-            throw new RepositoryException( ex );
+            throw _error( OP_EXISTS, type, new RepositoryException( ex ) );
         }
 
-        _LOG_.info( "exists: elapsed time (ms)=" +  (System.currentTimeMillis() - ts_start) );
-        _LOG_.debug( (exists ? "exists: object NOT found" : "exists: object found") );
+        _record( OP_EXISTS, type, ts_start, (exists ? 1L : 0L), id );
         return exists;
     }
 
@@ -337,32 +947,256 @@ public abstract class MorphiaMongoDatastore
                     final QueryParams params
                     )
     {
-        _LOG_.info( "find: type=" + type + ", params=" + params );
-        long  ts_start = System.currentTimeMillis();
+        long  ts_start = System.nanoTime();
+
+        QueryResultCache  cache = _resultCache;
+        Object  cache_key = null;
+        if (cache != null) {
+            cache_key = cache.getKey( type, "find", params );
+            @SuppressWarnings( "unchecked" )
+            List<DBObject>  cached = (List<DBObject>)cache.get( cache_key );
+            if (cached != null) {
+                List<T>  list = null;
+                try {
+                    DAO<T, K>  dao = getDAO( type );
+                    list = _fromDocuments( dao, type, cached );
+                } catch (RepositoryException ex) {
+                    throw _error( OP_FIND, type, ex );
+                } catch (Exception ex) {
+                    throw _error( OP_FIND, type, new RepositoryException( ex ) );
+                }
+
+                _record( OP_FIND, type, ts_start, list.size(), "cache hit" );
+                return list;
+            }
+        }
 
         List<T>  list = null;
+        List<DBObject>  docs = null;
         try {
             DAO<T, K>  dao = getDAO( type );
             if (params == null) {
                 list = dao.find().asList();
             } else {
                 Query<T>  query = _buildQuery( dao, type, params );
-                _LOG_.debug( "query=" + query );
                 list = dao.find( query ).asList();
             }
+
+            if (cache != null  &&  list != null) {
+                docs = _toDocuments( dao, list );
+            }
         } catch (RepositoryConfigurationException ex) {
-            throw ex;
+            throw _error( OP_FIND, type, ex );
         } catch (QueryException ex) {
-            throw ex;
+            throw _error( OP_FIND, type, ex );
+        } catch (RepositoryException ex) {
+            throw _error( OP_FIND, type, ex );
+        } catch (Exception ex) {
+            throw _error( OP_FIND, type, new RepositoryException( ex ) );
+        }
+
+        _record( OP_FIND, type, ts_start, (list == null ? 0 : list.size()), params );
+        if (docs != null) {
+            cache.put( cache_key, docs );
+        }
+        return list;
+    }
+
+
+
+    /**
+     * Maps the objects to the documents to be cached.
+     */
+    private static <T, K extends Serializable>
+    List<DBObject> _toDocuments(
+                    final DAO<T, K> dao,
+                    final List<? extends T> objects
+                    )
+    {
+        Mapper  mapper = DatastoreImpl.class.cast( dao.getDatastore() ).getMapper();
+        List<DBObject>  docs = new ArrayList<DBObject>( objects.size() );
+        for (T  object : objects) {
+            docs.add( mapper.toDBObject( object ) );
+        }
+
+        return docs;
+    }
+
+
+
+    /**
+     * Maps the cached documents to new objects.
+     */
+    private static <T, K extends Serializable>
+    List<T> _fromDocuments(
+                    final DAO<T, K> dao,
+                    final Class<T> type,
+                    final List<DBObject> docs
+                    )
+    {
+        Mapper  mapper = DatastoreImpl.class.cast( dao.getDatastore() ).getMapper();
+        EntityCache  entityCache = mapper.createEntityCache();
+        List<T>  objects = new ArrayList<T>( docs.size() );
+        for (DBObject  doc : docs) {
+            objects.add( mapper.fromDBObject( type, doc, entityCache ) );
+        }
+
+        return objects;
+    }
+
+
+
+    /**
+     * The latency of the iteration is recorded when the iterator is closed,
+     * i.e. from the query to the end of the iteration.
+     */
+    public <T, K extends Serializable>
+    CloseableIterator<T> iterate(
+                    final Class<T> type,
+                    final QueryParams params
+                    )
+    {
+        return _iterate( OP_ITERATE, type, params );
+    }
+
+
+
+    /**
+     * Opens the cursor of the query.
+     *
+     * @param   operation
+     *  the operation name in the metrics,
+     *  or null if the caller records the metrics.
+     */
+    private <T, K extends Serializable>
+    CloseableIterator<T> _iterate(
+                    final String operation,
+                    final Class<T> type,
+                    final QueryParams params
+                    )
+    {
+        long  ts_start = System.nanoTime();
+        if (_LOG_.isDebugEnabled()) {
+            _LOG_.debug( "iterate: type=" + type + ", params=" + params );
+        }
+
+        MorphiaIterator<T, T>  itr = null;
+        try {
+            DAO<T, K>  dao = getDAO( type );
+            Query<T>  query = (params == null ? dao.createQuery()
+                            : _buildQuery( dao, type, params ));
+            query.batchSize( _cursorBatchSize );
+            if (_LOG_.isDebugEnabled()) {
+                _LOG_.debug( "query=" + query );
+            }
+            itr = query.fetch();
+        } catch (RepositoryException ex) {
+            throw (operation == null ? ex : _error( operation, type, ex ));
+        } catch (Exception ex) {
+            RepositoryException  error = new RepositoryException( ex );
+            throw (operation == null ? error : _error( operation, type, error ));
+        }
+
+        return new CursorIterator<T>( itr, operation, type, ts_start, params );
+    }
+
+
+
+    /**
+     * The latency of the stream is recorded when the stream is closed.
+     */
+    public <T, K extends Serializable>
+    Stream<T> stream(
+                    final Class<T> type,
+                    final QueryParams params
+                    )
+    {
+        return CloseableIterator.stream( _iterate( OP_STREAM, type, params ) );
+    }
+
+
+
+    public <T, K extends Serializable>
+    int forEach(
+                    final Class<T> type,
+                    final QueryParams params,
+                    final Consumer<? super T> action
+                    )
+    {
+        long  ts_start = System.nanoTime();
+
+        int  count = 0;
+        CloseableIterator<T>  itr = null;
+        try {
+            itr = _iterate( null, type, params );
+            while (itr.hasNext()) {
+                action.accept( itr.next() );
+                count++;
+            }
+        } catch (RuntimeException ex) {
+            throw _error( OP_FOR_EACH, type, ex );
+        } finally {
+            if (itr != null) {
+                itr.close();
+            }
+        }
+
+        _record( OP_FOR_EACH, type, ts_start, count, params );
+        return count;
+    }
+
+
+
+    /**
+     * Returns the cursor token to continue the specified query
+     * after the last object of the results, i.e. the keyset pagination.
+     * The token is given back as the "after" query parameter,
+     * with the same "order" parameter.
+     *
+     * @return
+     *  the cursor token,
+     *  or null if the results are empty.
+     */
+    public <T, K extends Serializable>
+    String nextCursor(
+                    final Class<T> type,
+                    final QueryParams params,
+                    final List<? extends T> results
+                    )
+    {
+        if (results == null  ||  results.size() == 0) {
+            return null;
+        }
+
+        QueryBuilder  builder = _getQueryBuilder( type );
+        if (!(builder instanceof MorphiaQueryBuilder)) {
+            throw new RepositoryConfigurationException(
+                            "keyset pagination not supported: " + builder );
+        }
+        String[]  ordering = MorphiaQueryBuilder.class.cast( builder ).getOrderingFields( params );
+
+        DBObject  last = null;
+        try {
+            DAO<T, K>  dao = getDAO( type );
+            DatastoreImpl  ds = DatastoreImpl.class.cast( dao.getDatastore() );
+            last = ds.getMapper().toDBObject( results.get( results.size() - 1 ) );
         } catch (RepositoryException ex) {
             throw ex;
         } catch (Exception ex) {
             throw new RepositoryException( ex );
         }
 
-        _LOG_.info( "find: elapsed time (ms)=" + (System.currentTimeMillis() - ts_start) );
-        _LOG_.debug( "find: #objects=: " + (list == null ? 0 : list.size()) );
-        return list;
+        Object[]  key = new Object[ordering.length];
+        for (int  i = 0; i < ordering.length; i++) {
+            String  field = (ordering[i].startsWith( "-" ) ? ordering[i].substring( 1 ) : ordering[i]);
+            Object  value = last;
+            for (String  name : field.split( "\\." )) {
+                value = (value instanceof DBObject ? DBObject.class.cast( value ).get( name ) : null);
+            }
+            key[i] = value;
+        }
+
+        return CursorToken.encode( key );
     }
 
 
@@ -393,8 +1227,7 @@ public abstract class MorphiaMongoDatastore
                     final QueryParams params
                     )
     {
-        _LOG_.debug( "findId: type=" + type + ", params=" + params );
-        long  ts_start = System.currentTimeMillis();
+        long  ts_start = System.nanoTime();
 
         List<Key<T>>  list = null;
         try {
@@ -403,21 +1236,19 @@ public abstract class MorphiaMongoDatastore
                 list = dao.find().asKeyList();
             } else {
                 Query<T>  query = _buildQuery( dao, type, params );
-                _LOG_.debug( "query=" + query );
                 list = dao.find( query ).asKeyList();
             }
         } catch (RepositoryConfigurationException ex) {
-            throw ex;
+            throw _error( OP_FIND_ID, type, ex );
         } catch (QueryException ex) {
-            throw ex;
+            throw _error( OP_FIND_ID, type, ex );
         } catch (RepositoryException ex) {
-            throw ex;
+            throw _error( OP_FIND_ID, type, ex );
         } catch (Exception ex) {
-            throw new RepositoryException( ex );
+            throw _error( OP_FIND_ID, type, new RepositoryException( ex ) );
         }
 
-        _LOG_.info( "findId: elapsed time (ms)=" + (System.currentTimeMillis() - ts_start) );
-        _LOG_.debug( "findId: #IDs=: " + (list == null ? 0 : list.size()) );
+        _record( OP_FIND_ID, type, ts_start, (list == null ? 0 : list.size()), params );
         return _keys2Ids( list );
     }
 
@@ -450,8 +1281,18 @@ public abstract class MorphiaMongoDatastore
                     final QueryParams params
                     )
     {
-        _LOG_.info( "count: type=" + type + ", params=" + params );
-        long  ts_start = System.currentTimeMillis();
+        long  ts_start = System.nanoTime();
+
+        QueryResultCache  cache = _resultCache;
+        Object  cache_key = null;
+        if (cache != null) {
+            cache_key = cache.getKey( type, "count", params );
+            Long  cached = (Long)cache.get( cache_key );
+            if (cached != null) {
+                _record( OP_COUNT, type, ts_start, -1L, "cache hit" );
+                return cached.longValue();
+            }
+        }
 
         long  count = 0L;
         try {
@@ -472,21 +1313,22 @@ public abstract class MorphiaMongoDatastore
                 }
 
                 Query<T>  query = _buildQuery( dao, type, adjusted_params );
-                _LOG_.debug( "query=" + query );
                 count = dao.count( query );
             }
         } catch (RepositoryConfigurationException ex) {
-            throw ex;
+            throw _error( OP_COUNT, type, ex );
         } catch (QueryException ex) {
-            throw ex;
+            throw _error( OP_COUNT, type, ex );
         } catch (RepositoryException ex) {
-            throw ex;
+            throw _error( OP_COUNT, type, ex );
         } catch (Exception ex) {
-            throw new RepositoryException( ex );
+            throw _error( OP_COUNT, type, new RepositoryException( ex ) );
         }
 
-        _LOG_.info( "count: elapsed time (ms)=" + (System.currentTimeMillis() - ts_start) );
-        _LOG_.debug( "count: count=" + count );
+        _record( OP_COUNT, type, ts_start, -1L, params );
+        if (cache != null) {
+            cache.put( cache_key, Long.valueOf( count ) );
+        }
         return count;
     }
 
@@ -498,82 +1340,485 @@ public abstract class MorphiaMongoDatastore
                     final T object
                     )
     {
-        _LOG_.info( "save: type=" + type );
-        long  ts_start = System.currentTimeMillis();
+        long  ts_start = System.nanoTime();
 
         Key<T>  key = null;
         try {
             key = getDAO( type ).save( object );
         } catch (RepositoryConfigurationException ex) {
-            throw ex;
+            throw _error( OP_SAVE, type, ex );
         } catch (RepositoryException ex) {
-            throw ex;
+            throw _error( OP_SAVE, type, ex );
         } catch (Exception ex) {
-            throw new RepositoryException( ex );
+            throw _error( OP_SAVE, type, new RepositoryException( ex ) );
         }
 
+        _invalidate( type );
         K  id = _key2Id( key );
 
-        _LOG_.info( "save: elapsed time (ms)=" + (System.currentTimeMillis() - ts_start) );
-        _LOG_.info( "save: ID=" + id );
+        _record( OP_SAVE, type, ts_start, -1L, id );
         return id;
    }
 
 
 
+    /**
+     * Saves the objects in batches.
+     * Each batch is inserted by a single call,
+     * which does not stop at an error in the unordered mode.
+     * If the batch insert fails, e.g. some of the objects already exist,
+     * the objects of the batch are saved one by one,
+     * i.e. inserted or updated.
+     * <p>
+     * NOTE: The batch insert writes the mapped documents directly,
+     * so it does not initialize the Version field,
+     * nor call the PreSave and PostPersist methods,
+     * the entity listeners, and the interceptors of the mapper.
+     * The objects of such classes are always saved one by one,
+     * in the same way as save.
+     * </p>
+     */
+    public <T, K extends Serializable>
+    List<K> saveAll(
+                    final Class<T> type,
+                    final Collection<? extends T> objects
+                    )
+    {
+        long  ts_start = System.nanoTime();
+
+        DAO<T, K>  dao = null;
+        try {
+            dao = getDAO( type );
+        } catch (RepositoryConfigurationException ex) {
+            throw _error( OP_SAVE_ALL, type, ex );
+        }
+        int  batchSize = _bulkBatchSize;
+        boolean  ordered = _bulkOrdered;
+
+        List<K>  ids = new ArrayList<K>( objects.size() );
+        Map<Integer, RepositoryException>  errors = new HashMap<Integer, RepositoryException>();
+        List<T>  batch = new ArrayList<T>( Math.min( batchSize, objects.size() ) );
+        boolean  stopped = false;
+        for (T  object : objects) {
+            batch.add( object );
+            if (batch.size() == batchSize) {
+                stopped = !_saveBatch( dao, batch, ordered, ids, errors );
+                batch.clear();
+                if (stopped) {
+                    break;
+                }
+            }
+        }
+        if (!stopped  &&  batch.size() > 0) {
+            stopped = !_saveBatch( dao, batch, ordered, ids, errors );
+        }
+        while (ids.size() < objects.size()) {
+            ids.add( null );
+        }
+        _invalidate( type );
+
+        if (errors.size() > 0) {
+            throw _error( OP_SAVE_ALL, type,
+                            new BulkWriteException( "saveAll: " + errors.size() + " of "
+                                            + objects.size() + " objects failed"
+                                            + (stopped ? ", stopped at the first error" : ""),
+                                            ids, errors ) );
+        }
+
+        _record( OP_SAVE_ALL, type, ts_start, objects.size(), null );
+        return ids;
+    }
+
+
+
+    /**
+     * Inserts the batch by a single call,
+     * or saves the objects one by one if it failed.
+     * Since a failed insert may have inserted a part of the batch,
+     * the IDs assigned by the driver are set to the objects first,
+     * and the objects found inserted are not saved again.
+     *
+     * @return
+     *  false if the ordered save stopped at an error.
+     */
+    private <T, K extends Serializable>
+    boolean _saveBatch(
+                    final DAO<T, K> dao,
+                    final List<T> batch,
+                    final boolean ordered,
+                    final List<K> ids,
+                    final Map<Integer, RepositoryException> errors
+                    )
+    {
+        if (_requiresSave( dao, batch )) {
+            return _saveEach( dao, batch, null, ordered, ids, errors );
+        }
+
+        final int  n_objects = batch.size();
+        DatastoreImpl  ds = null;
+        List<DBObject>  docs = new ArrayList<DBObject>( n_objects );
+        boolean[]  generated = new boolean[n_objects];
+        try {
+            ds = DatastoreImpl.class.cast( dao.getDatastore() );
+            for (int  i = 0; i < n_objects; i++) {
+                DBObject  doc = ds.getMapper().toDBObject( batch.get( i ) );
+                generated[i] = (doc.get( "_id" ) == null);
+                docs.add( doc );
+            }
+            WriteConcern  wc = ds.getDefaultWriteConcern().continueOnErrorForInsert( !ordered );
+            dao.getCollection().insert( docs, wc );
+        } catch (Exception ex) {
+            if (_LOG_.isDebugEnabled()) {
+                _LOG_.debug( "saveAll: batch insert failed, saving one by one: " + ex );
+            }
+
+            if (docs.size() < n_objects) {
+                //failed before the insert
+                return _saveEach( dao, batch, null, ordered, ids, errors );
+            }
+
+            _assignIds( ds, batch, docs );
+            boolean[]  inserted = _insertedInBatch( docs, generated, _findIds( dao, docs, generated ) );
+            return _saveEach( dao, batch, inserted, ordered, ids, errors );
+        }
+
+        _assignIds( ds, batch, docs );
+        for (DBObject  doc : docs) {
+            @SuppressWarnings( "unchecked" )
+            K  key = (K)doc.get( "_id" );
+            ids.add( key );
+        }
+
+        return true;
+    }
+
+
+
+    /**
+     * Tests whether any object of the batch must be saved by the datastore,
+     * i.e. its class or the mapper has some behavior on save
+     * that the batch insert bypasses.
+     */
+    private boolean _requiresSave(
+                    final DAO<?, ?> dao,
+                    final List<?> batch
+                    )
+    {
+        if (!(dao.getDatastore() instanceof DatastoreImpl)) {
+            //the batch insert fails, and falls back
+            return false;
+        }
+
+        Mapper  mapper = DatastoreImpl.class.cast( dao.getDatastore() ).getMapper();
+        if (mapper.getInterceptors().size() > 0) {
+            return true;
+        }
+
+        for (Object  object : batch) {
+            Class<?>  type = object.getClass();
+            Boolean  required = _requiresSave.get( type );
+            if (required == null) {
+                required = Boolean.valueOf( _requiresSave( type ) );
+                _requiresSave.putIfAbsent( type, required );
+            }
+            if (required.booleanValue()) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+
+
+    /**
+     * Tests whether the class has a Version field,
+     * PreSave or PostPersist methods, or entity listeners,
+     * which are handled only by the save of the datastore.
+     * The PrePersist methods are called in mapping to the document.
+     */
+    static boolean _requiresSave(
+                    final Class<?> type
+                    )
+    {
+        for (Class<?>  c = type; c != null  &&  c != Object.class; c = c.getSuperclass()) {
+            if (c.isAnnotationPresent( EntityListeners.class )) {
+                return true;
+            }
+
+            for (Field  field : c.getDeclaredFields()) {
+                if (field.isAnnotationPresent( Version.class )) {
+                    return true;
+                }
+            }
+
+            for (Method  method : c.getDeclaredMethods()) {
+                if (method.isAnnotationPresent( PreSave.class )
+                                ||  method.isAnnotationPresent( PostPersist.class )) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+
+
+    /**
+     * Sets the IDs generated by the driver to the objects without ID.
+     * Then saving the object again updates the inserted document
+     * instead of inserting a duplicate.
+     */
+    private static <T> void _assignIds(
+                    final DatastoreImpl ds,
+                    final List<T> batch,
+                    final List<DBObject> docs
+                    )
+    {
+        for (int  i = 0; i < batch.size(); i++) {
+            T  object = batch.get( i );
+            Object  id = docs.get( i ).get( "_id" );
+            if (id == null) {
+                continue;
+            }
+
+            try {
+                Field  idField = ds.getMapper().getMappedClass( object ).getIdField();
+                if (idField.get( object ) == null) {
+                    idField.set( object, id );
+                }
+            } catch (Exception ex) {
+                if (_LOG_.isWarnEnabled()) {
+                    _LOG_.warn( "saveAll: ID not set to object: " + ex );
+                }
+            }
+        }
+    }
+
+
+
+    /**
+     * Returns the IDs generated for the batch that exist in the collection.
+     * If the lookup fails, no ID is returned,
+     * i.e. all the objects are saved again, which is safe
+     * since the generated IDs have been set to the objects.
+     */
+    private static <T, K extends Serializable>
+    Collection<Object> _findIds(
+                    final DAO<T, K> dao,
+                    final List<DBObject> docs,
+                    final boolean[] generated
+                    )
+    {
+        List<Object>  candidates = new ArrayList<Object>();
+        for (int  i = 0; i < docs.size(); i++) {
+            Object  id = docs.get( i ).get( "_id" );
+            if (generated[i]  &&  id != null) {
+                candidates.add( id );
+            }
+        }
+
+        Set<Object>  found = new HashSet<Object>();
+        if (candidates.size() == 0) {
+            return found;
+        }
+
+        try {
+            DBCursor  cursor = dao.getCollection().find(
+                            new BasicDBObject( "_id", new BasicDBObject( "$in", candidates ) ),
+                            new BasicDBObject( "_id", Integer.valueOf( 1 ) ) );
+            try {
+                while (cursor.hasNext()) {
+                    found.add( cursor.next().get( "_id" ) );
+                }
+            } finally {
+                cursor.close();
+            }
+        } catch (Exception ex) {
+            if (_LOG_.isWarnEnabled()) {
+                _LOG_.warn( "saveAll: inserted IDs not found: " + ex );
+            }
+            found.clear();
+        }
+
+        return found;
+    }
+
+
+
+    /**
+     * Determines the documents of the batch inserted by the failed insert:
+     * those whose ID was generated by the driver and exists in the collection.
+     * A document with an ID given by the application may have existed
+     * before the insert, so it is not regarded as inserted.
+     *
+     * @param   docs
+     *  the documents of the batch, after the insert.
+     * @param   generated
+     *  whether the ID of each document was generated by the driver.
+     * @param   existingIds
+     *  the IDs found in the collection.
+     * @return
+     *  whether each document was inserted.
+     */
+    static boolean[] _insertedInBatch(
+                    final List<DBObject> docs,
+                    final boolean[] generated,
+                    final Collection<?> existingIds
+                    )
+    {
+        boolean[]  inserted = new boolean[docs.size()];
+        for (int  i = 0; i < inserted.length; i++) {
+            Object  id = docs.get( i ).get( "_id" );
+            inserted[i] = (generated[i]  &&  id != null  &&  existingIds.contains( id ));
+        }
+
+        return inserted;
+    }
+
+
+
+    /**
+     * Saves the objects one by one, except those already inserted,
+     * recording the errors.
+     *
+     * @param   inserted
+     *  whether each object has been inserted, or null if none.
+     * @return
+     *  false if the ordered save stopped at an error.
+     */
+    private <T, K extends Serializable>
+    boolean _saveEach(
+                    final DAO<T, K> dao,
+                    final List<T> batch,
+                    final boolean[] inserted,
+                    final boolean ordered,
+                    final List<K> ids,
+                    final Map<Integer, RepositoryException> errors
+                    )
+    {
+        for (int  i = 0; i < batch.size(); i++) {
+            T  object = batch.get( i );
+            int  index = ids.size();
+            try {
+                Key<T>  key = null;
+                if (inserted != null  &&  inserted[i]) {
+                    key = dao.getDatastore().getKey( object );
+                } else {
+                    key = dao.save( object );
+                }
+                K  id = _key2Id( key );
+                ids.add( id );
+            } catch (Exception ex) {
+                ids.add( null );
+                errors.put( index, (ex instanceof RepositoryException
+                                ? (RepositoryException)ex : new RepositoryException( ex )) );
+                if (ordered) {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+
+
     public <T, K extends Serializable>
     void deleteById(
                     final Class<T> type,
                     final K id
                     )
     {
-        _LOG_.info( "deleteById: type=" + type + ", ID=" + id );
-        long  ts_start = System.currentTimeMillis();
+        long  ts_start = System.nanoTime();
 
         try {
             getDAO( type ).deleteById( id );
+            _invalidate( type );
         } catch (RepositoryConfigurationException ex) {
-            throw ex;
+            throw _error( OP_DELETE_BY_ID, type, ex );
         } catch (RepositoryException ex) {
-            throw ex;
+            throw _error( OP_DELETE_BY_ID, type, ex );
         } catch (Exception ex) {
-            throw new RepositoryException( ex );
+            throw _error( OP_DELETE_BY_ID, type, new RepositoryException( ex ) );
         }
 
-        _LOG_.info( "deleteById: elapsed time (ms)=" + (System.currentTimeMillis() - ts_start) );
+        _record( OP_DELETE_BY_ID, type, ts_start, -1L, id );
     }
 
 
 
+    /**
+     * Removes all the objects by a single delete in the server,
+     * or by dropping the collection if the drop option is set.
+     */
     public <T, K extends Serializable>
     void delete(
                     final Class<T> type
                     )
     {
-        _LOG_.debug( "delete: type=" + type );
-        long  ts_start = System.currentTimeMillis();
+        long  ts_start = System.nanoTime();
 
-        /*
-         * TODO: performance Is it possible to delete all the objects by query?
-         * dao.deleteByQuery( Query q )
-         */
         try {
-            List<K>  id_list = findId( type );
-            if (id_list != null  &&  id_list.size() > 0) {
-                DAO<T, K>  dao = getDAO( type );
-                for (K  id : id_list) {
-                    dao.deleteById( id );
+            DAO<T, K>  dao = getDAO( type );
+            if (_dropOnDelete) {
+                dao.getCollection().drop();
+                _ensureIndexes( type );
+            } else {
+                dao.deleteByQuery( dao.createQuery() );
+            }
+            _invalidate( type );
+        } catch (RepositoryConfigurationException ex) {
+            throw _error( OP_DELETE, type, ex );
+        } catch (RepositoryException ex) {
+            throw _error( OP_DELETE, type, ex );
+        } catch (Exception ex) {
+            throw _error( OP_DELETE, type, new RepositoryException( ex ) );
+        }
+
+        _record( OP_DELETE, type, ts_start, -1L, null );
+    }
+
+
+
+    public <T, K extends Serializable>
+    int delete(
+                    final Class<T> type,
+                    final QueryParams params
+                    )
+    {
+        long  ts_start = System.nanoTime();
+
+        if (params != null) {
+            for (String  key : _PAGING_KEYS_) {
+                if (params.containsKey( key )) {
+                    throw _error( OP_DELETE, type,
+                                    new QueryException( "paging parameter not allowed in delete: " + key ) );
                 }
             }
+        }
+
+        int  count = 0;
+        try {
+            DAO<T, K>  dao = getDAO( type );
+            Query<T>  query = (params == null ? dao.createQuery()
+                            : _buildQuery( dao, type, params ));
+            WriteResult  result = dao.deleteByQuery( query );
+            count = result.getN();
+            _invalidate( type );
         } catch (RepositoryConfigurationException ex) {
-            throw ex;
+            throw _error( OP_DELETE, type, ex );
+        } catch (QueryException ex) {
+            throw _error( OP_DELETE, type, ex );
         } catch (RepositoryException ex) {
-            throw ex;
+            throw _error( OP_DELETE, type, ex );
         } catch (Exception ex) {
-            throw new RepositoryException( ex );
+            throw _error( OP_DELETE, type, new RepositoryException( ex ) );
         }
 
-        _LOG_.info( "delete: elapsed time (ms)=" + (System.currentTimeMillis() - ts_start) );
+        _record( OP_DELETE, type, ts_start, count, params );
+        return count;
     }
 
 
@@ -607,5 +1852,137 @@ public abstract class MorphiaMongoDatastore
         return dao;
     }
 
+
+
+    //**********************************************************************
+    //  cursor iterator
+    //**********************************************************************
+
+    /**
+     * An iterator over a Morphia cursor.
+     * The cursor is closed when the iterator is closed or exhausted.
+     */
+    private class CursorIterator<T>
+        implements CloseableIterator<T>
+    {
+        private MorphiaIterator<T, T>  _cursor;
+
+        private final String  _operation;
+        private final Class<T>  _type;
+        private final long  _tsStart;
+        private final QueryParams  _params;
+        private long  _count = 0L;
+
+
+
+        /**
+         * @param   operation
+         *  the operation name in the metrics, or null not to record them.
+         */
+        public CursorIterator(
+                        final MorphiaIterator<T, T> cursor,
+                        final String operation,
+                        final Class<T> type,
+                        final long ts_start,
+                        final QueryParams params
+                        )
+        {
+            _cursor = cursor;
+            _operation = operation;
+            _type = type;
+            _tsStart = ts_start;
+            _params = params;
+        }
+
+
+
+        public boolean hasNext()
+        {
+            if (_cursor == null) {
+                return false;
+            }
+
+            boolean  hasNext = false;
+            try {
+                hasNext = _cursor.hasNext();
+            } catch (Exception ex) {
+                throw _fail( ex );
+            }
+
+            if (! hasNext) {
+                close();
+            }
+
+            return hasNext;
+        }
+
+
+
+        public T next()
+        {
+            if (_cursor == null) {
+                throw new NoSuchElementException();
+            }
+
+            try {
+                T  object = _cursor.next();
+                _count++;
+                return object;
+            } catch (NoSuchElementException ex) {
+                throw ex;
+            } catch (Exception ex) {
+                throw _fail( ex );
+            }
+        }
+
+
+
+        public void remove()
+        {
+            throw new UnsupportedOperationException();
+        }
+
+
+
+        /**
+         * Closes the cursor, and records the metrics of the iteration.
+         */
+        public void close()
+        {
+            if (_cursor != null) {
+                _closeCursor();
+                if (_operation != null) {
+                    _record( _operation, _type, _tsStart, _count, _params );
+                }
+            }
+        }
+
+
+
+        /**
+         * Closes the cursor on an error, and records the error.
+         */
+        private RepositoryException _fail(
+                        final Exception ex
+                        )
+        {
+            _closeCursor();
+            RepositoryException  error = new RepositoryException( ex );
+            return (_operation == null ? error : _error( _operation, _type, error ));
+        }
+
+
+
+        private void _closeCursor()
+        {
+            if (_cursor != null) {
+                MorphiaIterator<T, T>  cursor = _cursor;
+                _cursor = null;
+                cursor.close();
+            }
+        }
+    }
+    // CursorIterator
+
 }
 //
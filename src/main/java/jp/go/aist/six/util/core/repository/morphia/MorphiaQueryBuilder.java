@@ -21,14 +21,25 @@ package jp.go.aist.six.util.core.repository.morphia;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.regex.Pattern;
+import com.mongodb.BasicDBObject;
+import jp.go.aist.six.util.ObjectCache;
 import jp.go.aist.six.util.repository.CommonQueryParams;
+import jp.go.aist.six.util.repository.CursorToken;
 import jp.go.aist.six.util.repository.QueryException;
 import jp.go.aist.six.util.repository.QueryParams;
+import jp.go.aist.six.util.repository.View;
+import org.bson.types.ObjectId;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.mongodb.morphia.query.Criteria;
@@ -98,13 +109,94 @@ implements QueryBuilder
                     )
     {
         String  field = _fieldMapping().get( key );
-        _LOG_.debug( "field mapping: " + key + " --> " + field );
+        if (_LOG_.isTraceEnabled()) {
+            _LOG_.trace( "field mapping: " + key + " --> " + field );
+        }
 
         return (field == null ? key : field);
     }
 
 
 
+    /**
+     * Subclasses may override this to define the database fields
+     * retrieved in each view, e.g. only the header fields in the summary view.
+     * A view not in the mapping retrieves the complete objects,
+     * except the id view, which retrieves only "_id".
+     * The objects retrieved in a partial view must not be saved.
+     */
+    protected Map<View, String[]> _viewFieldMapping()
+    {
+        return Collections.emptyMap();
+    }
+
+
+
+    /**
+     * Subclasses may override this to declare the indexes
+     * that the handlers of the mapped fields need.
+     * Each element is a compound index of the comma-separated database fields,
+     * e.g. "name", "family,-last_modified" (descending),
+     * or "title:text,description:text" (text index, for TextSearchHandler).
+     * The indexes are ensured by MorphiaMongoDatastore.ensureIndexes().
+     */
+    protected String[] _indexes()
+    {
+        return (new String[0]);
+    }
+
+
+    /**
+     * Returns the indexes declared by this builder.
+     */
+    public String[] getIndexes()
+    {
+        return _indexes().clone();
+    }
+
+
+
+    /**
+     * Restricts the retrieved fields to those of the specified view.
+     * The ordering fields are also retrieved,
+     * since they are the key of the keyset pagination.
+     */
+    protected void _buildView(
+                    final Query<?> query,
+                    final String view,
+                    final QueryParams params
+                    )
+    {
+        View  v = null;
+        try {
+            v = View.valueOf( view );
+        } catch (IllegalArgumentException ex) {
+            throw new QueryException( "unknown view: " + view );
+        }
+
+        String[]  fields = _viewFieldMapping().get( v );
+        if (fields == null) {
+            if (v != View.id) {
+                return;
+            }
+            fields = new String[] { DEFAULT_ORDERING_FIELD };
+        }
+
+        List<String>  retrieved = new ArrayList<String>( Arrays.asList( fields ) );
+        if (!_isEmpty( params.get( CommonQueryParams.Key.ORDER ) )) {
+            for (String  field : getOrderingFields( params )) {
+                field = (field.startsWith( "-" ) ? field.substring( 1 ) : field);
+                if (!retrieved.contains( field )) {
+                    retrieved.add( field );
+                }
+            }
+        }
+
+        query.retrievedFields( true, retrieved.toArray( new String[retrieved.size()] ) );
+    }
+
+
+
     protected String _convertOrderingFields(
                     final String ordering
                     )
@@ -129,6 +221,126 @@ implements QueryBuilder
 
 
 
+    /**
+     * The database field used as the ordering key
+     * if no order is specified in the keyset pagination.
+     */
+    public static final String  DEFAULT_ORDERING_FIELD = "_id";
+
+
+
+    /**
+     * Returns the ordering of the specified query,
+     * which is the key of the keyset pagination.
+     * Each element is a database field,
+     * prefixed with "-" if the order is descending.
+     * Unless the ordering contains "_id", it is appended in ascending order
+     * as the tie-breaker, so that the position of a cursor is unambiguous.
+     *
+     * @param   params
+     *  the query parameters.
+     * @return
+     *  the ordering fields.
+     */
+    public String[] getOrderingFields(
+                    final QueryParams params
+                    )
+    {
+        String  ordering = (params == null ? null : params.get( CommonQueryParams.Key.ORDER ));
+        if (_isEmpty( ordering )) {
+            return (new String[] { DEFAULT_ORDERING_FIELD });
+        }
+
+        return _withTieBreaker( _asList( _convertOrderingFields( ordering ) ) );
+    }
+
+
+
+    /**
+     * Appends "_id" to the ordering fields unless it is included.
+     */
+    private static String[] _withTieBreaker(
+                    final String[] fields
+                    )
+    {
+        for (String  field : fields) {
+            if (DEFAULT_ORDERING_FIELD.equals( field )
+                            ||  ("-" + DEFAULT_ORDERING_FIELD).equals( field )) {
+                return fields;
+            }
+        }
+
+        String[]  ordering = Arrays.copyOf( fields, fields.length + 1 );
+        ordering[fields.length] = DEFAULT_ORDERING_FIELD;
+        return ordering;
+    }
+
+
+
+    /**
+     * Appends the range predicate that selects the objects
+     * following the specified ordering key, i.e. the keyset pagination:
+     *      (a &gt; v1) OR (a = v1 AND b &gt; v2) OR ...
+     * The comparison is "&lt;" for a descending field.
+     */
+    protected void _buildSeek(
+                    final Query<?> query,
+                    final String[] ordering,
+                    final Object[] lastKey
+                    )
+    {
+        if (ordering.length != lastKey.length) {
+            throw new QueryException( "cursor does not match the order: "
+                            + String.join( LIST_DELIMITER, ordering ) );
+        }
+
+        final int  n_fields = ordering.length;
+        Criteria[]  alternatives = new Criteria[n_fields];
+        for (int  i = 0; i < n_fields; i++) {
+            Criteria[]  terms = new Criteria[i + 1];
+            for (int  j = 0; j <= i; j++) {
+                boolean  descending = ordering[j].startsWith( "-" );
+                String  field = (descending ? ordering[j].substring( 1 ) : ordering[j]);
+                Object  value = _asKeyValue( field, lastKey[j] );
+
+                if (j < i) {
+                    terms[j] = query.criteria( field ).equal( value );
+                } else if (descending) {
+                    terms[j] = query.criteria( field ).lessThan( value );
+                } else {
+                    terms[j] = query.criteria( field ).greaterThan( value );
+                }
+            }
+
+            alternatives[i] = (i == 0 ? terms[0] : query.and( terms ));
+        }
+
+        if (n_fields > 1) {
+            query.or( alternatives );
+        }
+    }
+
+
+
+    /**
+     * The cursor token holds an ObjectId as its string representation.
+     */
+    private static Object _asKeyValue(
+                    final String field,
+                    final Object value
+                    )
+    {
+        if (DEFAULT_ORDERING_FIELD.equals( field )
+                        &&  (value instanceof String)
+                        &&  ObjectId.isValid( (String)value )) {
+            return new ObjectId( (String)value );
+        }
+
+        return value;
+    }
+
+
+
     ////////////////////////////////////////////////////////////////
     //  utility functions
     ////////////////////////////////////////////////////////////////
@@ -180,6 +392,45 @@ implements QueryBuilder
     }
 
 
+    /**
+     * The maximum number of the compiled patterns cached.
+     */
+    private static final int  _PATTERN_CACHE_SIZE_ = ObjectCache.DEFAULT_MAX_SIZE;
+
+
+    /**
+     * The compiled patterns shared by all the handlers.
+     * Since it is read by all the queries concurrently,
+     * it is a concurrent map without eviction, instead of a synchronized LRU cache.
+     * Once full, the new patterns are compiled but not cached.
+     */
+    private static final ConcurrentMap<String, Pattern>  _PATTERN_CACHE_ =
+        new ConcurrentHashMap<String, Pattern>();
+
+
+    /**
+     * Compiles the regex, or returns the pattern compiled before.
+     * A Pattern is immutable and can be shared by the queries.
+     */
+    protected static Pattern _compile(
+                    final String regex,
+                    final int flags
+                    )
+    {
+        String  key = flags + "/" + regex;
+        Pattern  pattern = _PATTERN_CACHE_.get( key );
+        if (pattern == null) {
+            pattern = Pattern.compile( regex, flags );
+            if (_PATTERN_CACHE_.size() < _PATTERN_CACHE_SIZE_) {
+                _PATTERN_CACHE_.putIfAbsent( key, pattern );
+            }
+        }
+
+        return pattern;
+    }
+
+
+
     protected static Object _asMatchingObject(
                     final String s
                     )
@@ -190,7 +441,250 @@ implements QueryBuilder
 
         String  regex = s.replace( ".", "\\." );
         regex = s.replace( WILD_CARD, _INTERNAL_WILD_CARD_ );
-        return Pattern.compile( regex, Pattern.CASE_INSENSITIVE );
+        return _compile( regex, Pattern.CASE_INSENSITIVE );
+    }
+
+
+
+    /**
+     * Tests whether the string is a prefix pattern,
+     * i.e. it has a wild card only at the end, e.g. "CVE-2013-*".
+     */
+    protected static boolean _isPrefixPattern(
+                    final String s
+                    )
+    {
+        if (!_isPattern( s )) {
+            return false;
+        }
+
+        int  index = s.indexOf( WILD_CARD );
+        return (index > 0  &&  index == s.length() - WILD_CARD.length());
+    }
+
+
+    /**
+     * Converts the string to the matching object that MongoDB can serve
+     * from an index.
+     * A prefix pattern "abc*" is converted to the CASE-SENSITIVE regex /^abc/,
+     * whose literal prefix bounds the index scan;
+     * a case-insensitive regex can not use the index efficiently.
+     * So "abc*" does not match "ABCD",
+     * unlike _asMatchingObject(String).
+     * A string without wild card is matched exactly, as in _asMatchingObject,
+     * and any other pattern falls back to it, i.e. is case-insensitive.
+     */
+    protected static Object _asCaseSensitivePrefixMatchingObject(
+                    final String s
+                    )
+    {
+        if (!_isPattern( s )) {
+            return s;
+        }
+
+        if (!_isPrefixPattern( s )) {
+            return _asMatchingObject( s );
+        }
+
+        String  prefix = s.substring( 0, s.length() - WILD_CARD.length() );
+        StringBuilder  regex = new StringBuilder( prefix.length() + 8 );
+        regex.append( '^' );
+        for (int  i = 0; i < prefix.length(); i++) {
+            char  c = prefix.charAt( i );
+            if (!Character.isLetterOrDigit( c )  &&  c != ' '  &&  c != '_') {
+                regex.append( '\\' );
+            }
+            regex.append( c );
+        }
+
+        return _compile( regex.toString(), 0 );
+    }
+
+
+
+    /**
+     * Converts the list of search terms to the search string of
+     * the MongoDB $text operator.
+     * A term of a single word is written as is,
+     * and a term of multiple words is quoted as a phrase.
+     * Note the semantics of MongoDB:
+     * the words are ORed, but the phrases are required, i.e. ANDed;
+     * if any phrase is given, only the documents that contain
+     * all the phrases match, and the words only affect the score.
+     * e.g. {"a", "b c", "d e"} ==> a "b c" "d e"
+     * matches the documents that contain both "b c" and "d e".
+     * A query can have only one $text expression,
+     * so the phrases can not be ORed by $or.
+     */
+    protected static String _asTextSearch(
+                    final String[] terms
+                    )
+    {
+        StringBuilder  s = new StringBuilder();
+        for (String  term : terms) {
+            String  t = term.trim().replace( "\"", "" );
+            if (t.length() == 0) {
+                continue;
+            }
+
+            if (s.length() > 0) {
+                s.append( ' ' );
+            }
+
+            if (t.indexOf( ' ' ) == -1) {
+                s.append( t );
+            } else {
+                s.append( '"' ).append( t ).append( '"' );
+            }
+        }
+
+        return s.toString();
+    }
+
+
+
+    //**************************************************************
+    //  query plan
+    //**************************************************************
+
+    public static final int  DEFAULT_PLAN_CACHE_SIZE = 256;
+
+
+    /**
+     * The maximum number of the ordering values cached in a plan.
+     */
+    public static final int  DEFAULT_ORDERING_CACHE_SIZE = 64;
+
+
+    /**
+     * The compiled plan of a query shape, i.e. a set of the param keys.
+     * It holds the handler and the field resolved for each key,
+     * so that the mappings are not looked up in every build.
+     */
+    protected static final class Plan
+    {
+        final String[]  keys;
+        final Handler[]  handlers;
+        final String[]  fields;
+        final int  orderIndex;
+        final String  afterKey;
+        final String  viewKey;
+
+        /**
+         * Ordering param value - database fields with the tie-breaker.
+         */
+        final ConcurrentMap<String, String[]>  orderings =
+            new ConcurrentHashMap<String, String[]>();
+
+
+        Plan(
+                        final String[] keys,
+                        final Handler[] handlers,
+                        final String[] fields,
+                        final int orderIndex,
+                        final String afterKey,
+                        final String viewKey
+                        )
+        {
+            this.keys = keys;
+            this.handlers = handlers;
+            this.fields = fields;
+            this.orderIndex = orderIndex;
+            this.afterKey = afterKey;
+            this.viewKey = viewKey;
+        }
+    }
+    // Plan
+
+
+    /**
+     * Query shape (param keys) - Plan
+     */
+    private final ObjectCache<Set<String>, Plan>  _planCache =
+        new ObjectCache<Set<String>, Plan>( DEFAULT_PLAN_CACHE_SIZE, 0L );
+
+
+
+    /**
+     * Returns the plan of the query shape, compiling it if not cached.
+     * The plans are cached in this builder;
+     * MorphiaMongoDatastore reuses the builder of each type,
+     * so the builder must not keep any state of a query.
+     */
+    protected Plan _getPlan(
+                    final Set<String> shape
+                    )
+    {
+        Plan  plan = _planCache.get( shape );
+        if (plan == null) {
+            plan = _compilePlan( shape );
+            _planCache.put( new HashSet<String>( shape ), plan );
+        }
+
+        return plan;
+    }
+
+
+
+    private Plan _compilePlan(
+                    final Set<String> shape
+                    )
+    {
+        List<String>  keys = new ArrayList<String>();
+        String  after_key = null;
+        String  view_key = null;
+        for (String  key : new TreeSet<String>( shape )) {
+            if (CommonQueryParams.Key.AFTER.equalsIgnoreCase( key )) {
+                after_key = key;
+            } else if (CommonQueryParams.Key.VIEW.equalsIgnoreCase( key )) {
+                view_key = key;
+            } else {
+                keys.add( key );
+            }
+        }
+
+        int  n_keys = keys.size();
+        Handler[]  handlers = new Handler[n_keys];
+        String[]  fields = new String[n_keys];
+        int  order_index = -1;
+        for (int  i = 0; i < n_keys; i++) {
+            String  key = keys.get( i );
+            handlers[i] = _getHandler( key );
+            fields[i] = _getField( key );
+            if (CommonQueryParams.Key.ORDER.equalsIgnoreCase( key )) {
+                order_index = i;
+            }
+        }
+
+        if (_LOG_.isDebugEnabled()) {
+            _LOG_.debug( "query plan compiled: " + getClass().getSimpleName() + keys );
+        }
+
+        return new Plan( keys.toArray( new String[n_keys] ), handlers, fields,
+                        order_index, after_key, view_key );
+    }
+
+
+
+    /**
+     * Returns the ordering fields of the ordering param value,
+     * converting it if not cached in the plan.
+     * The returned array is shared, and must not be modified.
+     */
+    protected String[] _getOrderingFields(
+                    final Plan plan,
+                    final String ordering
+                    )
+    {
+        String[]  fields = plan.orderings.get( ordering );
+        if (fields == null) {
+            fields = _withTieBreaker( _asList( _convertOrderingFields( ordering ) ) );
+            if (plan.orderings.size() < DEFAULT_ORDERING_CACHE_SIZE) {
+                plan.orderings.putIfAbsent( ordering, fields );
+            }
+        }
+
+        return fields;
     }
 
 
@@ -207,16 +701,33 @@ implements QueryBuilder
     {
 //        query.disableValidation();
 
-        for (String  key : params.keys()) {
-            Handler  handler = _getHandler( key );
-            String  field = _getField( key );
-            String  value = params.get( key );
+        Plan  plan = _getPlan( params.keys() );
+
+        String  after = (plan.afterKey == null ? null : params.get( plan.afterKey ));
+        String  view = (plan.viewKey == null ? null : params.get( plan.viewKey ));
+        String[]  ordering = null;
+        for (int  i = 0; i < plan.keys.length; i++) {
+            String  value = params.get( plan.keys[i] );
+            if (i == plan.orderIndex  &&  !_isEmpty( value )) {
+                //the sort is the same as the key of the keyset pagination.
+                ordering = _getOrderingFields( plan, value );
+                value = String.join( LIST_DELIMITER, ordering );
+            }
 
-            if (CommonQueryParams.Key.ORDER.equalsIgnoreCase( key )) {
-                value = _convertOrderingFields( value );
+            plan.handlers[i].build( query, plan.fields[i], value );
+        }
+
+        if (!_isEmpty( after )) {
+            if (ordering == null) {
+                query.order( DEFAULT_ORDERING_FIELD );
+                ordering = new String[] { DEFAULT_ORDERING_FIELD };
             }
 
-            handler.build( query, field, value );
+            _buildSeek( query, ordering, CursorToken.decode( after ) );
+        }
+
+        if (!_isEmpty( view )) {
+            _buildView( query, view, params );
         }
 
         return query;
@@ -551,7 +1062,7 @@ implements QueryBuilder
             }
 
 
-            Pattern  pattern = Pattern.compile( ".*" + value + ".*", Pattern.CASE_INSENSITIVE );
+            Pattern  pattern = _compile( ".*" + value + ".*", Pattern.CASE_INSENSITIVE );
             if (_isList( field )) {
                 // e.g. title,comment = ".*buffer overflow.*"
                 String[]  field_elem = _asList( field );
@@ -598,7 +1109,7 @@ implements QueryBuilder
             String  pure_value = (negate ? value.substring( 1 ) : value);
             _LOG_.debug( "pure value=" + pure_value + ", negate=" + negate );
 
-            Pattern  pattern = Pattern.compile( ".*" + pure_value + ".*", Pattern.CASE_INSENSITIVE );
+            Pattern  pattern = _compile( ".*" + pure_value + ".*", Pattern.CASE_INSENSITIVE );
             if (_isList( field )) {
                 // e.g. title,comment = ".*buffer overflow.*"
                 String[]  field_elem = _asList( field );
@@ -718,10 +1229,10 @@ implements QueryBuilder
                     }
                     s.append( value_elem[j] );
                 }
-                pattern = Pattern.compile( ".*" + s.toString() + ".*", Pattern.CASE_INSENSITIVE );
+                pattern = _compile( ".*" + s.toString() + ".*", Pattern.CASE_INSENSITIVE );
             } else {
                 //...=v1
-                pattern = Pattern.compile( ".*" + value + ".*", Pattern.CASE_INSENSITIVE );
+                pattern = _compile( ".*" + value + ".*", Pattern.CASE_INSENSITIVE );
             }
 
 
@@ -772,7 +1283,7 @@ implements QueryBuilder
             int  num_value_elem = value_elem.length;
             Pattern[]  pattern = new Pattern[num_value_elem];
             for (int  j = 0; j < num_value_elem; j++) {
-                pattern[j] = Pattern.compile( ".*" + value_elem[j] + ".*", Pattern.CASE_INSENSITIVE );
+                pattern[j] = _compile( ".*" + value_elem[j] + ".*", Pattern.CASE_INSENSITIVE );
             }
 
 
@@ -817,6 +1328,136 @@ implements QueryBuilder
     // SearchTerms2
 
 
+    /**
+     * A searchTerms handler using the MongoDB text index, i.e. the $text operator.
+     * Unlike the SearchTermsHandler, which generates unanchored regexes
+     * and scans the whole collection, the search is served from the index.
+     * The collection must have a text index,
+     * declared by _indexes(), e.g. "title:text,description:text",
+     * and MongoDB 2.6 or later is required.
+     *
+     * <p>Note that the fields are specified by the text index,
+     * so the mapped field of the query param is not used in the query.
+     * The terms are matched by words with stemming, not by substrings.
+     * The single words are ORed, but the phrases, i.e. the terms
+     * of multiple words, are ANDed; see _asTextSearch(String[]).
+     * </p>
+     *
+     * f1,f2,...=v1,v2,... ==> {$text:{$search:"v1 v2 ..."}}
+     */
+    protected static class TextSearchHandler
+    implements Handler
+    {
+        public static final TextSearchHandler  INSTANCE = new TextSearchHandler();
+
+
+        public static final String  TEXT_OPERATOR = "$text";
+        public static final String  SEARCH_OPERATOR = "$search";
+
+
+        public TextSearchHandler()
+        {
+        }
+
+
+        public void build(
+                        final Query<?> query,
+                        final String field,
+                        final String value
+                        )
+        {
+            if (_isEmpty( value )) {
+                return;
+            }
+
+            String  search = _asTextSearch( _asList( value ) );
+            if (search.length() == 0) {
+                return;
+            }
+
+            if (_LOG_.isDebugEnabled()) {
+                _LOG_.debug( "text search: fields=" + field + ", search=" + search );
+            }
+
+            //NOTE: Morphia 0.106 has no API for $text.
+            // The validation must be disabled to pass the operator as a field name.
+            query.disableValidation();
+            try {
+                query.filter( TEXT_OPERATOR, new BasicDBObject( SEARCH_OPERATOR, search ) );
+            } finally {
+                query.enableValidation();
+            }
+        }
+    }
+    // TextSearch
+
+
+    /**
+     * A pattern handler generating index-friendly matching filters.
+     * A prefix pattern "x*" is converted to the anchored, CASE-SENSITIVE
+     * regex /^x/ and a value without wild card to the exact match,
+     * which can be served from an index on the field.
+     * Unlike PatternHandler, "x*" does not match "Xy";
+     * map this handler only to the fields of the canonical case,
+     * e.g. the IDs.
+     * The other patterns, e.g. "*x", fall back to the unanchored,
+     * case-insensitive regex.
+     *
+     * f=x*
+     * f=x*,y
+     * f1,f2,...=x*,y,...
+     */
+    protected static class CaseSensitivePrefixPatternHandler
+    implements Handler
+    {
+        public static final CaseSensitivePrefixPatternHandler  INSTANCE = new CaseSensitivePrefixPatternHandler();
+
+
+        public CaseSensitivePrefixPatternHandler()
+        {
+        }
+
+
+        public void build(
+                        final Query<?> query,
+                        final String field,
+                        final String value
+                        )
+        {
+            if (_isEmpty( value )) {
+                return;
+            }
+
+            String[]  field_elem = _asList( field );
+            int  num_field_elem = field_elem.length;
+
+            String[]  value_elem = _asList( value );
+            int  num_value_elem = value_elem.length;
+            Object[]  matching = new Object[num_value_elem];
+            for (int  j = 0; j < num_value_elem; j++) {
+                matching[j] = _asCaseSensitivePrefixMatchingObject( value_elem[j] );
+            }
+
+            if (num_field_elem == 1  &&  num_value_elem == 1) {
+                //f1=v1
+                query.filter( field, matching[0] );
+                return;
+            }
+
+            //f1,f2,...=v1,v2,...
+            Criteria[]  criteria = new Criteria[num_field_elem * num_value_elem];
+            for (int  i = 0; i < num_field_elem; i++) {
+                for (int  j = 0; j < num_value_elem; j++) {
+                    criteria[i * num_value_elem + j] =
+                                    query.criteria( field_elem[i] ).equal( matching[j] );
+                }
+            }
+            query.or( criteria );
+        }
+    }
+    // CaseSensitivePrefixPattern
+
+
 
     /**
      * f=a
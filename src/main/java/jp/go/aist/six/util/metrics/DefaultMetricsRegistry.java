@@ -0,0 +1,276 @@
+/**
+ * SIX UTIL - https://staff.aist.go.jp/nakamura-akihito/six/util/
+ * Copyright (C) 2008
+ *   National Institute of Advanced Industrial Science and Technology (AIST)
+ *   Registration Number: H20PRO-863
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.go.aist.six.util.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+
+/**
+ * An in-memory MetricsRegistry.
+ * The latencies (in nanoseconds) and the result sizes are recorded
+ * in a Histogram, and the errors in a counter,
+ * for each pair of the operation and the object type.
+ *
+ * @author  Akihito Nakamura, AIST
+ * @version $Id$
+ */
+public class DefaultMetricsRegistry
+    implements MetricsRegistry
+{
+
+    /**
+     * operation - type - latency histogram
+     */
+    private final ConcurrentMap<String, ConcurrentMap<Class<?>, Histogram>>  _latencies =
+        new ConcurrentHashMap<String, ConcurrentMap<Class<?>, Histogram>>();
+
+    /**
+     * operation - type - result size histogram
+     */
+    private final ConcurrentMap<String, ConcurrentMap<Class<?>, Histogram>>  _resultSizes =
+        new ConcurrentHashMap<String, ConcurrentMap<Class<?>, Histogram>>();
+
+    /**
+     * operation - type - error count
+     */
+    private final ConcurrentMap<String, ConcurrentMap<Class<?>, AtomicLong>>  _errors =
+        new ConcurrentHashMap<String, ConcurrentMap<Class<?>, AtomicLong>>();
+
+
+
+    /**
+     * Constructor.
+     */
+    public DefaultMetricsRegistry()
+    {
+    }
+
+
+
+    /**
+     * Returns the latency histogram of the operation and the type,
+     * in nanoseconds, or null if nothing has been recorded.
+     */
+    public Histogram getLatency(
+                    final String operation,
+                    final Class<?> type
+                    )
+    {
+        return _lookup( _latencies, operation, type );
+    }
+
+
+    /**
+     * Returns the result size histogram of the operation and the type,
+     * or null if nothing has been recorded.
+     */
+    public Histogram getResultSize(
+                    final String operation,
+                    final Class<?> type
+                    )
+    {
+        return _lookup( _resultSizes, operation, type );
+    }
+
+
+    /**
+     * Returns the number of the errors of the operation and the type.
+     */
+    public long getErrorCount(
+                    final String operation,
+                    final Class<?> type
+                    )
+    {
+        AtomicLong  count = _lookup( _errors, operation, type );
+        return (count == null ? 0L : count.get());
+    }
+
+
+
+    /**
+     * Returns all the latency histograms,
+     * keyed by "operation:type", e.g. "find:com.example.Foo".
+     */
+    public Map<String, Histogram> getLatencies()
+    {
+        return _snapshot( _latencies );
+    }
+
+
+    /**
+     * Returns all the result size histograms,
+     * keyed by "operation:type".
+     */
+    public Map<String, Histogram> getResultSizes()
+    {
+        return _snapshot( _resultSizes );
+    }
+
+
+    /**
+     * Returns all the error counts,
+     * keyed by "operation:type".
+     */
+    public Map<String, Long> getErrorCounts()
+    {
+        Map<String, Long>  counts = new TreeMap<String, Long>();
+        for (Map.Entry<String, AtomicLong>  entry : _snapshot( _errors ).entrySet()) {
+            counts.put( entry.getKey(), entry.getValue().get() );
+        }
+
+        return counts;
+    }
+
+
+
+    /**
+     * Clears all the recorded metrics.
+     */
+    public void reset()
+    {
+        _latencies.clear();
+        _resultSizes.clear();
+        _errors.clear();
+    }
+
+
+
+    private static <V> V _lookup(
+                    final ConcurrentMap<String, ConcurrentMap<Class<?>, V>> metrics,
+                    final String operation,
+                    final Class<?> type
+                    )
+    {
+        ConcurrentMap<Class<?>, V>  by_type = metrics.get( operation );
+        return (by_type == null ? null : by_type.get( type ));
+    }
+
+
+
+    private static <V> Map<String, V> _snapshot(
+                    final ConcurrentMap<String, ConcurrentMap<Class<?>, V>> metrics
+                    )
+    {
+        Map<String, V>  snapshot = new TreeMap<String, V>();
+        for (Map.Entry<String, ConcurrentMap<Class<?>, V>>  op_entry : metrics.entrySet()) {
+            for (Map.Entry<Class<?>, V>  type_entry : op_entry.getValue().entrySet()) {
+                snapshot.put( op_entry.getKey() + ":" + type_entry.getKey().getName(),
+                                type_entry.getValue() );
+            }
+        }
+
+        return snapshot;
+    }
+
+
+
+    private static Histogram _histogram(
+                    final ConcurrentMap<String, ConcurrentMap<Class<?>, Histogram>> metrics,
+                    final String operation,
+                    final Class<?> type
+                    )
+    {
+        ConcurrentMap<Class<?>, Histogram>  by_type = metrics.get( operation );
+        if (by_type == null) {
+            ConcurrentMap<Class<?>, Histogram>  new_by_type =
+                new ConcurrentHashMap<Class<?>, Histogram>();
+            by_type = metrics.putIfAbsent( operation, new_by_type );
+            by_type = (by_type == null ? new_by_type : by_type);
+        }
+
+        Histogram  histogram = by_type.get( type );
+        if (histogram == null) {
+            Histogram  new_histogram = new Histogram();
+            histogram = by_type.putIfAbsent( type, new_histogram );
+            histogram = (histogram == null ? new_histogram : histogram);
+        }
+
+        return histogram;
+    }
+
+
+
+    //**************************************************************
+    //  MetricsRegistry
+    //**************************************************************
+
+    public void recordLatency(
+                    final String operation,
+                    final Class<?> type,
+                    final long nanos
+                    )
+    {
+        _histogram( _latencies, operation, type ).record( nanos );
+    }
+
+
+    public void recordResultSize(
+                    final String operation,
+                    final Class<?> type,
+                    final long size
+                    )
+    {
+        _histogram( _resultSizes, operation, type ).record( size );
+    }
+
+
+    public void recordError(
+                    final String operation,
+                    final Class<?> type,
+                    final Throwable error
+                    )
+    {
+        ConcurrentMap<Class<?>, AtomicLong>  by_type = _errors.get( operation );
+        if (by_type == null) {
+            ConcurrentMap<Class<?>, AtomicLong>  new_by_type =
+                new ConcurrentHashMap<Class<?>, AtomicLong>();
+            by_type = _errors.putIfAbsent( operation, new_by_type );
+            by_type = (by_type == null ? new_by_type : by_type);
+        }
+
+        AtomicLong  count = by_type.get( type );
+        if (count == null) {
+            AtomicLong  new_count = new AtomicLong();
+            count = by_type.putIfAbsent( type, new_count );
+            count = (count == null ? new_count : count);
+        }
+        count.incrementAndGet();
+    }
+
+
+
+    //**************************************************************
+    //  java.lang.Object
+    //**************************************************************
+
+    @Override
+    public String toString()
+    {
+        return "DefaultMetricsRegistry[latencies=" + getLatencies()
+                        + ", errors=" + getErrorCounts()
+                        + "]";
+    }
+
+}
+//
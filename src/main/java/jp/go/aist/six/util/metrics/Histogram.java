@@ -0,0 +1,225 @@
+/**
+ * SIX UTIL - https://staff.aist.go.jp/nakamura-akihito/six/util/
+ * Copyright (C) 2008
+ *   National Institute of Advanced Industrial Science and Technology (AIST)
+ *   Registration Number: H20PRO-863
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.go.aist.six.util.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+
+/**
+ * A lock-free histogram of non-negative long values,
+ * typically latencies.
+ * The values are counted in the buckets of powers of two,
+ * i.e. [0], [1], [2,3], [4,7], [8,15], ...,
+ * so a percentile is estimated within a factor of two
+ * in constant memory.
+ *
+ * @author  Akihito Nakamura, AIST
+ * @version $Id$
+ */
+public class Histogram
+{
+
+    private static final int  _BUCKETS_ = 65;
+
+
+    private final AtomicLongArray  _buckets = new AtomicLongArray( _BUCKETS_ );
+
+    private final AtomicLong  _count = new AtomicLong();
+    private final AtomicLong  _sum = new AtomicLong();
+    private final AtomicLong  _max = new AtomicLong();
+
+
+
+    /**
+     * Constructor.
+     */
+    public Histogram()
+    {
+    }
+
+
+
+    /**
+     * Records the specified value.
+     * A negative value is recorded as zero.
+     *
+     * @param   value
+     *  the value.
+     */
+    public void record(
+                    final long value
+                    )
+    {
+        final long  v = (value < 0L ? 0L : value);
+
+        _buckets.incrementAndGet( _bucketOf( v ) );
+        _count.incrementAndGet();
+        _sum.addAndGet( v );
+
+        long  max = _max.get();
+        while (v > max) {
+            if (_max.compareAndSet( max, v )) {
+                break;
+            }
+            max = _max.get();
+        }
+    }
+
+
+
+    /**
+     * Returns the number of the recorded values.
+     */
+    public long getCount()
+    {
+        return _count.get();
+    }
+
+
+    /**
+     * Returns the sum of the recorded values.
+     */
+    public long getSum()
+    {
+        return _sum.get();
+    }
+
+
+    /**
+     * Returns the maximum of the recorded values,
+     * or 0 if no value has been recorded.
+     */
+    public long getMax()
+    {
+        return _max.get();
+    }
+
+
+    /**
+     * Returns the mean of the recorded values,
+     * or 0.0 if no value has been recorded.
+     */
+    public double getMean()
+    {
+        long  count = _count.get();
+        return (count == 0L ? 0.0 : ((double)_sum.get() / count));
+    }
+
+
+
+    /**
+     * Returns the estimated value at the specified percentile,
+     * i.e. the upper bound of the bucket that contains it.
+     *
+     * @param   percentile
+     *  the percentile, in the range [0.0, 100.0].
+     * @return
+     *  the estimated value,
+     *  or 0 if no value has been recorded.
+     */
+    public long getPercentile(
+                    final double percentile
+                    )
+    {
+        if (percentile < 0.0  ||  percentile > 100.0) {
+            throw new IllegalArgumentException( "invalid percentile: " + percentile );
+        }
+
+        long  total = 0L;
+        long[]  counts = new long[_BUCKETS_];
+        for (int  i = 0; i < _BUCKETS_; i++) {
+            counts[i] = _buckets.get( i );
+            total += counts[i];
+        }
+        if (total == 0L) {
+            return 0L;
+        }
+
+        long  rank = (long)Math.ceil( total * percentile / 100.0 );
+        if (rank < 1L) {
+            rank = 1L;
+        }
+
+        long  cumulative = 0L;
+        for (int  i = 0; i < _BUCKETS_; i++) {
+            cumulative += counts[i];
+            if (cumulative >= rank) {
+                return Math.min( _upperBoundOf( i ), getMax() );
+            }
+        }
+
+        return getMax();
+    }
+
+
+
+    /**
+     * Clears all the recorded values.
+     */
+    public void reset()
+    {
+        for (int  i = 0; i < _BUCKETS_; i++) {
+            _buckets.set( i, 0L );
+        }
+        _count.set( 0L );
+        _sum.set( 0L );
+        _max.set( 0L );
+    }
+
+
+
+    /**
+     * Bucket 0 holds 0, and bucket i (i &gt; 0) holds [2^(i-1), 2^i - 1].
+     */
+    private static int _bucketOf(
+                    final long value
+                    )
+    {
+        return (64 - Long.numberOfLeadingZeros( value ));
+    }
+
+
+    private static long _upperBoundOf(
+                    final int bucket
+                    )
+    {
+        return (bucket >= 63 ? Long.MAX_VALUE : ((1L << bucket) - 1L));
+    }
+
+
+
+    //**************************************************************
+    //  java.lang.Object
+    //**************************************************************
+
+    @Override
+    public String toString()
+    {
+        return "Histogram[count=" + getCount()
+                        + ", mean=" + String.format( "%.1f", getMean() )
+                        + ", p50=" + getPercentile( 50.0 )
+                        + ", p99=" + getPercentile( 99.0 )
+                        + ", max=" + getMax()
+                        + "]";
+    }
+
+}
+//
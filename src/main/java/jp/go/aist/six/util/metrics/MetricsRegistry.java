@@ -0,0 +1,78 @@
+/**
+ * SIX UTIL - https://staff.aist.go.jp/nakamura-akihito/six/util/
+ * Copyright (C) 2008
+ *   National Institute of Advanced Industrial Science and Technology (AIST)
+ *   Registration Number: H20PRO-863
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.go.aist.six.util.metrics;
+
+
+
+/**
+ * A registry of the per-operation metrics of a data store:
+ * the latencies, the result sizes, and the errors,
+ * recorded for each operation and object type.
+ * The implementation must be thread-safe,
+ * and the recording methods should be cheap enough
+ * to be called on every operation.
+ *
+ * @author  Akihito Nakamura, AIST
+ * @version $Id$
+ * @see     DefaultMetricsRegistry
+ */
+public interface MetricsRegistry
+{
+
+    /**
+     * Records the latency of an operation.
+     *
+     * @param   operation
+     *  the operation name, e.g. "find".
+     * @param   type
+     *  the object type.
+     * @param   nanos
+     *  the elapsed time in nanoseconds.
+     */
+    public void recordLatency( String operation, Class<?> type, long nanos );
+
+
+    /**
+     * Records the result size of an operation,
+     * e.g. the number of the found objects.
+     *
+     * @param   operation
+     *  the operation name.
+     * @param   type
+     *  the object type.
+     * @param   size
+     *  the result size.
+     */
+    public void recordResultSize( String operation, Class<?> type, long size );
+
+
+    /**
+     * Records an error of an operation.
+     *
+     * @param   operation
+     *  the operation name.
+     * @param   type
+     *  the object type.
+     * @param   error
+     *  the error thrown to the caller.
+     */
+    public void recordError( String operation, Class<?> type, Throwable error );
+
+}
+//
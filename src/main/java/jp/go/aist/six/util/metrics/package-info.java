@@ -0,0 +1,6 @@
+/**
+ * Runtime metrics.
+ */
+
+package jp.go.aist.six.util.metrics;
+
@@ -0,0 +1,432 @@
+/**
+ * SIX UTIL - https://staff.aist.go.jp/nakamura-akihito/six/util/
+ * Copyright (C) 2008
+ *   National Institute of Advanced Industrial Science and Technology (AIST)
+ *   Registration Number: H20PRO-863
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.go.aist.six.util.persist;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import jp.go.aist.six.util.metrics.Histogram;
+import jp.go.aist.six.util.search.Binding;
+import jp.go.aist.six.util.search.Limit;
+import jp.go.aist.six.util.search.Order;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+
+/**
+ * An asynchronous facade of a Datastore.
+ * The operations are executed on a dedicated bounded thread pool,
+ * and their results are returned as CompletableFutures,
+ * so that the caller, e.g. a document parser,
+ * can proceed while the objects are persisted.
+ *
+ * <p>The pool size should be the number of the JDBC connections
+ * available to the facade.
+ * When the queue is full, the operation is executed in the calling thread,
+ * which slows down the producer instead of failing or buffering without bound.
+ * </p>
+ *
+ * <p>The latency of each operation, excluding the wait in the queue,
+ * is recorded in microseconds, and the wait in the queue is recorded
+ * as the operation "queue".
+ * </p>
+ *
+ * @author  Akihito Nakamura, AIST
+ * @version $Id$
+ */
+public class AsyncDatastore
+{
+
+    /**
+     * Logger.
+     */
+    private static final Logger  _LOG_ =
+        LoggerFactory.getLogger( AsyncDatastore.class );
+
+
+    public static final String  OP_CREATE = "create";
+    public static final String  OP_SYNC = "sync";
+    public static final String  OP_SYNC_ALL = "syncAll";
+    public static final String  OP_FIND = "find";
+    public static final String  OP_COUNT = "count";
+    public static final String  OP_QUEUE = "queue";
+
+
+    private static final AtomicInteger  _POOL_NUMBER_ = new AtomicInteger();
+
+
+
+    private final Datastore  _datastore;
+
+    private final ThreadPoolExecutor  _executor;
+
+    private final Map<String, Histogram>  _latencies;
+
+
+
+    /**
+     * Constructor.
+     * The queue capacity is four times the pool size.
+     *
+     * @param   datastore
+     *  the underlying Datastore.
+     * @param   poolSize
+     *  the number of the threads, typically the JDBC pool size.
+     */
+    public AsyncDatastore(
+                    final Datastore datastore,
+                    final int poolSize
+                    )
+    {
+        this( datastore, poolSize, poolSize * 4 );
+    }
+
+
+    /**
+     * Constructor.
+     *
+     * @param   datastore
+     *  the underlying Datastore.
+     * @param   poolSize
+     *  the number of the threads, typically the JDBC pool size.
+     * @param   queueCapacity
+     *  the number of the operations that can wait for a thread.
+     */
+    public AsyncDatastore(
+                    final Datastore datastore,
+                    final int poolSize,
+                    final int queueCapacity
+                    )
+    {
+        if (datastore == null) {
+            throw new IllegalArgumentException( "null datastore" );
+        }
+        if (poolSize < 1  ||  queueCapacity < 1) {
+            throw new IllegalArgumentException( "invalid pool size or queue capacity: "
+                            + poolSize + ", " + queueCapacity );
+        }
+
+        _datastore = datastore;
+
+        final String  prefix = "AsyncDatastore-" + _POOL_NUMBER_.incrementAndGet() + "-";
+        ThreadFactory  factory = new ThreadFactory()
+        {
+            private final AtomicInteger  _threadNumber = new AtomicInteger();
+
+            public Thread newThread(
+                            final Runnable r
+                            )
+            {
+                Thread  t = new Thread( r, prefix + _threadNumber.incrementAndGet() );
+                t.setDaemon( true );
+                return t;
+            }
+        };
+
+        _executor = new ThreadPoolExecutor( poolSize, poolSize,
+                        60L, TimeUnit.SECONDS,
+                        new ArrayBlockingQueue<Runnable>( queueCapacity ),
+                        factory, new RejectedExecutionHandler()
+        {
+            public void rejectedExecution(
+                            final Runnable r,
+                            final ThreadPoolExecutor executor
+                            )
+            {
+                if (executor.isShutdown()) {
+                    throw new RejectedExecutionException( "AsyncDatastore shut down" );
+                }
+                //back-pressure: the caller executes the operation.
+                r.run();
+            }
+        });
+        _executor.allowCoreThreadTimeOut( true );
+
+        Map<String, Histogram>  latencies = new LinkedHashMap<String, Histogram>();
+        for (String  op : new String[] { OP_CREATE, OP_SYNC, OP_SYNC_ALL,
+                        OP_FIND, OP_COUNT, OP_QUEUE }) {
+            latencies.put( op, new Histogram() );
+        }
+        _latencies = Collections.unmodifiableMap( latencies );
+    }
+
+
+
+    /**
+     * Returns the underlying Datastore.
+     */
+    public Datastore getDatastore()
+    {
+        return _datastore;
+    }
+
+
+
+    /**
+     * Returns the latency histogram of the specified operation.
+     *
+     * @param   operation
+     *  the operation name, e.g. OP_CREATE.
+     * @return
+     *  the histogram in microseconds, or null if no such operation.
+     */
+    public Histogram getLatency(
+                    final String operation
+                    )
+    {
+        return _latencies.get( operation );
+    }
+
+
+
+    /**
+     * Returns the latency histograms of all the operations.
+     */
+    public Map<String, Histogram> getLatencies()
+    {
+        return _latencies;
+    }
+
+
+
+    /**
+     * Returns the number of the operations waiting in the queue.
+     */
+    public int getQueueSize()
+    {
+        return _executor.getQueue().size();
+    }
+
+
+
+    /**
+     * Stops accepting new operations.
+     * The operations already submitted are completed.
+     */
+    public void shutdown()
+    {
+        _executor.shutdown();
+    }
+
+
+
+    /**
+     * Waits until all the submitted operations are completed
+     * after shutdown.
+     *
+     * @return
+     *  true if completed, false if timed out.
+     */
+    public boolean awaitTermination(
+                    final long timeout,
+                    final TimeUnit unit
+                    )
+    throws InterruptedException
+    {
+        return _executor.awaitTermination( timeout, unit );
+    }
+
+
+
+    /**
+     * Submits the operation, recording its wait and latency.
+     */
+    private <R> CompletableFuture<R> _submit(
+                    final String operation,
+                    final Supplier<R> task
+                    )
+    {
+        final long  ts_submit = System.nanoTime();
+
+        return CompletableFuture.supplyAsync( new Supplier<R>()
+        {
+            public R get()
+            {
+                long  ts_start = System.nanoTime();
+                _latencies.get( OP_QUEUE ).record( (ts_start - ts_submit) / 1000L );
+                try {
+                    return task.get();
+                } catch (RuntimeException ex) {
+                    if (_LOG_.isDebugEnabled()) {
+                        _LOG_.debug( operation + " failed: " + ex );
+                    }
+                    throw ex;
+                } finally {
+                    _latencies.get( operation ).record( (System.nanoTime() - ts_start) / 1000L );
+                }
+            }
+        }, _executor );
+    }
+
+
+
+    //**************************************************************
+    //  operations
+    //**************************************************************
+
+    /**
+     * @see Datastore#create(Class, Persistable)
+     */
+    public <K, T extends Persistable<K>>
+    CompletableFuture<K> create(
+                    final Class<T> type,
+                    final T object
+                    )
+    {
+        return _submit( OP_CREATE, new Supplier<K>()
+        {
+            public K get()
+            {
+                return _datastore.create( type, object );
+            }
+        });
+    }
+
+
+
+    /**
+     * @see Datastore#sync(Class, Persistable)
+     */
+    public <K, T extends Persistable<K>>
+    CompletableFuture<T> sync(
+                    final Class<T> type,
+                    final T object
+                    )
+    {
+        return _submit( OP_SYNC, new Supplier<T>()
+        {
+            public T get()
+            {
+                return _datastore.sync( type, object );
+            }
+        });
+    }
+
+
+
+    /**
+     * @see Datastore#syncAll(Class, List)
+     */
+    public <K, T extends Persistable<K>>
+    CompletableFuture<List<T>> syncAll(
+                    final Class<T> type,
+                    final List<? extends T> objects
+                    )
+    {
+        return _submit( OP_SYNC_ALL, new Supplier<List<T>>()
+        {
+            public List<T> get()
+            {
+                return _datastore.syncAll( type, objects );
+            }
+        });
+    }
+
+
+
+    /**
+     * @see Datastore#find(Class, Binding)
+     */
+    public <K, T extends Persistable<K>>
+    CompletableFuture<Collection<T>> find(
+                    final Class<T> type,
+                    final Binding filter
+                    )
+    {
+        return _submit( OP_FIND, new Supplier<Collection<T>>()
+        {
+            public Collection<T> get()
+            {
+                return _datastore.find( type, filter );
+            }
+        });
+    }
+
+
+
+    /**
+     * @see Datastore#find(Class, Binding, List, Limit)
+     */
+    public <K, T extends Persistable<K>>
+    CompletableFuture<Collection<T>> find(
+                    final Class<T> type,
+                    final Binding filter,
+                    final List<? extends Order> ordering,
+                    final Limit limit
+                    )
+    {
+        return _submit( OP_FIND, new Supplier<Collection<T>>()
+        {
+            public Collection<T> get()
+            {
+                return _datastore.find( type, filter, ordering, limit );
+            }
+        });
+    }
+
+
+
+    /**
+     * @see Datastore#count(Class, Binding)
+     */
+    public <K, T extends Persistable<K>>
+    CompletableFuture<Integer> count(
+                    final Class<T> type,
+                    final Binding filter
+                    )
+    {
+        return _submit( OP_COUNT, new Supplier<Integer>()
+        {
+            public Integer get()
+            {
+                return Integer.valueOf( _datastore.count( type, filter ) );
+            }
+        });
+    }
+
+
+
+    //**************************************************************
+    //  java.lang.Object
+    //**************************************************************
+
+    @Override
+    public String toString()
+    {
+        return "AsyncDatastore[datastore=" + _datastore
+                        + ", pool=" + _executor.getMaximumPoolSize()
+                        + ", queue=" + _executor.getQueue().size()
+                        + ", latencies=" + _latencies
+                        + "]";
+    }
+
+}
+// AsyncDatastore
@@ -0,0 +1,187 @@
+/**
+ * SIX UTIL - https://staff.aist.go.jp/nakamura-akihito/six/util/
+ * Copyright (C) 2008
+ *   National Institute of Advanced Industrial Science and Technology (AIST)
+ *   Registration Number: H20PRO-863
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.go.aist.six.util.persist;
+
+
+
+/**
+ * An identity allocator that reserves the IDs in blocks.
+ * A block of consecutive IDs is obtained from the BlockSource in one
+ * round-trip, and the IDs in the block are assigned locally.
+ * So the data store is accessed once per block size objects.
+ *
+ * <p>The IDs are unique but not gapless:
+ * the rest of a block is lost when the application stops.
+ * </p>
+ *
+ * @author  Akihito Nakamura, AIST
+ * @version $Id$
+ */
+public class BlockIdentityAllocator
+    implements IdentityAllocator<Long>
+{
+
+    public static final int  DEFAULT_BLOCK_SIZE = 100;
+
+
+
+    /**
+     * The source of the ID blocks.
+     * A block may be reserved in hi/lo style, i.e. hi * blockSize,
+     * or as a range of a database sequence.
+     * The implementation must reserve the block in its own transaction,
+     * so that the block is never reused even if the caller's transaction
+     * is rolled back.
+     */
+    public static interface BlockSource
+    {
+
+        /**
+         * Reserves a new block of IDs.
+         *
+         * @param   blockSize
+         *  the number of the IDs in the block.
+         * @return
+         *  the first ID of the block;
+         *  the IDs from it to (it + blockSize - 1) are reserved.
+         * @throws  PersistenceException
+         *  when the block could not be reserved.
+         */
+        public long nextBlock( int blockSize );
+
+    }
+    // BlockSource
+
+
+
+    private BlockSource  _source;
+
+    private int  _blockSize = DEFAULT_BLOCK_SIZE;
+
+
+    private long  _next;
+    private long  _remaining = 0L;
+
+
+
+    /**
+     * Constructor.
+     */
+    public BlockIdentityAllocator()
+    {
+    }
+
+
+    /**
+     * Constructor.
+     */
+    public BlockIdentityAllocator(
+                    final BlockSource source,
+                    final int blockSize
+                    )
+    {
+        setBlockSource( source );
+        setBlockSize( blockSize );
+    }
+
+
+
+    /**
+     */
+    public synchronized void setBlockSource(
+                    final BlockSource source
+                    )
+    {
+        if (source == null) {
+            throw new IllegalArgumentException( "null block source" );
+        }
+
+        _source = source;
+        _remaining = 0L;
+    }
+
+
+    public synchronized BlockSource getBlockSource()
+    {
+        return _source;
+    }
+
+
+
+    /**
+     * Sets the number of the IDs reserved at a time.
+     * The default is 100.
+     * The block size must not be changed while the same source
+     * is used in hi/lo style by other processes.
+     */
+    public synchronized void setBlockSize(
+                    final int blockSize
+                    )
+    {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException( "invalid block size: " + blockSize );
+        }
+
+        _blockSize = blockSize;
+    }
+
+
+    public synchronized int getBlockSize()
+    {
+        return _blockSize;
+    }
+
+
+
+    //**************************************************************
+    //  IdentityAllocator
+    //**************************************************************
+
+    public synchronized Long allocate()
+    {
+        if (_remaining == 0L) {
+            if (_source == null) {
+                throw new PersistenceException( "no block source configured" );
+            }
+
+            _next = _source.nextBlock( _blockSize );
+            _remaining = _blockSize;
+        }
+
+        _remaining--;
+        return Long.valueOf( _next++ );
+    }
+
+
+
+    //**************************************************************
+    //  java.lang.Object
+    //**************************************************************
+
+    @Override
+    public synchronized String toString()
+    {
+        return "BlockIdentityAllocator[source=" + _source
+                        + ", blockSize=" + _blockSize
+                        + ", remaining=" + _remaining
+                        + "]";
+    }
+
+}
+// BlockIdentityAllocator
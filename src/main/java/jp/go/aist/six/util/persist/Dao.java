@@ -20,6 +20,8 @@ package jp.go.aist.six.util.persist;
 
 import java.util.Collection;
 import java.util.List;
+import java.util.stream.Stream;
+import jp.go.aist.six.util.CloseableIterator;
 import jp.go.aist.six.util.search.Binding;
 import jp.go.aist.six.util.search.Limit;
 import jp.go.aist.six.util.search.Order;
@@ -93,6 +95,22 @@ public interface Dao<K, T extends Persistable<K>>
 
 
 
+    /**
+     * Removes the objects that match the specified filter.
+     * The dependents of the objects, e.g. associations, are also removed
+     * if the implementation manages them.
+     *
+     * @param   filter
+     *  the filter, or null to remove all the objects.
+     * @return
+     *  the number of the objects removed, not including the dependents.
+     * @throws  PersistenceException
+     *  when an exceptional condition occurred during the object-persistence processing.
+     */
+    public int removeAll( Binding filter );
+
+
+
     /**
      * Synchronizes the correspond object in the data store
      * with the specified object.
@@ -176,6 +194,24 @@ public interface Dao<K, T extends Persistable<K>>
 
 
 
+    /**
+     * Returns the object of the specified identity,
+     * fetching its relations according to the specified plan.
+     * The lazy relations are fetched on first access.
+     *
+     * @param   id
+     *  the identity of the object.
+     * @param   plan
+     *  the fetch plan, or null for FetchPlan.ALL.
+     * @return
+     *  the object if exists, or null otherwise.
+     * @throws  PersistenceException
+     *  when an exceptional condition occurred during the object-persistence processing.
+     */
+    public T load( K id, FetchPlan plan );
+
+
+
     /**
      * Returns the object of the specified identity list.
      *
@@ -234,6 +270,64 @@ public interface Dao<K, T extends Persistable<K>>
 
 
 
+    /**
+     * Searches for the objects that match the specified filter,
+     * fetching their relations according to the specified plan.
+     *
+     * @param   filter
+     *  the filter.
+     * @param   ordering
+     *  the ordering of the result objects.
+     * @param   limit
+     *  the number of objects and offset of the first object.
+     * @param   plan
+     *  the fetch plan, or null for FetchPlan.ALL.
+     * @return
+     *  the objects.
+     * @throws  PersistenceException
+     *  when an exceptional condition occurred during the object-persistence processing.
+     */
+    public Collection<T> find( Binding filter, List<? extends Order> ordering, Limit limit, FetchPlan plan );
+
+
+
+    /**
+     * Returns an iterator over the objects that match the specified filter.
+     * Unlike find(), the objects are fetched from the data store on demand,
+     * so the result is never materialized in memory as a whole.
+     * The iterator must be closed after use.
+     *
+     * @param   filter
+     *  the filter.
+     * @param   ordering
+     *  the ordering of the result objects.
+     * @return
+     *  the iterator over the objects.
+     * @throws  PersistenceException
+     *  when an exceptional condition occurred during the object-persistence processing.
+     */
+    public CloseableIterator<T> iterate( Binding filter, List<? extends Order> ordering );
+
+
+
+    /**
+     * Returns a stream of the objects that match the specified filter.
+     * The objects are fetched on demand, as iterate().
+     * The stream must be closed after use.
+     *
+     * @param   filter
+     *  the filter.
+     * @param   ordering
+     *  the ordering of the result objects.
+     * @return
+     *  the stream of the objects.
+     * @throws  PersistenceException
+     *  when an exceptional condition occurred during the object-persistence processing.
+     */
+    public Stream<T> stream( Binding filter, List<? extends Order> ordering );
+
+
+
     /**
      * Returns identities of all the objects in the data store.
      *
@@ -290,6 +384,24 @@ public interface Dao<K, T extends Persistable<K>>
      */
     public List<Object> search( SearchCriteria criteria );
 
+
+
+    /**
+     * Searches for the values of the projections specified in the criteria.
+     * The projections, i.e. properties and aggregations, are evaluated
+     * in the data store and only their values are returned,
+     * without loading the objects.
+     * Each row contains the values in the order of the projections.
+     *
+     * @param   criteria
+     *  the criteria, which must have one or more projections.
+     * @return
+     *  the rows of the projection values.
+     * @throws  PersistenceException
+     *  when an exceptional condition occurred during the object-persistence processing.
+     */
+    public List<Object[]> searchRows( SearchCriteria criteria );
+
 }
 //
 
@@ -89,5 +89,22 @@ public class DataRetrievalException
         super( message, cause );
     }
 
+
+
+    /**
+     * Constructs this exception with the specified detail message and cause,
+     * and with or without the stack trace.
+     *
+     * @see jp.go.aist.six.util.NestedRuntimeException#NestedRuntimeException(String, Throwable, boolean)
+     */
+    protected DataRetrievalException(
+                    final String message,
+                    final Throwable cause,
+                    final boolean writableStackTrace
+                    )
+    {
+        super( message, cause, writableStackTrace );
+    }
+
 }
 // DataRetrievalException
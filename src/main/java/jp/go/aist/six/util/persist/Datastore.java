@@ -20,6 +20,9 @@ package jp.go.aist.six.util.persist;
 
 import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+import jp.go.aist.six.util.CloseableIterator;
 import jp.go.aist.six.util.search.Binding;
 import jp.go.aist.six.util.search.Limit;
 import jp.go.aist.six.util.search.Order;
@@ -48,6 +51,10 @@ public interface Datastore
     void remove( Class<T> type, T object );
 
 
+    public <K, T extends Persistable<K>>
+    int removeAll( Class<T> type, Binding filter );
+
+
     public <K, T extends Persistable<K>>
     T sync( Class<T> type, T object );
 
@@ -68,6 +75,14 @@ public interface Datastore
     T load( Class<T> type, K id );
 
 
+    public <K, T extends Persistable<K>>
+    T load( Class<T> type, K id, FetchPlan plan );
+
+
+    public <K, T extends Persistable<K>>
+    Optional<T> loadOptional( Class<T> type, K id );
+
+
     public <K, T extends Persistable<K>>
     List<T> loadAll( Class<T> type, List<? extends K> ids );
 
@@ -84,6 +99,18 @@ public interface Datastore
     Collection<T> find( Class<T> type, Binding filter, List<? extends Order> ordering, Limit limit );
 
 
+    public <K, T extends Persistable<K>>
+    Collection<T> find( Class<T> type, Binding filter, List<? extends Order> ordering, Limit limit, FetchPlan plan );
+
+
+    public <K, T extends Persistable<K>>
+    CloseableIterator<T> iterate( Class<T> type, Binding filter, List<? extends Order> ordering );
+
+
+    public <K, T extends Persistable<K>>
+    Stream<T> stream( Class<T> type, Binding filter, List<? extends Order> ordering );
+
+
     public <K, T extends Persistable<K>>
     Collection<K> findIdentity( Class<T> type );
 
@@ -99,5 +126,9 @@ public interface Datastore
     public <K, T extends Persistable<K>>
     List<Object> search( Class<T> type, SearchCriteria criteria );
 
+
+    public <K, T extends Persistable<K>>
+    List<Object[]> searchRows( Class<T> type, SearchCriteria criteria );
+
 }
 //
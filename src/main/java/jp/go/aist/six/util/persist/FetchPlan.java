@@ -0,0 +1,202 @@
+/**
+ * SIX UTIL - https://staff.aist.go.jp/nakamura-akihito/six/util/
+ * Copyright (C) 2008
+ *   National Institute of Advanced Industrial Science and Technology (AIST)
+ *   Registration Number: H20PRO-863
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.go.aist.six.util.persist;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+
+
+/**
+ * A per-call plan which specifies the relations of the loaded objects,
+ * e.g. the Dependent objects or the Associations,
+ * to fetch eagerly or lazily.
+ * A lazy relation is fetched on first access.
+ * The relations are identified by their names defined by the Daos.
+ *
+ * <p>For example, a summary listing that needs only the header fields
+ * of the objects loads them with FetchPlan.NONE,
+ * and a detailed view with FetchPlan.ALL or with
+ * FetchPlan.eager( "references" ).
+ * </p>
+ *
+ * @author  Akihito Nakamura, AIST
+ * @version $Id$
+ */
+public final class FetchPlan
+    implements Serializable
+{
+    private static final long  serialVersionUID = -3287468731276301452L;
+
+
+    /**
+     * All the relations are fetched eagerly.
+     * This is the default plan.
+     */
+    public static final FetchPlan  ALL = new FetchPlan( true, Collections.<String>emptySet() );
+
+
+    /**
+     * All the relations are fetched lazily.
+     */
+    public static final FetchPlan  NONE = new FetchPlan( false, Collections.<String>emptySet() );
+
+
+
+    /**
+     * Creates a plan that fetches the specified relations eagerly
+     * and the others lazily.
+     *
+     * @param   relations
+     *  the names of the relations to fetch eagerly.
+     * @return
+     *  the plan.
+     */
+    public static FetchPlan eager(
+                    final String... relations
+                    )
+    {
+        return new FetchPlan( false, new HashSet<String>( Arrays.asList( relations ) ) );
+    }
+
+
+
+    /**
+     * Creates a plan that fetches the specified relations lazily
+     * and the others eagerly.
+     *
+     * @param   relations
+     *  the names of the relations to fetch lazily.
+     * @return
+     *  the plan.
+     */
+    public static FetchPlan lazy(
+                    final String... relations
+                    )
+    {
+        return new FetchPlan( true, new HashSet<String>( Arrays.asList( relations ) ) );
+    }
+
+
+
+    private final boolean  _eagerByDefault;
+
+
+    /**
+     * The relations fetched in the opposite way of the default.
+     */
+    private final Set<String>  _exceptions;
+
+
+
+    /**
+     * Constructor.
+     */
+    private FetchPlan(
+                    final boolean eagerByDefault,
+                    final Set<String> exceptions
+                    )
+    {
+        _eagerByDefault = eagerByDefault;
+        _exceptions = Collections.unmodifiableSet( exceptions );
+    }
+
+
+
+    /**
+     * Tests whether the specified relation is fetched eagerly.
+     *
+     * @param   relation
+     *  the relation name.
+     * @return
+     *  true if the relation is fetched on load;
+     *  false if it is fetched on first access.
+     */
+    public boolean isEager(
+                    final String relation
+                    )
+    {
+        return (_eagerByDefault != _exceptions.contains( relation ));
+    }
+
+
+
+    /**
+     * Tests whether all the relations are fetched eagerly,
+     * i.e. the loaded objects are complete.
+     */
+    public boolean isAll()
+    {
+        return (_eagerByDefault  &&  _exceptions.isEmpty());
+    }
+
+
+
+    //**************************************************************
+    //  java.lang.Object
+    //**************************************************************
+
+    @Override
+    public int hashCode()
+    {
+        final int  prime = 37;
+        int  result = 17;
+
+        result = prime * result + (_eagerByDefault ? 1 : 0);
+        result = prime * result + _exceptions.hashCode();
+
+        return result;
+    }
+
+
+
+    @Override
+    public boolean equals(
+                    final Object obj
+                    )
+    {
+        if (this == obj) {
+            return true;
+        }
+
+        if (!(obj instanceof FetchPlan)) {
+            return false;
+        }
+
+        FetchPlan  other = (FetchPlan)obj;
+        return (_eagerByDefault == other._eagerByDefault
+                        &&  _exceptions.equals( other._exceptions ));
+    }
+
+
+
+    @Override
+    public String toString()
+    {
+        return "FetchPlan[" + (_eagerByDefault ? "eager" : "lazy")
+                        + (_exceptions.isEmpty() ? ""
+                                        : (", except=" + _exceptions))
+                        + "]";
+    }
+
+}
+// FetchPlan
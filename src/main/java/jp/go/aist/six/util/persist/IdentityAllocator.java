@@ -0,0 +1,48 @@
+/**
+ * SIX UTIL - https://staff.aist.go.jp/nakamura-akihito/six/util/
+ * Copyright (C) 2008
+ *   National Institute of Advanced Industrial Science and Technology (AIST)
+ *   Registration Number: H20PRO-863
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.go.aist.six.util.persist;
+
+
+
+/**
+ * An allocator of the persistent IDs.
+ * The Dao assigns an ID allocated by this object
+ * to a new object that has no ID,
+ * instead of letting the data store generate one on insert.
+ * The implementation must be thread-safe.
+ *
+ * @author  Akihito Nakamura, AIST
+ * @version $Id$
+ * @param   <K> the type of persistent ID.
+ */
+public interface IdentityAllocator<K>
+{
+
+    /**
+     * Allocates a new persistent ID.
+     *
+     * @return
+     *  the persistent ID, which is never allocated again.
+     * @throws  PersistenceException
+     *  when the IDs could not be reserved in the data store.
+     */
+    public K allocate();
+
+}
+// IdentityAllocator
@@ -0,0 +1,191 @@
+/**
+ * SIX UTIL - https://staff.aist.go.jp/nakamura-akihito/six/util/
+ * Copyright (C) 2008
+ *   National Institute of Advanced Industrial Science and Technology (AIST)
+ *   Registration Number: H20PRO-863
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.go.aist.six.util.persist;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+
+
+
+/**
+ * A list of the related objects which are fetched on first access.
+ * It stands in for a relation that is lazy in the FetchPlan.
+ * Once fetched, the list behaves as a modifiable ArrayList.
+ *
+ * <p>When serialized, the list is fetched and replaced by an ArrayList.
+ * </p>
+ *
+ * @author  Akihito Nakamura, AIST
+ * @version $Id$
+ * @see FetchPlan
+ */
+public class LazyList<E>
+    extends AbstractList<E>
+    implements Serializable
+{
+    private static final long  serialVersionUID = 1L;
+
+
+
+    /**
+     * The fetch operation of the related objects.
+     */
+    public static interface Loader<E>
+    {
+
+        /**
+         * Fetches the related objects.
+         *
+         * @return
+         *  the related objects, or null if none.
+         * @throws  PersistenceException
+         *  when an exceptional condition occurred during the fetch.
+         */
+        public List<? extends E> load();
+
+    }
+    // Loader
+
+
+
+    private transient Loader<? extends E>  _loader;
+
+    private List<E>  _elements;
+
+
+
+    /**
+     * Constructor.
+     *
+     * @param   loader
+     *  the fetch operation.
+     */
+    public LazyList(
+                    final Loader<? extends E> loader
+                    )
+    {
+        if (loader == null) {
+            throw new IllegalArgumentException( "null loader" );
+        }
+
+        _loader = loader;
+    }
+
+
+
+    /**
+     * Tests whether the related objects have been fetched.
+     */
+    public synchronized boolean isLoaded()
+    {
+        return (_elements != null);
+    }
+
+
+
+    /**
+     * Returns the related objects, fetching them if not yet.
+     */
+    protected synchronized List<E> _getElements()
+    {
+        if (_elements == null) {
+            List<? extends E>  elements = _loader.load();
+            _elements = (elements == null ? new ArrayList<E>() : new ArrayList<E>( elements ));
+            _loader = null;
+        }
+
+        return _elements;
+    }
+
+
+
+    private Object writeReplace()
+    {
+        return new ArrayList<E>( _getElements() );
+    }
+
+
+
+    //**************************************************************
+    //  java.util.List
+    //**************************************************************
+
+    @Override
+    public E get(
+                    final int index
+                    )
+    {
+        return _getElements().get( index );
+    }
+
+
+    @Override
+    public int size()
+    {
+        return _getElements().size();
+    }
+
+
+    @Override
+    public E set(
+                    final int index,
+                    final E element
+                    )
+    {
+        return _getElements().set( index, element );
+    }
+
+
+    @Override
+    public void add(
+                    final int index,
+                    final E element
+                    )
+    {
+        _getElements().add( index, element );
+        modCount++;
+    }
+
+
+    @Override
+    public E remove(
+                    final int index
+                    )
+    {
+        E  element = _getElements().remove( index );
+        modCount++;
+        return element;
+    }
+
+
+
+    //**************************************************************
+    //  java.lang.Object
+    //**************************************************************
+
+    @Override
+    public String toString()
+    {
+        return (isLoaded() ? _getElements().toString() : "LazyList[not loaded]");
+    }
+
+}
+// LazyList
@@ -89,6 +89,23 @@ public class PersistenceException
         super( message, cause );
     }
 
+
+
+    /**
+     * Constructs this exception with the specified detail message and cause,
+     * and with or without the stack trace.
+     *
+     * @see NestedRuntimeException#NestedRuntimeException(String, Throwable, boolean)
+     */
+    protected PersistenceException(
+                    final String message,
+                    final Throwable cause,
+                    final boolean writableStackTrace
+                    )
+    {
+        super( message, cause, writableStackTrace );
+    }
+
 }
 // PersistenceException
 
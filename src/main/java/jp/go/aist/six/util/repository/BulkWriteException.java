@@ -0,0 +1,112 @@
+/**
+ * SIX UTIL - https://staff.aist.go.jp/nakamura-akihito/six/util/
+ * Copyright (C) 2008
+ *   National Institute of Advanced Industrial Science and Technology (AIST)
+ *   Registration Number: H20PRO-863
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.go.aist.six.util.repository;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+
+
+/**
+ * Thrown to indicate that
+ * some of the objects could not be saved in a bulk save.
+ * The exception reports the error of each failed object
+ * by its index in the saved collection,
+ * and the identifiers of the objects saved,
+ * with null for the objects failed or not attempted.
+ *
+ * @author  Akihito Nakamura, AIST
+ * @version $Id$
+ */
+public class BulkWriteException
+    extends RepositoryException
+{
+
+    private final List<Object>  _ids;
+    private final Map<Integer, RepositoryException>  _errors;
+
+
+
+    /**
+     * Constructs this exception with the results of the bulk save.
+     *
+     * @param   message
+     *  the detail message.
+     * @param   ids
+     *  the identifiers of the objects, in the order of the saved collection.
+     * @param   errors
+     *  the errors, keyed by the index of the object.
+     */
+    public BulkWriteException(
+                    final String message,
+                    final List<?> ids,
+                    final Map<Integer, ? extends RepositoryException> errors
+                    )
+    {
+        super( message );
+
+        _ids = Collections.unmodifiableList( new ArrayList<Object>( ids ) );
+        _errors = Collections.unmodifiableMap( new TreeMap<Integer, RepositoryException>( errors ) );
+    }
+
+
+
+    /**
+     * Returns the identifiers of the objects,
+     * in the order of the saved collection.
+     * The identifier of a failed or not attempted object is null.
+     */
+    public List<Object> getIds()
+    {
+        return _ids;
+    }
+
+
+
+    /**
+     * Returns the errors, keyed by the index of the object
+     * in the saved collection, in ascending order.
+     */
+    public Map<Integer, RepositoryException> getErrors()
+    {
+        return _errors;
+    }
+
+
+
+    /**
+     * Returns the number of the objects saved.
+     */
+    public int getSavedCount()
+    {
+        int  count = 0;
+        for (Object  id : _ids) {
+            if (id != null) {
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+}
+//
@@ -46,6 +46,9 @@ public class CommonQueryParams
         //sorting
         public static final String  ORDER           = "order";
 
+        //keyset pagination
+        public static final String  AFTER           = "after";
+
         //predefined projection
         public static final String  VIEW            = "view";
     }
@@ -196,6 +199,27 @@ public class CommonQueryParams
 
 
 
+    /**
+     * @param   after
+     *  the cursor token of the last item of the previous page,
+     *  i.e. QueryResults.getNextCursor().
+     *  The items following that item in the order are returned.
+     */
+    public void setAfter(
+                    final String after
+    )
+    {
+        set( Key.AFTER, after );
+    }
+
+
+    public String getAfter()
+    {
+        return get( Key.AFTER );
+    }
+
+
+
     /**
      */
     public void setView(
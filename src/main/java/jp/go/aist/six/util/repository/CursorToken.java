@@ -0,0 +1,196 @@
+/**
+ * SIX UTIL - https://staff.aist.go.jp/nakamura-akihito/six/util/
+ * Copyright (C) 2008
+ *   National Institute of Advanced Industrial Science and Technology (AIST)
+ *   Registration Number: H20PRO-863
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.go.aist.six.util.repository;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Date;
+import java.util.List;
+
+
+
+/**
+ * A codec of the cursor token for the keyset pagination.
+ * The token is an opaque, URL-safe string that holds the values
+ * of the ordering key of the last item of a page.
+ *
+ * <p>Each value is encoded with its type tag, so it is restored
+ * to the original type:
+ * String, Integer, Long, Double, Boolean, Date, and null.
+ * A value of any other type is encoded as its string representation.
+ * </p>
+ *
+ * @author  Akihito Nakamura, AIST
+ * @version $Id$
+ */
+public final class CursorToken
+{
+
+    private static final char  _STRING_    = 's';
+    private static final char  _INTEGER_   = 'i';
+    private static final char  _LONG_      = 'l';
+    private static final char  _DOUBLE_    = 'd';
+    private static final char  _BOOLEAN_   = 'b';
+    private static final char  _DATE_      = 't';
+    private static final char  _NULL_      = 'n';
+    private static final char  _SEPARATOR_ = ':';
+
+
+
+    /**
+     * Constructor.
+     */
+    private CursorToken()
+    {
+    }
+
+
+
+    /**
+     * Encodes the specified ordering key values to a cursor token.
+     *
+     * @param   values
+     *  the values of the ordering key.
+     * @return
+     *  the cursor token.
+     * @throws  IllegalArgumentException
+     *  if no value is specified.
+     */
+    public static String encode(
+                    final Object... values
+                    )
+    {
+        if (values == null  ||  values.length == 0) {
+            throw new IllegalArgumentException( "no cursor value specified" );
+        }
+
+        StringBuilder  s = new StringBuilder();
+        for (Object  value : values) {
+            if (value == null) {
+                s.append( _NULL_ );
+                continue;
+            }
+
+            char  tag = _STRING_;
+            String  text = null;
+            if (value instanceof Integer) {
+                tag = _INTEGER_;
+            } else if (value instanceof Long) {
+                tag = _LONG_;
+            } else if (value instanceof Double) {
+                tag = _DOUBLE_;
+            } else if (value instanceof Boolean) {
+                tag = _BOOLEAN_;
+            } else if (value instanceof Date) {
+                tag = _DATE_;
+                text = String.valueOf( ((Date)value).getTime() );
+            }
+
+            if (text == null) {
+                text = value.toString();
+            }
+
+            s.append( tag ).append( text.length() ).append( _SEPARATOR_ ).append( text );
+        }
+
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(
+                        s.toString().getBytes( StandardCharsets.UTF_8 ) );
+    }
+
+
+
+    /**
+     * Decodes the specified cursor token to the ordering key values.
+     *
+     * @param   token
+     *  the cursor token.
+     * @return
+     *  the values of the ordering key.
+     * @throws  QueryException
+     *  if the token is malformed.
+     */
+    public static Object[] decode(
+                    final String token
+                    )
+    {
+        if (token == null  ||  token.length() == 0) {
+            throw new QueryException( "empty cursor token" );
+        }
+
+        List<Object>  values = new ArrayList<Object>();
+        try {
+            String  s = new String( Base64.getUrlDecoder().decode( token ),
+                            StandardCharsets.UTF_8 );
+
+            int  pos = 0;
+            while (pos < s.length()) {
+                char  tag = s.charAt( pos++ );
+                if (tag == _NULL_) {
+                    values.add( null );
+                    continue;
+                }
+
+                int  sep = s.indexOf( _SEPARATOR_, pos );
+                int  length = Integer.parseInt( s.substring( pos, sep ) );
+                String  text = s.substring( sep + 1, sep + 1 + length );
+                pos = sep + 1 + length;
+
+                values.add( _toValue( tag, text ) );
+            }
+        } catch (QueryException ex) {
+            throw ex;
+        } catch (RuntimeException ex) {
+            throw new QueryException( "malformed cursor token: " + token, ex );
+        }
+
+        if (values.size() == 0) {
+            throw new QueryException( "empty cursor token" );
+        }
+
+        return values.toArray();
+    }
+
+
+
+    private static Object _toValue(
+                    final char tag,
+                    final String text
+                    )
+    {
+        switch (tag) {
+        case _STRING_:
+            return text;
+        case _INTEGER_:
+            return Integer.valueOf( text );
+        case _LONG_:
+            return Long.valueOf( text );
+        case _DOUBLE_:
+            return Double.valueOf( text );
+        case _BOOLEAN_:
+            return Boolean.valueOf( text );
+        case _DATE_:
+            return new Date( Long.parseLong( text ) );
+        default:
+            throw new QueryException( "unknown value type in cursor token: " + tag );
+        }
+    }
+
+}
+//
@@ -19,7 +19,12 @@
 package jp.go.aist.six.util.repository;
 
 import java.io.Serializable;
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import jp.go.aist.six.util.CloseableIterator;
 
 
 
@@ -52,6 +57,25 @@ public interface Datastore
 
 
 
+    /**
+     * Loads the object of the specified identifier, if exists.
+     * Unlike findById, a miss is not notified with an exception,
+     * so this method is suitable for probing the existence.
+     *
+     * @param   type
+     *  the type of the object.
+     * @param   id
+     *  the identifier of the object.
+     * @return
+     *  the object, or an empty Optional if not found.
+     * @throws  RepositoryException
+     *  in case of repository errors.
+     */
+    public <T, K extends Serializable>
+    Optional<T> findByIdOptional( Class<T> type, K id );
+
+
+
     /**
      * Tests if the object of the specified identifier exists.
      *
@@ -116,6 +140,62 @@ public interface Datastore
 
 
 
+    /**
+     * Iterates over the objects that match the specified query parameters.
+     * The objects are fetched from the storage cursor on demand,
+     * so a large result can be traversed in bounded memory.
+     * The iterator must be closed after use.
+     *
+     * @param   type
+     *  the type of the object.
+     * @param   params
+     *  the parameters to select the objects, or null for all the objects.
+     * @return
+     *  the iterator over the objects.
+     * @throws  QueryException
+     *  in case of query errors.
+     * @throws  RepositoryException
+     *  in case of repository errors.
+     */
+    public <T, K extends Serializable>
+    CloseableIterator<T> iterate( Class<T> type, QueryParams params );
+
+
+
+    /**
+     * Returns a stream over the objects that match the specified query parameters.
+     * The stream must be closed after use, to release the storage cursor.
+     *
+     * @see #iterate(Class, QueryParams)
+     */
+    public <T, K extends Serializable>
+    Stream<T> stream( Class<T> type, QueryParams params );
+
+
+
+    /**
+     * Performs the specified action for each object
+     * that matches the specified query parameters.
+     * The storage cursor is released when this method returns.
+     *
+     * @param   type
+     *  the type of the object.
+     * @param   params
+     *  the parameters to select the objects, or null for all the objects.
+     * @param   action
+     *  the action for each object.
+     * @return
+     *  the number of the objects processed.
+     * @throws  QueryException
+     *  in case of query errors.
+     * @throws  RepositoryException
+     *  in case of repository errors.
+     */
+    public <T, K extends Serializable>
+    int forEach( Class<T> type, QueryParams params, Consumer<? super T> action );
+
+
+
     /**
      * Returns identifiers of all the objects of the specified type.
      *
@@ -197,6 +277,28 @@ public interface Datastore
 
 
 
+    /**
+     * Saves the objects in batches.
+     * Each object is saved even if the others fail,
+     * unless the implementation is configured to stop at the first error.
+     *
+     * @param   type
+     *  the type of the objects.
+     * @param   objects
+     *  the objects to save.
+     * @return
+     *  the identifiers of the objects, in the order of the collection.
+     * @throws  BulkWriteException
+     *  if some of the objects could not be saved;
+     *  it reports the error of each failed object.
+     * @throws  RepositoryException
+     *  in case of repository errors.
+     */
+    public <T, K extends Serializable>
+    List<K> saveAll( Class<T> type, Collection<? extends T> objects );
+
+
+
     /**
      * Removes the object of the specified identifier.
      * If no such object exists, this method returns immediately without any exception.
@@ -226,5 +328,27 @@ public interface Datastore
     public <T, K extends Serializable>
     void delete( Class<T> type );
 
+
+
+    /**
+     * Removes the objects that match the specified query parameters,
+     * in the data store without loading them.
+     * The paging parameters, e.g. count and startIndex, are not allowed,
+     * since the data store does not delete a page of objects.
+     *
+     * @param   type
+     *  the type of the object.
+     * @param   params
+     *  the parameters to select the objects.
+     * @return
+     *  the number of the removed objects.
+     * @throws  QueryException
+     *  in case of query errors, or if a paging parameter is specified.
+     * @throws  RepositoryException
+     *  in case of repository errors.
+     */
+    public <T, K extends Serializable>
+    int delete( Class<T> type, QueryParams params );
+
 }
 //
@@ -0,0 +1,220 @@
+/**
+ * SIX UTIL - https://staff.aist.go.jp/nakamura-akihito/six/util/
+ * Copyright (C) 2008
+ *   National Institute of Advanced Industrial Science and Technology (AIST)
+ *   Registration Number: H20PRO-863
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.go.aist.six.util.repository;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import jp.go.aist.six.util.ObjectCache;
+
+
+
+/**
+ * A QueryResultCache in the local memory,
+ * bounded in size and with a time-to-live.
+ *
+ * <p>The query parameters are normalized in the key:
+ * the parameters are sorted by name and those with empty values are dropped,
+ * so that the equivalent queries share a result.
+ * A type is invalidated by incrementing its generation,
+ * which is a part of the key;
+ * the results of the older generations are never hit,
+ * and are evicted as the least recently used.
+ * </p>
+ *
+ * @author  Akihito Nakamura, AIST
+ * @version $Id$
+ */
+public class DefaultQueryResultCache
+    implements QueryResultCache
+{
+
+    private final ObjectCache<String, Object>  _cache;
+
+    private final ConcurrentMap<Class<?>, AtomicLong>  _generations =
+        new ConcurrentHashMap<Class<?>, AtomicLong>();
+
+
+
+    /**
+     * Constructor.
+     */
+    public DefaultQueryResultCache()
+    {
+        this( ObjectCache.DEFAULT_MAX_SIZE, ObjectCache.DEFAULT_TIME_TO_LIVE );
+    }
+
+
+    /**
+     * Constructor.
+     *
+     * @param   maxSize
+     *  the maximum number of the cached results.
+     * @param   timeToLive
+     *  the time-to-live of the results in milliseconds,
+     *  or zero if the results never expire.
+     */
+    public DefaultQueryResultCache(
+                    final int maxSize,
+                    final long timeToLive
+                    )
+    {
+        _cache = new ObjectCache<String, Object>( maxSize, timeToLive );
+    }
+
+
+
+    /**
+     * Returns the number of the cached results, including the invalidated ones.
+     */
+    public int size()
+    {
+        return _cache.size();
+    }
+
+
+
+    /**
+     * Returns the ratio of the hits to the total lookups.
+     */
+    public double getHitRatio()
+    {
+        return _cache.getHitRatio();
+    }
+
+
+
+    /**
+     * Removes all the results.
+     */
+    public void clear()
+    {
+        _cache.clear();
+    }
+
+
+
+    private AtomicLong _getGeneration(
+                    final Class<?> type
+                    )
+    {
+        AtomicLong  generation = _generations.get( type );
+        if (generation == null) {
+            AtomicLong  new_generation = new AtomicLong();
+            generation = _generations.putIfAbsent( type, new_generation );
+            if (generation == null) {
+                generation = new_generation;
+            }
+        }
+
+        return generation;
+    }
+
+
+
+    //**************************************************************
+    //  QueryResultCache
+    //**************************************************************
+
+    public Object getKey(
+                    final Class<?> type,
+                    final String operation,
+                    final QueryParams params
+                    )
+    {
+        StringBuilder  key = new StringBuilder();
+        key.append( type.getName() ).append( '#' ).append( _getGeneration( type ).get() )
+            .append( '#' ).append( operation );
+
+        if (params != null) {
+            Map<String, String>  sorted = new TreeMap<String, String>();
+            for (String  name : params.keys()) {
+                String  value = params.get( name );
+                if (value != null  &&  value.length() > 0) {
+                    sorted.put( name, value );
+                }
+            }
+            //length-prefixed, so that no two parameter sets have the same key
+            for (Map.Entry<String, String>  e : sorted.entrySet()) {
+                key.append( '#' ).append( e.getKey().length() ).append( ':' ).append( e.getKey() )
+                    .append( e.getValue().length() ).append( ':' ).append( e.getValue() );
+            }
+        }
+
+        return key.toString();
+    }
+
+
+
+    public Object get(
+                    final Object key
+                    )
+    {
+        return _cache.get( (String)key );
+    }
+
+
+
+    public void put(
+                    final Object key,
+                    final Object result
+                    )
+    {
+        _cache.put( (String)key, result );
+    }
+
+
+
+    public void invalidate(
+                    final Class<?> type
+                    )
+    {
+        _getGeneration( type ).incrementAndGet();
+    }
+
+
+
+    public long getHitCount()
+    {
+        return _cache.getHitCount();
+    }
+
+
+
+    public long getMissCount()
+    {
+        return _cache.getMissCount();
+    }
+
+
+
+    //**************************************************************
+    //  java.lang.Object
+    //**************************************************************
+
+    @Override
+    public String toString()
+    {
+        return "DefaultQueryResultCache[" + _cache + "]";
+    }
+
+}
+// DefaultQueryResultCache
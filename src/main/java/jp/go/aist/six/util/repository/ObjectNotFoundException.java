@@ -94,6 +94,45 @@ public class ObjectNotFoundException
 
 
 
+    /**
+     * Constructs this exception with the specified detail message and cause,
+     * and with or without the stack trace.
+     *
+     * @see jp.go.aist.six.util.NestedRuntimeException#NestedRuntimeException(String, Throwable, boolean)
+     */
+    protected ObjectNotFoundException(
+                    final String message,
+                    final Throwable cause,
+                    final boolean writableStackTrace
+                    )
+    {
+        super( message, cause, writableStackTrace );
+    }
+
+
+
+    /**
+     * Constructs this exception for the miss of a lookup by identifier.
+     * The stack trace is not filled in,
+     * since the miss is an expected condition, typically on a hot path.
+     *
+     * @param   type
+     *  the type of object.
+     * @param   id
+     *  the identifier.
+     */
+    public ObjectNotFoundException(
+                    final Class<?> type,
+                    final Object id
+                    )
+    {
+        super( "type=" + (type == null ? "unknown" : type.getName()) + ", id=" + id, null, false );
+        setType( type );
+        setId( id );
+    }
+
+
+
     /**
      * @param type
      *  the type of object.
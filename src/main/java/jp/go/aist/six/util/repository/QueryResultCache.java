@@ -0,0 +1,91 @@
+/**
+ * SIX UTIL - https://staff.aist.go.jp/nakamura-akihito/six/util/
+ * Copyright (C) 2008
+ *   National Institute of Advanced Industrial Science and Technology (AIST)
+ *   Registration Number: H20PRO-863
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.go.aist.six.util.repository;
+
+
+
+/**
+ * A cache of the query results, keyed by the object type,
+ * the operation, e.g. "find" or "count", and the query parameters.
+ * The Datastore invalidates the results of a type
+ * when it modifies the objects of the type.
+ *
+ * <p>A key is obtained before the query is executed,
+ * so that a result computed before an invalidation is never
+ * cached as a fresh one.
+ * The implementation must be thread-safe.
+ * </p>
+ *
+ * @author  Akihito Nakamura, AIST
+ * @version $Id$
+ */
+public interface QueryResultCache
+{
+
+    /**
+     * Returns the cache key of the specified query.
+     *
+     * @param   type
+     *  the type of the objects.
+     * @param   operation
+     *  the operation name.
+     * @param   params
+     *  the query parameters, or null.
+     * @return
+     *  the key.
+     */
+    public Object getKey( Class<?> type, String operation, QueryParams params );
+
+
+
+    /**
+     * Returns the cached result, or null if not cached or expired.
+     */
+    public Object get( Object key );
+
+
+
+    /**
+     * Caches the result of the query.
+     */
+    public void put( Object key, Object result );
+
+
+
+    /**
+     * Invalidates all the results of the specified type.
+     */
+    public void invalidate( Class<?> type );
+
+
+
+    /**
+     * Returns the number of the lookups that found a result.
+     */
+    public long getHitCount();
+
+
+
+    /**
+     * Returns the number of the lookups that found no result.
+     */
+    public long getMissCount();
+
+}
+// QueryResultCache
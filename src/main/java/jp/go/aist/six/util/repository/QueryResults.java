@@ -50,6 +50,9 @@ public class QueryResults<T>
 
     private Date  _timestamp;
 
+    private String  _nextCursor;
+    //{0..1}
+
 
 
     /**
@@ -269,6 +272,25 @@ public class QueryResults<T>
 
 
 
+    /**
+     * Sets the cursor token to continue the search after the last element.
+     * The token is given back by the client as the "after" query parameter.
+     */
+    public void setNextCursor(
+                    final String nextCursor
+                    )
+    {
+        _nextCursor = nextCursor;
+    }
+
+
+    public String getNextCursor()
+    {
+        return _nextCursor;
+    }
+
+
+
     /**
      */
     public int size()
@@ -290,6 +312,7 @@ public class QueryResults<T>
                         + ", startIndex="   + getStartIndex()
                         + ", itemsPerPage=" + getItemsPerPage()
                         + ", #elements="    + getResultsElements().size()
+                        + ", nextCursor="   + getNextCursor()
                         + "]"
                         ;
     }
@@ -20,6 +20,7 @@ package jp.go.aist.six.util.search;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 
@@ -36,8 +37,20 @@ import java.util.List;
  *   the offset of the first object to return.
  *   The default value is 0.
  *   </li>
+ *   <li><b>after</b> (option):
+ *   the ordering key of the last object of the previous page.
+ *   The search continues after that key.
+ *   </li>
  * </ul>
  *
+ * <p>With the "after" key, a page is selected by a range predicate
+ * on the ordering properties instead of skipping the preceding objects,
+ * so each page costs the same regardless of its position.
+ * The key values correspond to the orders of the search criteria,
+ * and the last order should be a unique property, e.g. the persistent ID,
+ * to make the position unambiguous.
+ * </p>
+ *
  * @author  Akihito Nakamura, AIST
  * @version $Id: Limit.java 473 2013-02-20 08:41:32Z nakamura5akihito@gmail.com $
  */
@@ -62,6 +75,13 @@ public class Limit
 
 
 
+    /**
+     * The ordering key of the last object of the previous page (option).
+     */
+    private Object[]  _after;
+
+
+
     /**
      * Default constructor.
      */
@@ -170,6 +190,55 @@ public class Limit
 
 
 
+    /**
+     * Sets the ordering key of the last object of the previous page.
+     *
+     * @param   lastKey
+     *  the values of the ordering properties of the last object,
+     *  or null to start from the first object.
+     */
+    public void setAfter(
+                    final Object[] lastKey
+                    )
+    {
+        _after = (lastKey == null  ||  lastKey.length == 0
+                        ? null : lastKey.clone());
+    }
+
+
+    /**
+     * Returns the ordering key of the last object of the previous page.
+     *
+     * @return
+     *  the values of the ordering properties,
+     *  or null if not specified.
+     */
+    public Object[] getAfter()
+    {
+        return (_after == null ? null : _after.clone());
+    }
+
+
+    /**
+     * Continues the search after the specified ordering key.
+     * This is a convenient method for the chained invocation,
+     * e.g. new Limit( 100 ).after( lastDate, lastId ).
+     *
+     * @param   lastKey
+     *  the values of the ordering properties of the last object.
+     * @return
+     *  this Limit.
+     */
+    public Limit after(
+                    final Object... lastKey
+                    )
+    {
+        setAfter( lastKey );
+        return this;
+    }
+
+
+
     /**
      * Extracts a range from the specified object list
      * according to this LIMIT constraint.
@@ -236,7 +305,8 @@ public class Limit
     /**
      * Determines whether another object is equal to this Limit.
      * The result is true if and only if the argument is not null
-     * and is a Limit object that has the same count and offset.
+     * and is a Limit object that has the same count, offset,
+     * and "after" key.
      *
      * @param   obj
      *  the object to test for equality with this Limit.
@@ -259,7 +329,8 @@ public class Limit
 
         final Limit  other = (Limit)obj;
         if (getCount() == other.getCount()
-                        &&  getOffset() == other.getOffset()) {
+                        &&  getOffset() == other.getOffset()
+                        &&  Arrays.equals( _after, other._after )) {
             return true;
         }
 
@@ -282,6 +353,7 @@ public class Limit
 
         result = prime * result + getCount();
         result = prime * result + getOffset();
+        result = prime * result + Arrays.hashCode( _after );
 
         return result;
     }
@@ -302,6 +374,7 @@ public class Limit
     {
         return "Limit[count=" + _count
                     + ",offset=" + _offset
+                    + (_after == null ? "" : ",after=" + Arrays.toString( _after ))
                     + "]";
     }
 
@@ -0,0 +1,118 @@
+package jp.go.aist.six.util;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+
+
+public class ObjectCacheTest
+{
+
+    /**
+     * TEST: the least recently used entry is evicted.
+     */
+    @Test
+    public void testLru()
+    throws Exception
+    {
+        ObjectCache<String, String>  cache = new ObjectCache<String, String>( 2, 0L );
+        cache.put( "a", "A" );
+        cache.put( "b", "B" );
+        assertThat( cache.get( "a" ), is( "A" ) );
+
+        // "b" is the least recently used
+        cache.put( "c", "C" );
+        assertThat( cache.size(), is( 2 ) );
+        assertThat( cache.get( "b" ), is( nullValue() ) );
+        assertThat( cache.get( "a" ), is( "A" ) );
+        assertThat( cache.get( "c" ), is( "C" ) );
+        assertThat( cache.getEvictionCount(), is( 1L ) );
+    }
+
+
+
+    /**
+     * TEST: an entry older than the time-to-live is absent.
+     */
+    @Test
+    public void testTimeToLive()
+    throws Exception
+    {
+        ObjectCache<String, String>  cache = new ObjectCache<String, String>( 10, 20L );
+        cache.put( "a", "A" );
+        assertThat( cache.get( "a" ), is( "A" ) );
+
+        Thread.sleep( 50L );
+        assertThat( cache.get( "a" ), is( nullValue() ) );
+        assertThat( cache.size(), is( 0 ) );
+        assertThat( cache.getExpirationCount(), is( 1L ) );
+
+        // zero: never expire
+        cache = new ObjectCache<String, String>( 10, 0L );
+        cache.put( "a", "A" );
+        Thread.sleep( 50L );
+        assertThat( cache.get( "a" ), is( "A" ) );
+    }
+
+
+
+    /**
+     * TEST: a value read before a concurrent eviction is not put.
+     */
+    @Test
+    public void testConditionalPut()
+    throws Exception
+    {
+        ObjectCache<String, String>  cache = new ObjectCache<String, String>( 10, 0L );
+
+        // reader: obtains the version, and loads v1
+        long  version = cache.getVersion( "a" );
+
+        // writer: commits v2, and evicts
+        cache.remove( "a" );
+
+        // reader: completes after the eviction
+        assertThat( cache.put( "a", "v1", version ), is( false ) );
+        assertThat( cache.get( "a" ), is( nullValue() ) );
+
+        // the next reader loads v2
+        version = cache.getVersion( "a" );
+        assertThat( cache.put( "a", "v2", version ), is( true ) );
+        assertThat( cache.get( "a" ), is( "v2" ) );
+
+        // the eviction of another key does not affect
+        version = cache.getVersion( "b" );
+        cache.remove( "c" );
+        assertThat( cache.put( "b", "B", version ), is( true ) );
+
+        // clear invalidates all the keys
+        version = cache.getVersion( "d" );
+        cache.clear();
+        assertThat( cache.put( "d", "D", version ), is( false ) );
+    }
+
+
+
+    /**
+     * TEST: a forgotten invalidation still rejects the put.
+     */
+    @Test
+    public void testConditionalPutForgotten()
+    throws Exception
+    {
+        ObjectCache<String, String>  cache = new ObjectCache<String, String>( 2, 0L );
+        long  version = cache.getVersion( "a" );
+        cache.remove( "a" );
+
+        // the invalidation of "a" is forgotten
+        cache.remove( "x" );
+        cache.remove( "y" );
+        assertThat( cache.put( "a", "v1", version ), is( false ) );
+
+        version = cache.getVersion( "a" );
+        assertThat( cache.put( "a", "v2", version ), is( true ) );
+    }
+
+}
+//
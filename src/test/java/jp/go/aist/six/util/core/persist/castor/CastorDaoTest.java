@@ -0,0 +1,590 @@
+package jp.go.aist.six.util.core.persist.castor;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import jp.go.aist.six.util.BeansUtil;
+import jp.go.aist.six.util.persist.AbstractPersistable;
+import jp.go.aist.six.util.persist.AssociationEntry;
+import jp.go.aist.six.util.persist.LazyList;
+import jp.go.aist.six.util.persist.Persistable;
+import jp.go.aist.six.util.search.InBinding;
+import jp.go.aist.six.util.search.Limit;
+import jp.go.aist.six.util.search.PropertyProjection;
+import jp.go.aist.six.util.search.SearchCriteria;
+import org.exolab.castor.jdo.QueryResults;
+import org.junit.Test;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+
+
+public class CastorDaoTest
+{
+
+    /**
+     * TEST: the key of the unique-key index of the bulk import.
+     * The values from the OQL projection must match those from the helper.
+     */
+    @Test
+    public void testUniqueKey()
+    throws Exception
+    {
+        // single property: the scalar from the OQL row, the unary array from the helper
+        assertThat( CastorDao._uniqueKey( "oval:org.mitre.oval:def:1" ),
+                        is( CastorDao._uniqueKey( new Object[] { "oval:org.mitre.oval:def:1" } ) ) );
+
+        // Integer from OQL, Long from the property
+        assertThat( CastorDao._uniqueKey( new Object[] { "def", Integer.valueOf( 3 ) } ),
+                        is( CastorDao._uniqueKey( new Object[] { "def", Long.valueOf( 3L ) } ) ) );
+
+        // Timestamp from OQL, Date from the property
+        long  time = System.currentTimeMillis();
+        assertThat( CastorDao._uniqueKey( new Timestamp( time ) ),
+                        is( CastorDao._uniqueKey( new Date( time ) ) ) );
+
+        // the scale of the decimal
+        assertThat( CastorDao._uniqueKey( new BigDecimal( "1.50" ) ),
+                        is( CastorDao._uniqueKey( new BigDecimal( "1.5" ) ) ) );
+
+        assertThat( CastorDao._uniqueKey( new Object[] { "def", Integer.valueOf( 3 ) } )
+                        .equals( CastorDao._uniqueKey( new Object[] { "def", Integer.valueOf( 4 ) } ) ),
+                        is( false ) );
+    }
+
+
+
+    /**
+     * TEST: the unique-key index of the bulk import.
+     * The changes are applied only when the transaction is committed.
+     */
+    @Test
+    public void testUniqueIndex()
+    throws Exception
+    {
+        // the rows of SELECT o.persistentID, o.name, o.version
+        List<Object>  rows = new ArrayList<Object>();
+        rows.add( new Object[] { "id1", "def", Integer.valueOf( 1 ) } );
+        rows.add( new Object[] { "id2", "def", Integer.valueOf( 2 ) } );
+        CastorDao.UniqueIndex<String>  index = CastorDao._buildUniqueIndex( rows );
+        assertThat( index.size(), is( 2 ) );
+        assertThat( index.get( CastorDao._uniqueKey( new Object[] { "def", Long.valueOf( 1L ) } ) ),
+                        is( "id1" ) );
+        assertThat( index.get( CastorDao._uniqueKey( new Object[] { "def", Long.valueOf( 3L ) } ) ),
+                        is( nullValue() ) );
+
+        List<Object>  key1 = CastorDao._uniqueKey( new Object[] { "def", Long.valueOf( 1L ) } );
+        List<Object>  key3 = CastorDao._uniqueKey( new Object[] { "def", Long.valueOf( 3L ) } );
+
+        // rolled back: the changes are visible only in the transaction
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            index.put( key3, "id3" );
+            index.remove( key1 );
+            assertThat( index.get( key3 ), is( "id3" ) );
+            assertThat( index.get( key1 ), is( nullValue() ) );
+            _complete( TransactionSynchronization.STATUS_ROLLED_BACK );
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        assertThat( index.get( key3 ), is( nullValue() ) );
+        assertThat( index.get( key1 ), is( "id1" ) );
+
+        // committed
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            index.put( key3, "id3" );
+            index.remove( key1 );
+            _complete( TransactionSynchronization.STATUS_COMMITTED );
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        assertThat( index.get( key3 ), is( "id3" ) );
+        assertThat( index.get( key1 ), is( nullValue() ) );
+        assertThat( index.size(), is( 2 ) );
+
+        // no transaction synchronization: applied immediately
+        index.remove( key3 );
+        assertThat( index.get( key3 ), is( nullValue() ) );
+    }
+
+
+
+    /**
+     * TEST: the relation list of _fetchRelation,
+     * fetched on load if eager, or on first access if lazy.
+     */
+    @Test
+    public void testRelationList()
+    throws Exception
+    {
+        final AtomicInteger  loads = new AtomicInteger();
+        LazyList.Loader<String>  loader = new LazyList.Loader<String>()
+        {
+            public List<String> load()
+            {
+                loads.incrementAndGet();
+                return Arrays.asList( "ref1", "ref2" );
+            }
+        };
+
+        List<String>  eager = CastorDao._relationList( true, loader );
+        assertThat( eager instanceof LazyList, is( false ) );
+        assertThat( loads.get(), is( 1 ) );
+        assertThat( eager, is( Arrays.asList( "ref1", "ref2" ) ) );
+
+        List<String>  lazy = CastorDao._relationList( false, loader );
+        assertThat( lazy instanceof LazyList, is( true ) );
+        assertThat( loads.get(), is( 1 ) );
+        assertThat( lazy, is( Arrays.asList( "ref1", "ref2" ) ) );
+        assertThat( loads.get(), is( 2 ) );
+    }
+
+
+
+    /**
+     * TEST: the declared relation of a result page is fetched
+     * in an IN LIST query per chunk of IN_LIST_MAX_SIZE objects,
+     * instead of one query per object.
+     */
+    @Test
+    public void testRelationPage()
+    throws Exception
+    {
+        final int  size = CastorDao.IN_LIST_MAX_SIZE + 100;
+        final Map<String, Parent>  parents = new HashMap<String, Parent>();
+        final List<Child>  children = new ArrayList<Child>();
+        List<String>  ids = new ArrayList<String>();
+        for (int  i = 0; i < size; i++) {
+            String  id = "p" + i;
+            ids.add( id );
+            parents.put( id, new Parent( id ) );
+            children.add( new Child( "c" + i + "-1", id ) );
+            children.add( new Child( "c" + i + "-2", id ) );
+        }
+
+        ExtendedCastorTemplate  template = new ExtendedCastorTemplate()
+        {
+            @Override
+            public List<Object> findByQuery(
+                            final String oql,
+                            final Object[] params
+                            )
+            {
+                List<Object>  values = Arrays.asList( params );
+                List<Object>  results = new ArrayList<Object>();
+                if (oql.contains( Parent.class.getName() )) {
+                    for (Object  id : values) {
+                        results.add( parents.get( id ) );
+                    }
+                } else {
+                    for (Child  child : children) {
+                        if (values.contains( child.getParentID() )) {
+                            results.add( child );
+                        }
+                    }
+                }
+                return results;
+            }
+
+            @Override
+            public Object load(
+                            final Class entityClass,
+                            final Object id
+                            )
+            {
+                return parents.get( id );
+            }
+        };
+
+        final CastorDao<String, Child>  childDao = new CastorDao<String, Child>( Child.class );
+        childDao.setCastorTemplate( template );
+        CastorDao<String, Parent>  parentDao = new CastorDao<String, Parent>( Parent.class );
+        parentDao.setCastorTemplate( template );
+        parentDao.setDaoRegistry( new DaoRegistry()
+        {
+            @SuppressWarnings( "unchecked" )
+            public <K, T extends Persistable<K>> CastorDao<K, T> getDao(
+                            final Class<T> type
+                            )
+            {
+                return (CastorDao<K, T>)childDao;
+            }
+        });
+        parentDao._declareRelation( "children", Child.class, "parentID", "children", null );
+
+        final List<String>  queries = new ArrayList<String>();
+        QueryListener  listener = new QueryListener()
+        {
+            public void queryExecuted( final Class<?> type, final String statement,
+                            final Object[] params, final int rowCount, final long elapsedNanos )
+            {
+                queries.add( type.getSimpleName() );
+            }
+
+            public void queryFailed( final Class<?> type, final String statement,
+                            final Object[] params, final Throwable error, final long elapsedNanos )
+            {
+            }
+        };
+        parentDao.addQueryListener( listener );
+        childDao.addQueryListener( listener );
+
+        // a page found by an IN LIST query: one query of the relation per chunk
+        List<Parent>  page = parentDao._findByPropertyIn( "persistentID", ids );
+        assertThat( page.size(), is( size ) );
+        assertThat( queries, is( Arrays.asList( "Parent", "Child", "Parent", "Child" ) ) );
+        for (Parent  parent : page) {
+            String  id = parent.getPersistentID();
+            assertThat( parent.getChildren().size(), is( 2 ) );
+            assertThat( parent.getChildren().get( 0 ).getPersistentID(), is( "c" + id.substring( 1 ) + "-1" ) );
+            assertThat( parent.getChildren().get( 1 ).getParentID(), is( id ) );
+        }
+
+        // a page loaded one by one: one query of the relation for the page
+        queries.clear();
+        page = parentDao.loadAll( ids.subList( 0, 3 ) );
+        assertThat( page.size(), is( 3 ) );
+        assertThat( queries, is( Arrays.asList( "Child" ) ) );
+        assertThat( page.get( 2 ).getChildren().size(), is( 2 ) );
+    }
+
+
+
+    /**
+     * TEST: removeAll removes the declared associations first,
+     * and returns the number of the objects removed.
+     * The relations of the removed objects are not fetched.
+     */
+    @Test
+    public void testRemoveAll()
+    throws Exception
+    {
+        FakeTemplate  template = new FakeTemplate();
+        for (int  i = 0; i < 5; i++) {
+            template.add( new Parent( "p" + i ) );
+            template.add( new Child( "c" + i, "p" + i ) );
+            template.add( new Link( "l" + i, "p" + i, "d" ) );
+        }
+        template.add( new Link( "lx", "x", "p0" ) );
+
+        final Map<Class<?>, CastorDao<?, ?>>  daos = new HashMap<Class<?>, CastorDao<?, ?>>();
+        daos.put( Parent.class, new CastorDao<String, Parent>( Parent.class ) );
+        daos.put( Child.class, new CastorDao<String, Child>( Child.class ) );
+        daos.put( Link.class, new AssociationEntryDao<String, Link>( Link.class ) );
+        DaoRegistry  registry = new DaoRegistry()
+        {
+            @SuppressWarnings( "unchecked" )
+            public <K, T extends Persistable<K>> CastorDao<K, T> getDao(
+                            final Class<T> type
+                            )
+            {
+                return (CastorDao<K, T>)daos.get( type );
+            }
+        };
+        for (CastorDao<?, ?>  dao : daos.values()) {
+            dao.setCastorTemplate( template );
+            dao.setDaoRegistry( registry );
+        }
+
+        CastorDao<String, Parent>  parentDao = registry.getDao( Parent.class );
+        parentDao._declareRelation( "children", Child.class, "parentID", "children", null );
+        parentDao._declareAssociation( Link.class, "antecendentPersistentID" );
+
+        int  count = parentDao.removeAll( new InBinding( "persistentID",
+                        Arrays.asList( "p0", "p1", "p2", "p9" ) ) );
+        assertThat( count, is( 3 ) );
+        assertThat( template.getRemovedIDs(),
+                        is( Arrays.<Object>asList( "l0", "l1", "l2", "p0", "p1", "p2" ) ) );
+        // the relation of the removed objects is not fetched
+        assertThat( template.getQueriedTypes().contains( Child.class.getName() ), is( false ) );
+
+        assertThat( parentDao.removeAll( new InBinding( "persistentID",
+                        Arrays.asList( "p9" ) ) ), is( 0 ) );
+    }
+
+
+
+    /**
+     * TEST: the projected rows are read from the cursor
+     * only up to offset + count of the limit.
+     */
+    @Test
+    public void testSearchRowsLimit()
+    throws Exception
+    {
+        final AtomicInteger  reads = new AtomicInteger();
+        final AtomicInteger  closes = new AtomicInteger();
+        final List<String>  statements = new ArrayList<String>();
+        ExtendedCastorTemplate  template = new ExtendedCastorTemplate()
+        {
+            @Override
+            public QueryResults openQuery(
+                            final String oql,
+                            final Object[] params
+                            )
+            {
+                statements.add( oql );
+                return _cursor( 1000, reads, closes );
+            }
+        };
+
+        CastorDao<String, Parent>  dao = new CastorDao<String, Parent>( Parent.class );
+        dao.setCastorTemplate( template );
+
+        SearchCriteria  criteria = new SearchCriteria();
+        criteria.setProjections( Arrays.asList( new PropertyProjection( "persistentID" ) ) );
+        criteria.setLimit( new Limit( 10, 5 ) );
+        List<Object[]>  rows = dao.searchRows( criteria );
+
+        assertThat( rows.size(), is( 10 ) );
+        assertThat( rows.get( 0 )[0], is( (Object)"row5" ) );
+        assertThat( rows.get( 9 )[0], is( (Object)"row14" ) );
+        assertThat( reads.get(), is( 15 ) );
+        assertThat( closes.get(), is( 1 ) );
+        // no LIMIT clause in the statement
+        assertThat( statements.get( 0 ).contains( "LIMIT" ), is( false ) );
+    }
+
+
+
+    /**
+     * A cursor of the specified number of the rows, "row0", "row1", ...
+     */
+    private static QueryResults _cursor(
+                    final int size,
+                    final AtomicInteger reads,
+                    final AtomicInteger closes
+                    )
+    {
+        InvocationHandler  handler = new InvocationHandler()
+        {
+            public Object invoke(
+                            final Object proxy,
+                            final Method method,
+                            final Object[] args
+                            )
+            {
+                String  name = method.getName();
+                if ("hasMore".equals( name )  ||  "hasMoreElements".equals( name )) {
+                    return Boolean.valueOf( reads.get() < size );
+                } else if ("next".equals( name )  ||  "nextElement".equals( name )) {
+                    return "row" + reads.getAndIncrement();
+                } else if ("close".equals( name )) {
+                    closes.incrementAndGet();
+                    return null;
+                }
+                throw new UnsupportedOperationException( name );
+            }
+        };
+
+        return (QueryResults)Proxy.newProxyInstance( QueryResults.class.getClassLoader(),
+                        new Class<?>[] { QueryResults.class }, handler );
+    }
+
+
+
+    private static void _complete(
+                    final int status
+                    )
+    {
+        for (TransactionSynchronization  sync : TransactionSynchronizationManager.getSynchronizations()) {
+            sync.afterCompletion( status );
+        }
+    }
+
+
+
+    public static class Parent
+        extends AbstractPersistable<String>
+    {
+        private List<Child>  _children;
+
+
+        public Parent()
+        {
+        }
+
+
+        public Parent(
+                        final String id
+                        )
+        {
+            setPersistentID( id );
+        }
+
+
+        public void setChildren(
+                        final List<Child> children
+                        )
+        {
+            _children = children;
+        }
+
+
+        public List<Child> getChildren()
+        {
+            return _children;
+        }
+    }
+    // Parent
+
+
+
+    public static class Child
+        extends AbstractPersistable<String>
+    {
+        private String  _parentID;
+
+
+        public Child()
+        {
+        }
+
+
+        public Child(
+                        final String id,
+                        final String parentID
+                        )
+        {
+            setPersistentID( id );
+            _parentID = parentID;
+        }
+
+
+        public void setParentID(
+                        final String parentID
+                        )
+        {
+            _parentID = parentID;
+        }
+
+
+        public String getParentID()
+        {
+            return _parentID;
+        }
+    }
+    // Child
+
+
+
+    public static class Link
+        extends AssociationEntry<String, String, String>
+    {
+        public Link()
+        {
+        }
+
+
+        public Link(
+                        final String id,
+                        final String antecendentID,
+                        final String dependentID
+                        )
+        {
+            super( antecendentID, dependentID );
+            setPersistentID( id );
+        }
+    }
+    // Link
+
+
+
+    /**
+     * A template over the objects in memory.
+     * It executes the queries of the objects of a type
+     * filtered by an IN LIST of a property, if any,
+     * and records the removed objects.
+     */
+    public static class FakeTemplate
+        extends ExtendedCastorTemplate
+    {
+        private static final Pattern  _QUERY_ =
+            Pattern.compile( "FROM (\\S+) o(?:\\s+WHERE o\\.(\\w+) IN LIST)?" );
+
+        private final List<Persistable<?>>  _objects = new ArrayList<Persistable<?>>();
+        private final List<Object>  _removedIDs = new ArrayList<Object>();
+        private final List<String>  _queriedTypes = new ArrayList<String>();
+
+
+        public void add(
+                        final Persistable<?> object
+                        )
+        {
+            _objects.add( object );
+        }
+
+
+        public List<Object> getRemovedIDs()
+        {
+            return _removedIDs;
+        }
+
+
+        public List<String> getQueriedTypes()
+        {
+            return _queriedTypes;
+        }
+
+
+        @Override
+        public List<Object> findByQuery(
+                        final String oql,
+                        final Object[] params
+                        )
+        {
+            Matcher  matcher = _QUERY_.matcher( oql );
+            if (! matcher.find()) {
+                throw new IllegalArgumentException( oql );
+            }
+            String  type = matcher.group( 1 );
+            String  property = matcher.group( 2 );
+            boolean  identity = oql.startsWith( "SELECT DISTINCT o.persistentID" );
+            _queriedTypes.add( type );
+
+            List<Object>  results = new ArrayList<Object>();
+            for (Persistable<?>  object : _objects) {
+                if (object.getClass().getName().equals( type )
+                                &&  (property == null  ||  Arrays.asList( params ).contains(
+                                                BeansUtil.getProperty( object, property ) ))) {
+                    results.add( identity ? object.getPersistentID() : object );
+                }
+            }
+            return results;
+        }
+
+
+        @Override
+        public void remove(
+                        final Object object
+                        )
+        {
+            for (Iterator<Persistable<?>>  i = _objects.iterator(); i.hasNext(); ) {
+                if (i.next() == object) {
+                    i.remove();
+                    _removedIDs.add( ((Persistable<?>)object).getPersistentID() );
+                    return;
+                }
+            }
+            throw new IllegalArgumentException( "not persistent: " + object );
+        }
+    }
+    // FakeTemplate
+
+}
+//
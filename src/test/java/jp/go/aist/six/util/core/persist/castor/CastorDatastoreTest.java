@@ -0,0 +1,133 @@
+package jp.go.aist.six.util.core.persist.castor;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import jp.go.aist.six.util.search.Order;
+import org.junit.Test;
+
+
+
+public class CastorDatastoreTest
+{
+
+    /**
+     * TEST: the identity is appended to the ordering of the iteration.
+     */
+    @Test
+    public void testWithIdentityOrder()
+    throws Exception
+    {
+        List<Order>  ordering = CastorDatastore._withIdentityOrder( null );
+        assertThat( ordering, is( Arrays.asList( new Order( "persistentID" ) ) ) );
+
+        ordering = CastorDatastore._withIdentityOrder(
+                        Arrays.asList( new Order( "name", true ) ) );
+        assertThat( ordering, is( Arrays.asList(
+                        new Order( "name", true ), new Order( "persistentID" ) ) ) );
+
+        ordering = CastorDatastore._withIdentityOrder(
+                        Arrays.asList( new Order( "persistentID", true ) ) );
+        assertThat( ordering, is( Arrays.asList( new Order( "persistentID", true ) ) ) );
+    }
+
+
+
+    /**
+     * TEST: the iteration loads the objects page by page,
+     * following the key of the last object of the previous page.
+     */
+    @Test
+    public void testKeysetIterator()
+    throws Exception
+    {
+        final List<Item>  items = new ArrayList<Item>();
+        for (int  i = 0; i < 7; i++) {
+            // the names are not unique
+            items.add( new Item( "id" + i, (i < 4 ? "a" : "b") ) );
+        }
+
+        final List<Object[]>  keys = new ArrayList<Object[]>();
+        List<Order>  ordering = CastorDatastore._withIdentityOrder(
+                        Arrays.asList( new Order( "name" ) ) );
+        CastorDatastore.KeysetIterator<Item>  iterator =
+            new CastorDatastore.KeysetIterator<Item>( ordering, 3 )
+        {
+            @Override
+            protected List<Item> _findPage(
+                            final Object[] after,
+                            final int count
+                            )
+            {
+                keys.add( after );
+                List<Item>  page = new ArrayList<Item>();
+                for (Item  item : items) {
+                    if (page.size() < count  &&  (after == null  ||  item.follows( after ))) {
+                        page.add( item );
+                    }
+                }
+                return page;
+            }
+        };
+
+        List<String>  ids = new ArrayList<String>();
+        while (iterator.hasNext()) {
+            ids.add( iterator.next().getPersistentID() );
+        }
+
+        assertThat( ids, is( Arrays.asList( "id0", "id1", "id2", "id3", "id4", "id5", "id6" ) ) );
+        // 3 + 3 + 1; the last page is shorter, so no more query
+        assertThat( keys.size(), is( 3 ) );
+        assertThat( keys.get( 0 ), is( nullValue() ) );
+        assertThat( Arrays.asList( keys.get( 1 ) ), is( Arrays.<Object>asList( "a", "id2" ) ) );
+        assertThat( Arrays.asList( keys.get( 2 ) ), is( Arrays.<Object>asList( "b", "id5" ) ) );
+        assertThat( iterator.hasNext(), is( false ) );
+    }
+
+
+
+    public static class Item
+    {
+        private final String  _id;
+        private final String  _name;
+
+
+        public Item(
+                        final String id,
+                        final String name
+                        )
+        {
+            _id = id;
+            _name = name;
+        }
+
+
+        public String getPersistentID()
+        {
+            return _id;
+        }
+
+
+        public String getName()
+        {
+            return _name;
+        }
+
+
+        /**
+         * (name, persistentID) > after
+         */
+        boolean follows(
+                        final Object[] after
+                        )
+        {
+            int  c = _name.compareTo( (String)after[0] );
+            return (c > 0  ||  (c == 0  &&  _id.compareTo( (String)after[1] ) > 0));
+        }
+    }
+    // Item
+
+}
+//
@@ -0,0 +1,132 @@
+package jp.go.aist.six.util.core.persist.castor;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+import java.util.Arrays;
+import jp.go.aist.six.util.persist.AssociationEntry;
+import jp.go.aist.six.util.search.Aggregation;
+import jp.go.aist.six.util.search.Limit;
+import jp.go.aist.six.util.search.Order;
+import jp.go.aist.six.util.search.PropertyProjection;
+import jp.go.aist.six.util.search.RelationalBinding;
+import jp.go.aist.six.util.search.SearchCriteria;
+import org.junit.Test;
+
+
+
+public class OQLTest
+{
+
+    private static final String  _FROM_ = " FROM " + AssociationEntry.class.getName() + " o";
+
+
+
+    /**
+     * TEST: the projections of the properties.
+     */
+    @Test
+    public void testProjection()
+    throws Exception
+    {
+        SearchCriteria  criteria = new SearchCriteria();
+        criteria.setProjections( Arrays.asList(
+                        new PropertyProjection( "name" ), new PropertyProjection( "version" ) ) );
+        OQL  oql = new OQL( AssociationEntry.class, "o", criteria );
+        assertThat( oql.getStatement(), is( "SELECT  DISTINCT o.name,o.version" + _FROM_ ) );
+        assertThat( oql.getParameterValues().length, is( 0 ) );
+
+        criteria.setDistinct( false );
+        oql = new OQL( AssociationEntry.class, "o", criteria );
+        assertThat( oql.getStatement(), is( "SELECT o.name,o.version" + _FROM_ ) );
+    }
+
+
+
+    /**
+     * TEST: the aggregations, to which DISTINCT is not applied.
+     */
+    @Test
+    public void testAggregation()
+    throws Exception
+    {
+        SearchCriteria  criteria = new SearchCriteria();
+        criteria.setProjections( Arrays.asList( Aggregation.countAll(), Aggregation.max( "version" ) ) );
+        criteria.setBinding( RelationalBinding.equalBinding( "name", "def" ) );
+        OQL  oql = new OQL( AssociationEntry.class, "o", criteria );
+        assertThat( oql.getStatement(),
+                        is( "SELECT count(*),max(o.version)" + _FROM_ + " WHERE o.name = $1" ) );
+        assertThat( Arrays.asList( oql.getParameterValues() ), is( Arrays.<Object>asList( "def" ) ) );
+
+        // mixed with a property, and ordered
+        criteria = new SearchCriteria();
+        criteria.setProjections( Arrays.asList(
+                        new PropertyProjection( "name" ), Aggregation.count( "version" ) ) );
+        criteria.setOrders( Arrays.asList( new Order( "name", true ) ) );
+        oql = new OQL( AssociationEntry.class, "o", criteria );
+        assertThat( oql.getStatement(),
+                        is( "SELECT o.name,count(o.version)" + _FROM_ + " ORDER BY o.name DESC" ) );
+
+        criteria = new SearchCriteria();
+        criteria.setProjections( Arrays.asList(
+                        Aggregation.avg( "size" ), Aggregation.sum( "size" ), Aggregation.min( "size" ) ) );
+        oql = new OQL( AssociationEntry.class, "o", criteria );
+        assertThat( oql.getStatement(),
+                        is( "SELECT avg(o.size),sum(o.size),min(o.size)" + _FROM_ ) );
+    }
+
+
+
+    /**
+     * TEST: the keyset predicate of a multi-column, mixed-direction ordering.
+     */
+    @Test
+    public void testSeek()
+    throws Exception
+    {
+        SearchCriteria  criteria = new SearchCriteria();
+        criteria.setBinding( RelationalBinding.equalBinding( "type", "x" ) );
+        criteria.setOrders( Arrays.asList(
+                        new Order( "name", true ), new Order( "version" ), new Order( "persistentID" ) ) );
+        criteria.setLimit( new Limit( 10 ).after( "b", 3, "id5" ) );
+        OQL  oql = new OQL( AssociationEntry.class, "o", criteria );
+        assertThat( oql.getStatement(), is( "SELECT  DISTINCT o" + _FROM_
+                        + " WHERE o.type = $1 AND  ((o.name < $2)"
+                        + " OR (o.name = $3 AND o.version > $4)"
+                        + " OR (o.name = $5 AND o.version = $6 AND o.persistentID > $7))"
+                        + " ORDER BY o.name DESC,o.version,o.persistentID" ) );
+        assertThat( Arrays.asList( oql.getParameterValues() ),
+                        is( Arrays.<Object>asList( "x", "b", "b", 3, "b", 3, "id5" ) ) );
+
+        // a single column without binding
+        criteria = new SearchCriteria();
+        criteria.setOrders( Arrays.asList( new Order( "persistentID" ) ) );
+        criteria.setLimit( new Limit( 10 ).after( "id5" ) );
+        oql = new OQL( AssociationEntry.class, "o", criteria );
+        assertThat( oql.getStatement(), is( "SELECT  DISTINCT o" + _FROM_
+                        + " WHERE  ((o.persistentID > $1))"
+                        + " ORDER BY o.persistentID" ) );
+        assertThat( Arrays.asList( oql.getParameterValues() ), is( Arrays.<Object>asList( "id5" ) ) );
+    }
+
+
+
+    /**
+     * TEST: the key must have a value for each order.
+     */
+    @Test
+    public void testSeekMismatch()
+    throws Exception
+    {
+        SearchCriteria  criteria = new SearchCriteria();
+        criteria.setOrders( Arrays.asList( new Order( "name" ), new Order( "persistentID" ) ) );
+        criteria.setLimit( new Limit( 10 ).after( "b" ) );
+        try {
+            new OQL( AssociationEntry.class, "o", criteria );
+            fail( "mismatched key accepted" );
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+    }
+
+}
+//
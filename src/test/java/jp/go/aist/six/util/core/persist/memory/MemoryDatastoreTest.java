@@ -0,0 +1,165 @@
+package jp.go.aist.six.util.core.persist.memory;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import jp.go.aist.six.util.persist.AbstractPersistable;
+import jp.go.aist.six.util.persist.DuplicateObjectException;
+import jp.go.aist.six.util.search.Aggregation;
+import jp.go.aist.six.util.search.AndBinding;
+import jp.go.aist.six.util.search.Limit;
+import jp.go.aist.six.util.search.Order;
+import jp.go.aist.six.util.search.RelationalBinding;
+import jp.go.aist.six.util.search.SearchCriteria;
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class MemoryDatastoreTest
+{
+
+    public static class Item
+        extends AbstractPersistable<Long>
+    {
+        private String  _name;
+        private int  _size;
+
+        public Item()
+        {
+        }
+
+        public Item( final long id, final String name, final int size )
+        {
+            setPersistentID( id );
+            _name = name;
+            _size = size;
+        }
+
+        public String getName()
+        {
+            return _name;
+        }
+
+        public void setName( final String name )
+        {
+            _name = name;
+        }
+
+        public int getSize()
+        {
+            return _size;
+        }
+
+        public void setSize( final int size )
+        {
+            _size = size;
+        }
+    }
+
+
+
+    private MemoryDatastore  _datastore;
+
+
+    @Before
+    public void setUp()
+    {
+        _datastore = new MemoryDatastore( 4 );
+        _datastore.declareSortedIndex( Item.class, "size" );
+        _datastore.declareUniqueIndex( Item.class, "name" );
+        for (int  i = 1; i <= 10; i++) {
+            _datastore.create( Item.class, new Item( i, "item" + i, i % 4 ) );
+        }
+    }
+
+
+
+    /**
+     * TEST: the indexed bindings, ordering and keyset paging.
+     */
+    @Test
+    public void testFind()
+    throws Exception
+    {
+        AndBinding  filter = new AndBinding(
+                        RelationalBinding.greaterEqualBinding( "size", 2 ),
+                        RelationalBinding.lessThanBinding( "persistentID", 9L ) );
+        List<Order>  ordering = Arrays.asList( new Order( "size", true ), new Order( "persistentID" ) );
+
+        List<Long>  ids = new ArrayList<Long>(
+                        _datastore.findIdentity( Item.class, filter, ordering, new Limit( 3 ) ) );
+        assertThat( ids, is( Arrays.asList( 3L, 7L, 2L ) ) );
+
+        ids = new ArrayList<Long>( _datastore.findIdentity( Item.class, filter, ordering,
+                        new Limit( 3 ).after( 2, 2L ) ) );
+        assertThat( ids, is( Arrays.asList( 6L ) ) );
+    }
+
+
+
+    /**
+     * TEST: the index is maintained on update, and the unique index on create.
+     */
+    @Test
+    public void testUpdate()
+    throws Exception
+    {
+        Item  item = _datastore.load( Item.class, 5L );
+        item.setSize( 3 );
+        _datastore.update( Item.class, item );
+        assertThat( _datastore.count( Item.class, RelationalBinding.equalBinding( "size", 3 ) ), is( 3 ) );
+        assertThat( _datastore.count( Item.class, RelationalBinding.equalBinding( "size", 1 ) ), is( 2 ) );
+
+        try {
+            _datastore.create( Item.class, new Item( 11, "item1", 0 ) );
+            fail( "duplicate name" );
+        } catch (DuplicateObjectException ex) {
+            // expected
+        }
+        assertThat( _datastore.count( Item.class ), is( 10 ) );
+    }
+
+
+
+    /**
+     * TEST: the aggregations.
+     */
+    @Test
+    public void testSearchRows()
+    throws Exception
+    {
+        SearchCriteria  criteria = new SearchCriteria()
+                        .addProjection( Aggregation.countAll() )
+                        .addProjection( Aggregation.sum( "size" ) )
+                        .addProjection( Aggregation.max( "name" ) );
+        Object[]  row = _datastore.searchRows( Item.class, criteria ).get( 0 );
+        assertThat( row[0], is( (Object)Integer.valueOf( 10 ) ) );
+        assertThat( row[1], is( (Object)Long.valueOf( 15L ) ) );
+        assertThat( row[2], is( (Object)"item9" ) );
+
+        criteria = new SearchCriteria()
+                        .addProjection( Aggregation.min( "name" ) )
+                        .addProjection( Aggregation.min( "size" ) )
+                        .addProjection( Aggregation.max( "size" ) );
+        row = _datastore.searchRows( Item.class, criteria ).get( 0 );
+        assertThat( row[0], is( (Object)"item1" ) );
+        assertThat( row[1], is( (Object)Integer.valueOf( 0 ) ) );
+        assertThat( row[2], is( (Object)Integer.valueOf( 3 ) ) );
+
+        // no objects match
+        criteria = new SearchCriteria()
+                        .setBinding( RelationalBinding.greaterThanBinding( "size", 10 ) )
+                        .addProjection( Aggregation.countAll() )
+                        .addProjection( Aggregation.sum( "size" ) )
+                        .addProjection( Aggregation.avg( "size" ) )
+                        .addProjection( Aggregation.min( "size" ) );
+        row = _datastore.searchRows( Item.class, criteria ).get( 0 );
+        assertThat( row[0], is( (Object)Integer.valueOf( 0 ) ) );
+        assertThat( row[1], is( nullValue() ) );
+        assertThat( row[2], is( nullValue() ) );
+        assertThat( row[3], is( nullValue() ) );
+    }
+
+}
@@ -0,0 +1,133 @@
+package jp.go.aist.six.util.core.repository.morphia;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import org.bson.types.ObjectId;
+import org.junit.Test;
+import org.mongodb.morphia.annotations.EntityListeners;
+import org.mongodb.morphia.annotations.Id;
+import org.mongodb.morphia.annotations.PostPersist;
+import org.mongodb.morphia.annotations.PrePersist;
+import org.mongodb.morphia.annotations.Version;
+
+
+
+public class MorphiaMongoDatastoreTest
+{
+
+    /**
+     * TEST: a batch insert that hits a duplicate key.
+     * The documents inserted before the failure must not be saved again.
+     */
+    @Test
+    public void testInsertedInBatch()
+    throws Exception
+    {
+        ObjectId  id1 = new ObjectId();
+        ObjectId  id2 = new ObjectId();
+        ObjectId  id3 = new ObjectId();
+
+        // the IDs assigned by the driver; doc2 hit a duplicate key on a unique index
+        // and doc4, whose ID was given by the application, already existed
+        List<DBObject>  docs = new ArrayList<DBObject>();
+        docs.add( new BasicDBObject( "_id", id1 ).append( "name", "a" ) );
+        docs.add( new BasicDBObject( "_id", id2 ).append( "name", "dup" ) );
+        docs.add( new BasicDBObject( "_id", id3 ).append( "name", "c" ) );
+        docs.add( new BasicDBObject( "_id", "app-id" ).append( "name", "d" ) );
+        boolean[]  generated = new boolean[] { true, true, true, false };
+
+        // continue-on-error: all but doc2 are found in the collection
+        boolean[]  inserted = MorphiaMongoDatastore._insertedInBatch(
+                        docs, generated, Arrays.asList( id1, id3, "app-id" ) );
+        assertThat( inserted[0], is( true ) );
+        assertThat( inserted[1], is( false ) );
+        assertThat( inserted[2], is( true ) );
+        assertThat( inserted[3], is( false ) );
+
+        // ordered: the insert stopped at doc2
+        inserted = MorphiaMongoDatastore._insertedInBatch(
+                        docs, generated, Arrays.asList( id1 ) );
+        assertThat( inserted[0], is( true ) );
+        assertThat( inserted[1], is( false ) );
+        assertThat( inserted[2], is( false ) );
+    }
+
+
+
+    /**
+     * TEST: the classes whose objects are not inserted in batches.
+     */
+    @Test
+    public void testRequiresSave()
+    throws Exception
+    {
+        assertThat( MorphiaMongoDatastore._requiresSave( Plain.class ), is( false ) );
+        assertThat( MorphiaMongoDatastore._requiresSave( Versioned.class ), is( true ) );
+        assertThat( MorphiaMongoDatastore._requiresSave( Callback.class ), is( true ) );
+        assertThat( MorphiaMongoDatastore._requiresSave( Listened.class ), is( true ) );
+
+        // inherited from the superclass
+        assertThat( MorphiaMongoDatastore._requiresSave( VersionedSub.class ), is( true ) );
+    }
+
+
+
+    public static class Plain
+    {
+        @Id
+        private ObjectId  _id;
+
+        @PrePersist
+        void prePersist()
+        {
+        }
+    }
+    // Plain
+
+
+    public static class Versioned
+    {
+        @Id
+        private ObjectId  _id;
+
+        @Version
+        private Long  _version;
+    }
+    // Versioned
+
+
+    public static class VersionedSub
+        extends Versioned
+    {
+    }
+    // VersionedSub
+
+
+    public static class Callback
+    {
+        @Id
+        private ObjectId  _id;
+
+        @PostPersist
+        void postPersist()
+        {
+        }
+    }
+    // Callback
+
+
+    @EntityListeners( Plain.class )
+    public static class Listened
+    {
+        @Id
+        private ObjectId  _id;
+    }
+    // Listened
+
+}
+//
@@ -0,0 +1,190 @@
+package jp.go.aist.six.util.core.repository.morphia;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+import java.util.HashMap;
+import java.util.Map;
+import com.mongodb.MongoClient;
+import jp.go.aist.six.util.repository.CursorToken;
+import jp.go.aist.six.util.repository.QueryException;
+import jp.go.aist.six.util.repository.QueryParams;
+import org.bson.types.ObjectId;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.mongodb.morphia.Datastore;
+import org.mongodb.morphia.Morphia;
+import org.mongodb.morphia.annotations.Id;
+import org.mongodb.morphia.query.Query;
+import org.mongodb.morphia.query.QueryImpl;
+
+
+
+public class MorphiaQueryBuilderTest
+{
+
+    private static MongoClient  _client;
+    private static Datastore  _datastore;
+
+
+
+    @BeforeClass
+    public static void setUpClass()
+    throws Exception
+    {
+        // building a query does not connect to the server
+        _client = new MongoClient();
+        _datastore = new Morphia().createDatastore( _client, "test" );
+    }
+
+
+
+    @AfterClass
+    public static void tearDownClass()
+    throws Exception
+    {
+        _client.close();
+    }
+
+
+
+    /**
+     * TEST: the query built by a cached plan is the same as
+     * the one built by a new builder, whose plan is compiled.
+     */
+    @Test
+    public void testPlanCache()
+    throws Exception
+    {
+        QueryParams  params = new QueryParams()
+                        .set( "name", "a" )
+                        .set( "order", "-name,date" )
+                        .set( "count", "10" )
+                        .set( "after", CursorToken.encode( "a", 3, new ObjectId().toString() ) );
+
+        Item.Builder  builder = new Item.Builder();
+        String  compiled = _toString( builder.build( _createQuery(), params ) );
+        String  cached = _toString( builder.build( _createQuery(), params ) );
+        assertThat( cached, is( compiled ) );
+        assertThat( cached, is( _toString( new Item.Builder().build( _createQuery(), params ) ) ) );
+
+        // another ordering of the same shape
+        params.set( "order", "date" )
+                        .set( "after", CursorToken.encode( 3, new ObjectId().toString() ) );
+        cached = _toString( builder.build( _createQuery(), params ) );
+        assertThat( cached, is( _toString( new Item.Builder().build( _createQuery(), params ) ) ) );
+    }
+
+
+
+    /**
+     * TEST: the keyset predicate of a multi-column, mixed-direction ordering,
+     * compared with the one written by the criteria.
+     */
+    @Test
+    public void testSeek()
+    throws Exception
+    {
+        ObjectId  id = new ObjectId();
+        Item.Builder  builder = new Item.Builder();
+
+        Query<Item>  query = _createQuery();
+        builder._buildSeek( query, new String[] { "-n", "d", "_id" },
+                        new Object[] { "b", 3, id.toString() } );
+
+        // the cursor token holds the ObjectId as a string
+        Query<Item>  expected = _createQuery();
+        expected.or(
+                        expected.criteria( "n" ).lessThan( "b" ),
+                        expected.and(
+                                        expected.criteria( "n" ).equal( "b" ),
+                                        expected.criteria( "d" ).greaterThan( 3 ) ),
+                        expected.and(
+                                        expected.criteria( "n" ).equal( "b" ),
+                                        expected.criteria( "d" ).equal( 3 ),
+                                        expected.criteria( "_id" ).greaterThan( id ) ) );
+        assertThat( _toString( query ), is( _toString( expected ) ) );
+
+        // a single column
+        query = _createQuery();
+        builder._buildSeek( query, new String[] { "-_id" }, new Object[] { id.toString() } );
+        expected = _createQuery();
+        expected.criteria( "_id" ).lessThan( id );
+        assertThat( _toString( query ), is( _toString( expected ) ) );
+
+        // the key must have a value for each field
+        try {
+            builder._buildSeek( _createQuery(), new String[] { "n", "_id" }, new Object[] { "b" } );
+            fail( "mismatched key accepted" );
+        } catch (QueryException ex) {
+            // expected
+        }
+    }
+
+
+
+    private static Query<Item> _createQuery()
+    {
+        return _datastore.createQuery( Item.class ).disableValidation();
+    }
+
+
+
+    private static String _toString(
+                    final Query<?> query
+                    )
+    {
+        QueryImpl<?>  q = (QueryImpl<?>)query;
+        return (q.getQueryObject() + " " + q.getSortObject()
+                        + " " + q.getOffset() + " " + q.getLimit());
+    }
+
+
+
+    public static class Item
+    {
+        @Id
+        private ObjectId  _id;
+
+        private String  n;
+        private int  d;
+
+
+        public Item()
+        {
+        }
+
+
+
+        public static class Builder
+        extends MorphiaQueryBuilder
+        {
+            private static final Map<String, String>  _FIELDS_ = new HashMap<String, String>();
+            static {
+                _FIELDS_.put( "name", "n" );
+                _FIELDS_.put( "date", "d" );
+            }
+
+            private static final Map<String, Handler>  _HANDLERS_ =
+                CommonBuilder._createHandlerMapping();
+
+
+            @Override
+            protected Map<String, Handler> _handlerMapping()
+            {
+                return _HANDLERS_;
+            }
+
+
+            @Override
+            protected Map<String, String> _fieldMapping()
+            {
+                return _FIELDS_;
+            }
+        }
+        // Builder
+    }
+    // Item
+
+}
+//
@@ -0,0 +1,83 @@
+package jp.go.aist.six.util.metrics;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+
+
+public class DefaultMetricsRegistryTest
+{
+
+    /**
+     * TEST: the metrics are recorded per operation and type.
+     */
+    @Test
+    public void testRecord()
+    throws Exception
+    {
+        DefaultMetricsRegistry  metrics = new DefaultMetricsRegistry();
+        assertThat( metrics.getLatency( "find", String.class ), is( nullValue() ) );
+        assertThat( metrics.getErrorCount( "find", String.class ), is( 0L ) );
+
+        metrics.recordLatency( "find", String.class, 100L );
+        metrics.recordLatency( "find", String.class, 300L );
+        metrics.recordLatency( "find", Integer.class, 50L );
+        metrics.recordLatency( "count", String.class, 10L );
+        metrics.recordResultSize( "find", String.class, 7L );
+        metrics.recordError( "find", String.class, new RuntimeException() );
+        metrics.recordError( "find", String.class, new RuntimeException() );
+
+        assertThat( metrics.getLatency( "find", String.class ).getCount(), is( 2L ) );
+        assertThat( metrics.getLatency( "find", String.class ).getMax(), is( 300L ) );
+        assertThat( metrics.getLatency( "find", Integer.class ).getCount(), is( 1L ) );
+        assertThat( metrics.getLatency( "count", String.class ).getCount(), is( 1L ) );
+        assertThat( metrics.getResultSize( "find", String.class ).getSum(), is( 7L ) );
+        assertThat( metrics.getResultSize( "count", String.class ), is( nullValue() ) );
+        assertThat( metrics.getErrorCount( "find", String.class ), is( 2L ) );
+        assertThat( metrics.getErrorCount( "find", Integer.class ), is( 0L ) );
+
+        assertThat( metrics.getLatencies().keySet().toString(),
+                        is( "[count:java.lang.String, find:java.lang.Integer, find:java.lang.String]" ) );
+        assertThat( metrics.getErrorCounts().get( "find:java.lang.String" ), is( 2L ) );
+
+        metrics.reset();
+        assertThat( metrics.getLatencies().isEmpty(), is( true ) );
+        assertThat( metrics.getErrorCount( "find", String.class ), is( 0L ) );
+    }
+
+
+
+    /**
+     * TEST: the concurrent records are not lost.
+     */
+    @Test
+    public void testConcurrentRecord()
+    throws Exception
+    {
+        final DefaultMetricsRegistry  metrics = new DefaultMetricsRegistry();
+        Thread[]  threads = new Thread[4];
+        for (int  t = 0; t < threads.length; t++) {
+            threads[t] = new Thread( new Runnable()
+            {
+                public void run()
+                {
+                    for (int  i = 0; i < 1000; i++) {
+                        metrics.recordLatency( "find", String.class, i );
+                        metrics.recordError( "find", String.class, null );
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread  thread : threads) {
+            thread.join();
+        }
+
+        assertThat( metrics.getLatency( "find", String.class ).getCount(), is( 4000L ) );
+        assertThat( metrics.getLatency( "find", String.class ).getMax(), is( 999L ) );
+        assertThat( metrics.getErrorCount( "find", String.class ), is( 4000L ) );
+    }
+
+}
+//
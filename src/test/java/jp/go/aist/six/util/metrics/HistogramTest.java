@@ -0,0 +1,71 @@
+package jp.go.aist.six.util.metrics;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+
+
+public class HistogramTest
+{
+
+    /**
+     * TEST: the count, sum, max, and mean.
+     */
+    @Test
+    public void testRecord()
+    throws Exception
+    {
+        Histogram  histogram = new Histogram();
+        assertThat( histogram.getCount(), is( 0L ) );
+        assertThat( histogram.getMean(), is( 0.0 ) );
+        assertThat( histogram.getPercentile( 50.0 ), is( 0L ) );
+
+        histogram.record( 10L );
+        histogram.record( 30L );
+        histogram.record( -5L );    // recorded as zero
+        assertThat( histogram.getCount(), is( 3L ) );
+        assertThat( histogram.getSum(), is( 40L ) );
+        assertThat( histogram.getMax(), is( 30L ) );
+        assertThat( histogram.getMean(), is( 40.0 / 3 ) );
+
+        histogram.reset();
+        assertThat( histogram.getCount(), is( 0L ) );
+        assertThat( histogram.getMax(), is( 0L ) );
+    }
+
+
+
+    /**
+     * TEST: the percentile is the upper bound of the power-of-two bucket,
+     * and never exceeds the maximum.
+     */
+    @Test
+    public void testPercentile()
+    throws Exception
+    {
+        Histogram  histogram = new Histogram();
+        for (int  i = 0; i < 99; i++) {
+            histogram.record( 5L );         // bucket [4, 7]
+        }
+        histogram.record( 1000L );          // bucket [512, 1023]
+
+        assertThat( histogram.getPercentile( 0.0 ), is( 7L ) );
+        assertThat( histogram.getPercentile( 50.0 ), is( 7L ) );
+        assertThat( histogram.getPercentile( 99.0 ), is( 7L ) );
+        assertThat( histogram.getPercentile( 100.0 ), is( 1000L ) );
+
+        histogram.record( 0L );
+        histogram.record( Long.MAX_VALUE );
+        assertThat( histogram.getPercentile( 100.0 ), is( Long.MAX_VALUE ) );
+
+        try {
+            histogram.getPercentile( 100.1 );
+            fail( "invalid percentile accepted" );
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+    }
+
+}
+//
@@ -0,0 +1,69 @@
+package jp.go.aist.six.util.persist;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import org.junit.Test;
+
+
+
+public class FetchPlanTest
+{
+
+    /**
+     * TEST: the relations fetched eagerly by each plan.
+     */
+    @Test
+    public void testIsEager()
+    throws Exception
+    {
+        assertThat( FetchPlan.ALL.isEager( "references" ), is( true ) );
+        assertThat( FetchPlan.ALL.isAll(), is( true ) );
+
+        assertThat( FetchPlan.NONE.isEager( "references" ), is( false ) );
+        assertThat( FetchPlan.NONE.isAll(), is( false ) );
+
+        FetchPlan  plan = FetchPlan.eager( "references" );
+        assertThat( plan.isEager( "references" ), is( true ) );
+        assertThat( plan.isEager( "notes" ), is( false ) );
+        assertThat( plan.isAll(), is( false ) );
+
+        plan = FetchPlan.lazy( "references" );
+        assertThat( plan.isEager( "references" ), is( false ) );
+        assertThat( plan.isEager( "notes" ), is( true ) );
+        assertThat( plan.isAll(), is( false ) );
+
+        // no exception: same as ALL
+        assertThat( FetchPlan.lazy(), is( FetchPlan.ALL ) );
+        assertThat( FetchPlan.lazy().isAll(), is( true ) );
+    }
+
+
+
+    /**
+     * TEST: a plan is equal to the deserialized one.
+     */
+    @Test
+    public void testSerialization()
+    throws Exception
+    {
+        FetchPlan  plan = FetchPlan.eager( "references", "notes" );
+
+        ByteArrayOutputStream  bytes = new ByteArrayOutputStream();
+        ObjectOutputStream  out = new ObjectOutputStream( bytes );
+        out.writeObject( plan );
+        out.close();
+
+        ObjectInputStream  in = new ObjectInputStream(
+                        new ByteArrayInputStream( bytes.toByteArray() ) );
+        FetchPlan  copy = (FetchPlan)in.readObject();
+        assertThat( copy, is( plan ) );
+        assertThat( copy.hashCode(), is( plan.hashCode() ) );
+        assertThat( copy.isEager( "notes" ), is( true ) );
+    }
+
+}
+//
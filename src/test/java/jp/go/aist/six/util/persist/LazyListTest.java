@@ -0,0 +1,92 @@
+package jp.go.aist.six.util.persist;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+
+
+public class LazyListTest
+{
+
+    private static LazyList<String> _newList(
+                    final AtomicInteger loads,
+                    final List<String> elements
+                    )
+    {
+        return new LazyList<String>( new LazyList.Loader<String>()
+        {
+            public List<String> load()
+            {
+                loads.incrementAndGet();
+                return elements;
+            }
+        });
+    }
+
+
+
+    /**
+     * TEST: the elements are fetched on first access, only once.
+     */
+    @Test
+    public void testLoad()
+    throws Exception
+    {
+        AtomicInteger  loads = new AtomicInteger();
+        LazyList<String>  list = _newList( loads, Arrays.asList( "a", "b" ) );
+        assertThat( list.isLoaded(), is( false ) );
+        assertThat( list.toString(), is( "LazyList[not loaded]" ) );
+        assertThat( loads.get(), is( 0 ) );
+
+        assertThat( list.size(), is( 2 ) );
+        assertThat( list.isLoaded(), is( true ) );
+        assertThat( list.get( 1 ), is( "b" ) );
+        assertThat( loads.get(), is( 1 ) );
+
+        // modifiable
+        list.add( "c" );
+        list.remove( 0 );
+        assertThat( list, is( Arrays.asList( "b", "c" ) ) );
+        assertThat( loads.get(), is( 1 ) );
+
+        // null: empty
+        list = _newList( loads, null );
+        assertThat( list.isEmpty(), is( true ) );
+    }
+
+
+
+    /**
+     * TEST: the list is fetched and replaced by an ArrayList when serialized.
+     */
+    @Test
+    public void testSerialization()
+    throws Exception
+    {
+        AtomicInteger  loads = new AtomicInteger();
+        LazyList<String>  list = _newList( loads, Arrays.asList( "a", "b" ) );
+
+        ByteArrayOutputStream  bytes = new ByteArrayOutputStream();
+        ObjectOutputStream  out = new ObjectOutputStream( bytes );
+        out.writeObject( list );
+        out.close();
+        assertThat( loads.get(), is( 1 ) );
+
+        ObjectInputStream  in = new ObjectInputStream(
+                        new ByteArrayInputStream( bytes.toByteArray() ) );
+        Object  copy = in.readObject();
+        assertThat( copy instanceof ArrayList, is( true ) );
+        assertThat( copy, is( (Object)Arrays.asList( "a", "b" ) ) );
+    }
+
+}
+//
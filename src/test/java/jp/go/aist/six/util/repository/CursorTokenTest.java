@@ -0,0 +1,108 @@
+package jp.go.aist.six.util.repository;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Date;
+import org.junit.Test;
+
+
+
+public class CursorTokenTest
+{
+
+    /**
+     * TEST: the values of each type are decoded as encoded.
+     */
+    @Test
+    public void testRoundTrip()
+    throws Exception
+    {
+        Object[]  values = new Object[] {
+                        "abc",
+                        Integer.valueOf( -3 ),
+                        Long.valueOf( Long.MAX_VALUE ),
+                        Double.valueOf( 1.5 ),
+                        Boolean.TRUE,
+                        new Date( 1380000000000L ),
+                        null
+        };
+
+        // the type is preserved, e.g. Integer -3 does not equal Long -3
+        String  token = CursorToken.encode( values );
+        assertThat( Arrays.asList( CursorToken.decode( token ) ), is( Arrays.asList( values ) ) );
+        assertThat( CursorToken.decode( CursorToken.encode( 3L ) )[0], is( (Object)Long.valueOf( 3L ) ) );
+        assertThat( CursorToken.decode( CursorToken.encode( 3 ) )[0].equals( 3L ), is( false ) );
+    }
+
+
+
+    /**
+     * TEST: the strings containing the tags, separators, and non-ASCII chars.
+     */
+    @Test
+    public void testStrings()
+    throws Exception
+    {
+        Object[]  values = new Object[] { "", "s3:a:b", "n", "\u65e5\u672c\u8a9e", "a b/c+d=" };
+        String  token = CursorToken.encode( values );
+        assertThat( Arrays.asList( CursorToken.decode( token ) ), is( Arrays.asList( values ) ) );
+
+        // URL-safe, no padding
+        assertThat( token.matches( "[A-Za-z0-9_-]+" ), is( true ) );
+
+        // other types are encoded as the strings
+        assertThat( Arrays.asList( CursorToken.decode( CursorToken.encode( View.id ) ) ),
+                        is( Arrays.<Object>asList( "id" ) ) );
+    }
+
+
+
+    /**
+     * TEST: the malformed tokens.
+     */
+    @Test
+    public void testMalformed()
+    throws Exception
+    {
+        String[]  tokens = new String[] {
+                        null,
+                        "",
+                        "!!!",
+                        _token( "x1:a" ),
+                        _token( "s9:a" ),
+                        _token( "i3:abc" ),
+                        _token( "sa:b" )
+        };
+
+        for (String  token : tokens) {
+            try {
+                CursorToken.decode( token );
+                fail( "malformed token accepted: " + token );
+            } catch (QueryException ex) {
+                // expected
+            }
+        }
+
+        try {
+            CursorToken.encode();
+            fail( "no value accepted" );
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+    }
+
+
+
+    private static String _token(
+                    final String s
+                    )
+    {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(
+                        s.getBytes( StandardCharsets.UTF_8 ) );
+    }
+
+}
+//
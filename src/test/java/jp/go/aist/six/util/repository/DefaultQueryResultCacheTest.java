@@ -0,0 +1,84 @@
+package jp.go.aist.six.util.repository;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+
+
+public class DefaultQueryResultCacheTest
+{
+
+    /**
+     * TEST: the equivalent queries have the same key.
+     */
+    @Test
+    public void testKeyNormalization()
+    throws Exception
+    {
+        DefaultQueryResultCache  cache = new DefaultQueryResultCache();
+
+        // the order of the parameters, and the empty values
+        QueryParams  params1 = new QueryParams();
+        params1.set( "title", "xss" );
+        params1.set( "count", "10" );
+        QueryParams  params2 = new QueryParams();
+        params2.set( "count", "10" );
+        params2.set( "order", "" );
+        params2.set( "title", "xss" );
+        assertThat( cache.getKey( String.class, "find", params1 ),
+                        is( cache.getKey( String.class, "find", params2 ) ) );
+
+        // no parameters
+        assertThat( cache.getKey( String.class, "find", new QueryParams() ),
+                        is( cache.getKey( String.class, "find", null ) ) );
+
+        // the type, the operation, and the values
+        Object  key = cache.getKey( String.class, "find", params1 );
+        assertThat( key.equals( cache.getKey( Integer.class, "find", params1 ) ), is( false ) );
+        assertThat( key.equals( cache.getKey( String.class, "count", params1 ) ), is( false ) );
+        params2.set( "count", "20" );
+        assertThat( key.equals( cache.getKey( String.class, "find", params2 ) ), is( false ) );
+
+        // the name-value boundaries
+        QueryParams  params3 = new QueryParams();
+        params3.set( "a", "b1:c" );
+        QueryParams  params4 = new QueryParams();
+        params4.set( "ab", "1:c" );
+        assertThat( cache.getKey( String.class, "find", params3 )
+                        .equals( cache.getKey( String.class, "find", params4 ) ), is( false ) );
+    }
+
+
+
+    /**
+     * TEST: an invalidation hides the results of the type.
+     */
+    @Test
+    public void testInvalidate()
+    throws Exception
+    {
+        DefaultQueryResultCache  cache = new DefaultQueryResultCache();
+        Object  stringKey = cache.getKey( String.class, "count", null );
+        Object  integerKey = cache.getKey( Integer.class, "count", null );
+        cache.put( stringKey, Long.valueOf( 1L ) );
+        cache.put( integerKey, Long.valueOf( 2L ) );
+        assertThat( cache.get( stringKey ), is( (Object)Long.valueOf( 1L ) ) );
+
+        cache.invalidate( String.class );
+        assertThat( cache.get( cache.getKey( String.class, "count", null ) ), is( nullValue() ) );
+        assertThat( cache.get( cache.getKey( Integer.class, "count", null ) ),
+                        is( (Object)Long.valueOf( 2L ) ) );
+
+        // a result computed before the invalidation is never hit
+        Object  staleKey = cache.getKey( String.class, "count", null );
+        cache.invalidate( String.class );
+        cache.put( staleKey, Long.valueOf( 3L ) );
+        assertThat( cache.get( cache.getKey( String.class, "count", null ) ), is( nullValue() ) );
+
+        assertThat( cache.getHitCount(), is( 2L ) );
+        assertThat( cache.getMissCount(), is( 2L ) );
+    }
+
+}
+//